@@ -0,0 +1,64 @@
+// In-process cache kept coherent across replicas by the InvalidationBus
+
+package com.continuum.common;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.function.Function;
+
+// Values by string key, each stamped with the bus horizon it was loaded at (see
+// InvalidationBus). A writer calls invalidate after its write commits; other
+// replicas drop the entry when the message arrives unless it was loaded after
+// the write. Missing rows are not cached.
+public final class ClusterCache<V> {
+
+    private record Entry<V>(V value, long version) {
+    }
+
+    private final String name;
+    private final InvalidationBus bus;
+    private final Cache<String, Entry<V>> entries;
+
+    public ClusterCache(String name, InvalidationBus bus, MeterRegistry registry, long maxSize, Duration idle) {
+        this.name = name;
+        this.bus = bus;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(idle)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, entries, name);
+        bus.subscribe(name, new InvalidationBus.Listener() {
+            @Override
+            public void invalidate(String key, long version) {
+                // Waits for a load of the same key in progress, so its result
+                // is judged too
+                entries.asMap().computeIfPresent(key, (k, entry) -> version < entry.version() ? entry : null);
+            }
+
+            @Override
+            public void invalidateAll() {
+                entries.invalidateAll();
+            }
+        });
+    }
+
+    // The cached value for `key`, loading it on a miss. Null when `loader` finds
+    // nothing.
+    public V get(String key, Function<String, V> loader) {
+        Entry<V> entry = entries.get(key, k -> {
+            InvalidationBus.Loaded<V> loaded = bus.load(() -> loader.apply(k));
+            return loaded.value() == null ? null : new Entry<>(loaded.value(), loaded.version());
+        });
+        return entry == null ? null : entry.value();
+    }
+
+    // Drop `key` here and on every other replica. Call once the write committed.
+    public void invalidate(String key) {
+        entries.invalidate(key);
+        bus.publish(name, key);
+    }
+}
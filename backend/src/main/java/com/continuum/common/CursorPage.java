@@ -0,0 +1,22 @@
+package com.continuum.common;
+
+import java.util.List;
+import java.util.function.Function;
+
+// One page of a keyset listing. nextCursor is null on the last page.
+public record CursorPage<T>(List<T> items, String nextCursor) {
+
+    // Controllers return the items as the body and the cursor in this header, so
+    // existing clients that expect a plain JSON array keep working
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // Build a page from a query that fetched up to pageSize + 1 rows; the extra row
+    // only signals that another page exists
+    public static <E, T> CursorPage<T> of(List<E> rows, int pageSize, Function<E, KeysetCursor> position,
+            Function<E, T> mapper) {
+        boolean more = rows.size() > pageSize;
+        List<E> page = more ? rows.subList(0, pageSize) : rows;
+        String next = more ? position.apply(page.get(page.size() - 1)).encode() : null;
+        return new CursorPage<>(page.stream().map(mapper).toList(), next);
+    }
+}
@@ -0,0 +1,41 @@
+// Primary keys for memories, workspaces and users
+
+package com.continuum.common;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+// Keys are time-ordered UUIDs (version 7, RFC 9562): a 48-bit Unix millisecond
+// timestamp followed by random bits. New rows land at the right edge of the
+// primary key and (createdAt, id) indexes instead of on a random page, and
+// Postgres stores each in 16 bytes as a native uuid. Over HTTP ids remain their
+// usual string form, so ids issued before the switch (random UUIDs) still work.
+public final class Ids {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private Ids() {
+    }
+
+    public static UUID newId() {
+        long millis = System.currentTimeMillis();
+        long randA = RANDOM.nextInt(1 << 12);
+        long randB = RANDOM.nextLong();
+        long msb = (millis << 16) | 0x7000L | randA;
+        long lsb = (randB & 0x3FFF_FFFF_FFFF_FFFFL) | 0x8000_0000_0000_0000L;
+        return new UUID(msb, lsb);
+    }
+
+    // Parse an id received over the API. Returns null when it isn't a UUID, which
+    // callers treat as "no such row".
+    public static UUID parse(String id) {
+        if (id == null || id.length() != 36) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+// Cluster-wide cache invalidation over Postgres LISTEN/NOTIFY
+
+package com.continuum.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Each replica caching users, workspaces or memory sets subscribes to the caches
+// it holds, and writers publish the keys they changed. A message carries the id of
+// the writing transaction as its version: NOTIFY sent inside a transaction goes
+// out on commit, in commit order, and not at all on rollback. Caches load entries
+// through load(), which stamps each with horizon() taken in the load's own
+// transaction; a message whose version is below an entry's stamp describes a
+// write the entry already reflects and is ignored, so late or repeated messages
+// never evict fresher data, and an entry is never loaded from data older than a
+// message already applied. A replica skips its own messages, since the writer
+// updates its caches directly. Messages sent while the listening connection is
+// down are lost, so every subscriber is flushed when it reconnects. With
+// continuum.storage.postgres=false the bus does nothing.
+@Component
+public class InvalidationBus {
+
+    private static final Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+
+    static final String CHANNEL = "continuum_invalidation";
+
+    public interface Listener {
+
+        // `key` changed in a transaction with id `version`
+        void invalidate(String key, long version);
+
+        // Messages may have been missed; drop everything
+        void invalidateAll();
+    }
+
+    // A loaded value with the horizon it was loaded at
+    public record Loaded<T>(T value, long version) {
+    }
+
+    // origin|version|cache|key; the key goes last since it may contain '|'
+    record Message(String origin, long version, String cache, String key) {
+
+        static Message parse(String payload) {
+            String[] parts = payload.split("\\|", 4);
+            if (parts.length < 4) {
+                throw new IllegalArgumentException("Malformed invalidation: " + payload);
+            }
+            return new Message(parts[0], Long.parseLong(parts[1]), parts[2], parts[3]);
+        }
+    }
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate snapshot;
+    private final boolean enabled;
+    private final Duration reconnectDelay;
+    private final String origin = Ids.newId().toString();
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private final Counter received;
+    private final Counter reconnects;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public InvalidationBus(DataSource dataSource, PlatformTransactionManager transactionManager,
+            MeterRegistry registry,
+            @Value("${continuum.storage.postgres:true}") boolean postgres,
+            @Value("${continuum.cluster.invalidation.enabled:true}") boolean enabled,
+            @Value("${continuum.cluster.invalidation.reconnect-delay:PT5S}") Duration reconnectDelay) {
+        this.dataSource = dataSource;
+        this.jdbc = new JdbcTemplate(dataSource);
+        // Repeatable read: the horizon query and the load read one snapshot
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+        this.enabled = postgres && enabled;
+        this.reconnectDelay = reconnectDelay;
+        this.received = Counter.builder("continuum.invalidation.received")
+                .description("Invalidations applied from other replicas")
+                .register(registry);
+        this.reconnects = Counter.builder("continuum.invalidation.reconnects")
+                .description("Times the listening connection was re-established and caches flushed")
+                .register(registry);
+    }
+
+    public void subscribe(String cache, Listener listener) {
+        listeners.computeIfAbsent(cache, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    // Tell the other replicas that `key` of `cache` changed. Inside a transaction
+    // the message is sent when it commits; outside one it is sent now, so call it
+    // after the write.
+    public void publish(String cache, String key) {
+        if (!enabled) {
+            return;
+        }
+        jdbc.queryForList("select pg_notify(?, ? || '|' || txid_current() || '|' || ? || '|' || ?)",
+                CHANNEL, origin, cache, key);
+    }
+
+    // Stamp for an entry about to be loaded: every transaction below it has
+    // finished, so the load will see its writes
+    public long horizon() {
+        if (!enabled) {
+            return 0;
+        }
+        Long horizon = jdbc.queryForObject("select txid_snapshot_xmin(txid_current_snapshot())", Long.class);
+        return horizon == null ? 0 : horizon;
+    }
+
+    // Run `loader` stamped with the horizon, both in one read-only transaction on
+    // one connection. The stamp is then the xmin of the very snapshot the load
+    // reads. Inside a caller's transaction both join it, and the stamp is taken
+    // just before the load.
+    public <T> Loaded<T> load(Supplier<T> loader) {
+        Supplier<Loaded<T>> stamped = () -> {
+            long version = horizon();
+            return new Loaded<>(loader.get(), version);
+        };
+        return enabled ? snapshot.execute(status -> stamped.get()) : stamped.get();
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "cache-invalidation");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    // Holds one pooled connection for as long as the replica runs
+    private void run() {
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (connectedBefore) {
+                    reconnects.increment();
+                    listeners.values().forEach(list -> list.forEach(Listener::invalidateAll));
+                }
+                connectedBefore = true;
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(1000);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Cache invalidation listener lost its connection; reconnecting in {}", reconnectDelay, e);
+                connectedBefore = true;
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        try {
+            Message message = Message.parse(payload);
+            if (message.origin().equals(origin)) {
+                return;
+            }
+            for (Listener listener : listeners.getOrDefault(message.cache(), List.of())) {
+                listener.invalidate(message.key(), message.version());
+            }
+            received.increment();
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply cache invalidation {}", payload, e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+// Opaque cursor for keyset pagination over (createdAt, id)
+
+package com.continuum.common;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+// Position of the last row of a page. The next page is every row ordered after it,
+// so each page is an index range scan no matter how deep the client has paged.
+// createdAt is null for tables ordered by id alone.
+public record KeysetCursor(LocalDateTime createdAt, UUID id) {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    public String encode() {
+        String raw = (createdAt == null ? "" : createdAt.toString()) + '|' + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null for a missing cursor (first page); throws IllegalArgumentException
+    // for one this class didn't produce
+    public static KeysetCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        int sep = raw.indexOf('|');
+        if (sep < 0 || sep == raw.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        LocalDateTime createdAt;
+        try {
+            createdAt = sep == 0 ? null : LocalDateTime.parse(raw.substring(0, sep));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        UUID id = Ids.parse(raw.substring(sep + 1));
+        if (id == null) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new KeysetCursor(createdAt, id);
+    }
+
+    // Clamp a requested page size to [1, MAX_LIMIT], defaulting when absent
+    public static int pageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+}
@@ -1,5 +1,6 @@
 package com.continuum.config;
 
+import com.continuum.common.CursorPage;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -15,6 +16,7 @@ public class CorsConfig implements WebMvcConfigurer {
                         "chrome-extension://*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders(CursorPage.NEXT_CURSOR_HEADER)
                 .allowCredentials(true);
     }
 }
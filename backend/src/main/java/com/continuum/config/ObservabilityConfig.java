@@ -0,0 +1,18 @@
+package com.continuum.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+
+@Configuration
+public class ObservabilityConfig {
+
+    // Carries the current trace onto applicationTaskExecutor threads, so the
+    // prompt retrieval fan-out shows up under the request's span. Spring Boot
+    // applies a TaskDecorator bean to that executor.
+    @Bean
+    public TaskDecorator contextPropagatingTaskDecorator() {
+        return new ContextPropagatingTaskDecorator();
+    }
+}
@@ -0,0 +1,123 @@
+// Postgres-specific schema objects that Hibernate's ddl-auto can't express
+
+package com.continuum.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(name = "continuum.storage.postgres", havingValue = "true", matchIfMissing = true)
+public class PostgresSchemaInitializer implements InitializingBean {
+
+    // Full-text keyword pre-filter for context queries
+    private static final String FULL_TEXT_INDEX = "CREATE INDEX IF NOT EXISTS idx_memories_content_fts ON memories "
+            + "USING GIN (to_tsvector('english', content))";
+
+    // Every statement must be idempotent; they run on each startup.
+    private static final List<String> STATEMENTS = List.of(
+            // Tables created before ids became UUIDs (see Ids) hold them as text.
+            // ddl-auto never changes a column's type, so convert them in place.
+            convertColumns("users", "id", "uuid", "ALTER COLUMN id TYPE uuid USING id::uuid"),
+            convertColumns("workspaces", "id", "uuid", "ALTER COLUMN id TYPE uuid USING id::uuid"),
+            convertColumns("memories", "id", "uuid", "ALTER COLUMN id TYPE uuid USING id::uuid, "
+                    + "ALTER COLUMN superseded_by_id TYPE uuid USING superseded_by_id::uuid"),
+            // Type names to MemoryType codes; labels outside the enum become OTHER
+            convertColumns("memories", "type", "smallint", "ALTER COLUMN type TYPE smallint USING "
+                    + "CASE upper(type) WHEN 'PREFERENCE' THEN 1 WHEN 'GOAL' THEN 2 WHEN 'TASK' THEN 3 "
+                    + "WHEN 'DECISION' THEN 4 WHEN 'FACT' THEN 5 WHEN 'CONSTRAINT' THEN 6 ELSE 0 END"),
+            // Comma-separated tags to a text array, dropping blanks
+            convertColumns("memories", "tags", "ARRAY", "ALTER COLUMN tags TYPE text[] USING "
+                    + "NULLIF(array_remove(regexp_split_to_array(trim(tags), '\\s*,\\s*'), ''), '{}')"),
+            // Archived content as text to ContentCodec's RAW format: a 0 byte, then UTF-8
+            convertColumns("memories_archive", "content", "bytea", "ALTER COLUMN content TYPE bytea USING "
+                    + "'\\x00'::bytea || convert_to(content, 'UTF8')"),
+            FULL_TEXT_INDEX,
+            // Writing transaction of each outbox row, for commit-ordered delivery
+            // (see MemoryChangeRepository.visibleHorizon)
+            "ALTER TABLE memory_outbox ALTER COLUMN tx_id SET DEFAULT txid_current()",
+            // Flag rows written before memories.woven_prompt existed, using the
+            // markers in WovenPrompts. New rows always set it, so this runs once:
+            // the column is made NOT NULL afterwards, and later startups see that
+            // instead of scanning the table again.
+            "DO $$ BEGIN IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                    + "AND table_name = 'memories' AND column_name = 'woven_prompt' AND is_nullable = 'YES') THEN "
+                    + "UPDATE memories SET woven_prompt = (strpos(content, '===== CONTEXT START =====') > 0 "
+                    + "OR strpos(content, 'You are an AI assistant that uses a persistent memory layer (Continuum)') > 0) "
+                    + "WHERE woven_prompt IS NULL; "
+                    + "ALTER TABLE memories ALTER COLUMN woven_prompt SET NOT NULL; END IF; END $$");
+
+    // Tables hash-partitioned by user_id: the hot tier and the cold tier
+    private static final List<String> PARTITIONED_TABLES = List.of("memories", "memories_archive");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int partitions;
+
+    // The EntityManagerFactory dependency makes this run after Hibernate has
+    // created or updated the tables. `partitions` only applies when a table is
+    // first partitioned; an existing layout is kept.
+    public PostgresSchemaInitializer(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory,
+            @Value("${continuum.storage.partitions:16}") int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("continuum.storage.partitions must be positive");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitions = partitions;
+    }
+
+    // ALTER TABLE `table` with `alterations`, unless `column` already has `dataType`
+    // (as information_schema.columns reports it)
+    private static String convertColumns(String table, String column, String dataType, String alterations) {
+        return "DO $$ BEGIN IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                + "AND table_name = '" + table + "' AND column_name = '" + column + "' AND data_type <> '" + dataType
+                + "') THEN ALTER TABLE " + table + " " + alterations + "; END IF; END $$";
+    }
+
+    // Turn `table`, as ddl-auto created it, into a table hash-partitioned by
+    // user_id with the same columns, rows and indexes, unless it already is one.
+    // Postgres can't partition a table in place, so the rows are copied into a new
+    // one; that happens once, under the lock taken by the rename. Primary keys of
+    // partitioned tables must contain the partition column, so the key becomes
+    // (id, user_id); ids stay unique since they are generated (see Ids).
+    private static String partitionByUser(String table, int partitions) {
+        String old = table + "_unpartitioned";
+        return "DO $$ DECLARE definitions text[]; definition text; BEGIN "
+                + "IF EXISTS (SELECT 1 FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE n.nspname = current_schema() AND c.relname = '" + table + "' AND c.relkind = 'r') THEN "
+                + "ALTER TABLE " + table + " RENAME TO " + old + "; "
+                + "SELECT coalesce(array_agg(indexdef), '{}') INTO definitions FROM pg_indexes "
+                + "WHERE schemaname = current_schema() AND tablename = '" + old + "' "
+                + "AND indexname <> '" + table + "_pkey'; "
+                + "CREATE TABLE " + table + " (LIKE " + old + " INCLUDING DEFAULTS) PARTITION BY HASH (user_id); "
+                + "FOR i IN 0.." + (partitions - 1) + " LOOP "
+                + "EXECUTE format('CREATE TABLE %I PARTITION OF " + table + " FOR VALUES WITH (MODULUS "
+                + partitions + ", REMAINDER %s)', '" + table + "_p' || i, i); "
+                + "END LOOP; "
+                + "INSERT INTO " + table + " SELECT * FROM " + old + "; "
+                + "DROP TABLE " + old + "; "
+                + "ALTER TABLE " + table + " ADD PRIMARY KEY (id, user_id); "
+                + "FOREACH definition IN ARRAY definitions LOOP "
+                + "EXECUTE replace(definition, '" + old + "', '" + table + "'); "
+                + "END LOOP; "
+                + "END IF; END $$";
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        List<String> statements = new ArrayList<>(STATEMENTS);
+        // After the column conversions, which are cheaper before the copy, and
+        // before the index below, which then lands on the partitioned table
+        int position = statements.indexOf(FULL_TEXT_INDEX);
+        for (String table : PARTITIONED_TABLES) {
+            statements.add(position++, partitionByUser(table, partitions));
+        }
+        for (String statement : statements) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+}
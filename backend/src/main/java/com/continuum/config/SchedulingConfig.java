@@ -0,0 +1,11 @@
+package com.continuum.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Runs @Scheduled background jobs such as MemoryCompactor on Spring Boot's
+// single-threaded task scheduler
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
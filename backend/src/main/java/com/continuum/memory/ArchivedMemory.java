@@ -0,0 +1,178 @@
+// Archive table structure: the cold tier, memories moved out of the hot table by
+// compaction
+
+package com.continuum.memory;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.springframework.data.domain.Persistable;
+
+// Same columns as Memory, with content compressed (see ContentCodec) and without
+// the embedding, which can be recomputed from content. Hash-partitioned by userId
+// like memories (see PostgresSchemaInitializer). Only read when a caller asks for
+// the cold tier explicitly.
+@Entity
+@Table(name = "memories_archive", indexes = {
+        // Cold-tier context lookups, newest first
+        @Index(name = "idx_memories_archive_user_updated", columnList = "userId, updatedAt"),
+        // Repointing archived rows when the memory they point at is archived too
+        @Index(name = "idx_memories_archive_superseded_by", columnList = "supersededById")
+})
+public class ArchivedMemory implements Persistable<UUID> {
+
+    // Why a memory was archived
+    public enum Reason {
+        // Superseded by a newer preference
+        SUPERSEDED,
+        // Stored inactive as a near-duplicate (see DuplicatePolicy.LINK)
+        DUPLICATE,
+        // A TASK nobody touched for continuum.compaction.task-ttl
+        STALE_TASK,
+        // Still active, but not updated for continuum.compaction.cold-after
+        AGED,
+        // Folded into a representative memory on the same topic
+        CONSOLIDATED,
+        // Inactive for any other reason
+        INACTIVE
+    }
+
+    @Id
+    @Column(nullable = false, updatable = false)
+    public UUID id;
+
+    @Column(nullable = false)
+    public String userId;
+
+    @Column(nullable = true)
+    public String workspaceId;
+
+    @Column(nullable = false)
+    public String source;
+
+    @Column(nullable = false)
+    @Convert(converter = MemoryType.SmallintConverter.class)
+    public MemoryType type;
+
+    @Column(nullable = true)
+    public String topic;
+
+    @Column(nullable = true)
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    public String[] tags;
+
+    @Column(nullable = true)
+    public Integer importance;
+
+    // The end of its supersession chain when archived; kept pointing at the end
+    // as later memories in the chain are archived. For CONSOLIDATED rows, the
+    // representative.
+    @Column(nullable = true)
+    public UUID supersededById;
+
+    @Column(nullable = true)
+    public UUID duplicateOfId;
+
+    @Column(nullable = true)
+    public Long fingerprint;
+
+    // Compressed content; see content()
+    @Column(name = "content", nullable = false)
+    public byte[] compressedContent;
+
+    @Column(nullable = true)
+    public Boolean wovenPrompt;
+
+    @Column(nullable = false, updatable = false)
+    public LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    public LocalDateTime updatedAt;
+
+    @Column(nullable = false)
+    public LocalDateTime archivedAt;
+
+    @Column(nullable = false, length = 16)
+    @Enumerated(EnumType.STRING)
+    public Reason reason;
+
+    static ArchivedMemory of(Memory memory, Reason reason, LocalDateTime archivedAt) {
+        ArchivedMemory archived = new ArchivedMemory();
+        archived.id = memory.id;
+        archived.userId = memory.userId;
+        archived.workspaceId = memory.workspaceId;
+        archived.source = memory.source;
+        archived.type = memory.type;
+        archived.topic = memory.topic;
+        archived.tags = memory.tags;
+        archived.importance = memory.importance;
+        archived.supersededById = memory.supersededById;
+        archived.duplicateOfId = memory.duplicateOfId;
+        archived.fingerprint = memory.fingerprint;
+        archived.compressedContent = ContentCodec.encode(memory.content);
+        archived.wovenPrompt = memory.wovenPrompt;
+        archived.createdAt = memory.createdAt;
+        archived.updatedAt = memory.updatedAt;
+        archived.archivedAt = archivedAt;
+        archived.reason = reason;
+        return archived;
+    }
+
+    // Reason for archiving an inactive memory
+    static Reason reasonFor(Memory memory) {
+        if (memory.supersededById != null) {
+            return Reason.SUPERSEDED;
+        }
+        return memory.duplicateOfId != null ? Reason.DUPLICATE : Reason.INACTIVE;
+    }
+
+    String content() {
+        return ContentCodec.decode(compressedContent);
+    }
+
+    // A read-only Memory view of this row, for responses and cold-tier ranking.
+    // It is inactive, since it is no longer in the hot table.
+    Memory toMemory() {
+        Memory memory = new Memory();
+        memory.id = id;
+        memory.userId = userId;
+        memory.workspaceId = workspaceId;
+        memory.source = source;
+        memory.type = type;
+        memory.topic = topic;
+        memory.tags = tags;
+        memory.importance = importance;
+        memory.active = false;
+        memory.supersededById = supersededById;
+        memory.duplicateOfId = duplicateOfId;
+        memory.fingerprint = fingerprint;
+        memory.content = content();
+        // memories.woven_prompt is NOT NULL (see PostgresSchemaInitializer); rows
+        // archived before it was backfilled have none
+        memory.wovenPrompt = wovenPrompt != null ? wovenPrompt : WovenPrompts.detect(memory.content);
+        memory.createdAt = createdAt;
+        memory.updatedAt = updatedAt;
+        return memory;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    // Rows are only ever inserted, once, so save() can always persist without
+    // looking the id up first
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
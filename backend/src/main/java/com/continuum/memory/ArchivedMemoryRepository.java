@@ -0,0 +1,28 @@
+// Data access for archived memories
+
+package com.continuum.memory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface ArchivedMemoryRepository extends JpaRepository<ArchivedMemory, UUID> {
+
+    // A user's archived memories archived for one of `reasons`, most recently
+    // updated first
+    @Query("select a from ArchivedMemory a where a.userId = :userId and a.reason in :reasons "
+            + "order by a.updatedAt desc")
+    List<ArchivedMemory> findRecentByReasons(@Param("userId") String userId,
+            @Param("reasons") Collection<ArchivedMemory.Reason> reasons,
+            Pageable pageable);
+
+    // Point archived rows superseded by any of `ids` at `successor` instead
+    @Modifying
+    @Query("update ArchivedMemory a set a.supersededById = :successor where a.supersededById in :ids")
+    int repointSupersession(@Param("ids") Collection<UUID> ids, @Param("successor") UUID successor);
+}
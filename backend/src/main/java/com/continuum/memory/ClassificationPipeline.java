@@ -0,0 +1,191 @@
+// Background pipeline that classifies and embeds ingested memories in micro-batches
+
+package com.continuum.memory;
+
+import com.continuum.nlu.IntentClassifier;
+import com.continuum.nlu.TextEmbedder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ClassificationPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ClassificationPipeline.class);
+
+    private record Job(UUID memoryId, String text, boolean classify, boolean embed, long enqueuedAtNanos) {
+    }
+
+    // What the pipeline worked out for one memory. `classified` says whether a
+    // type was asked for; `type` is null when it wasn't or classification
+    // failed, and `embedding` likewise.
+    public record Result(UUID memoryId, String text, boolean classified, String type, float[] embedding) {
+    }
+
+    private final IntentClassifier classifier;
+    private final TextEmbedder embedder;
+    private final BlockingQueue<Job> queue;
+    private final int batchSize;
+    private final long maxWaitNanos;
+
+    private final DistributionSummary batchSizes;
+    private final Timer lag;
+    private final Counter rejected;
+
+    private volatile Consumer<Result> resultHandler;
+    private volatile boolean running;
+    private Thread worker;
+
+    public ClassificationPipeline(IntentClassifier classifier, TextEmbedder embedder, MeterRegistry registry,
+            @Value("${nlu.pipeline.queue-capacity:10000}") int queueCapacity,
+            @Value("${nlu.pipeline.batch-size:32}") int batchSize,
+            @Value("${nlu.pipeline.max-wait-ms:50}") long maxWaitMs) {
+        this.classifier = classifier;
+        this.embedder = embedder;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+
+        Gauge.builder("continuum.nlu.pipeline.queue.depth", queue, BlockingQueue::size)
+                .description("Memories waiting for classification or embedding")
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("continuum.nlu.pipeline.batch.size")
+                .description("Memories handled per pipeline batch")
+                .register(registry);
+        this.lag = Timer.builder("continuum.nlu.pipeline.lag")
+                .description("Time from ingestion to the pipeline result, recorded before it is written back")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        this.rejected = Counter.builder("continuum.nlu.pipeline.rejected")
+                .description("Submissions refused because the queue was full")
+                .register(registry);
+    }
+
+    // Start the worker. `resultHandler` receives one Result per submitted memory.
+    public synchronized void start(Consumer<Result> resultHandler) {
+        if (running) {
+            return;
+        }
+        this.resultHandler = resultHandler;
+        running = true;
+        worker = new Thread(this::run, "nlu-classification");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Queue a memory to be classified and/or embedded. Returns false when the
+    // queue is full, in which case the caller should do the work inline.
+    public boolean submit(UUID memoryId, String text, boolean classify, boolean embed) {
+        boolean accepted = queue.offer(new Job(memoryId, text, classify, embed, System.nanoTime()));
+        if (!accepted) {
+            rejected.increment();
+        }
+        return accepted;
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        List<Job> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Job first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Give the batch a short window to fill before calling the service
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (queue.drainTo(batch, batchSize - batch.size()) == 0) {
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        Job next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Pipeline batch of {} failed", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // One batch call per operation for the jobs that asked for it, then one
+    // result per job
+    private void process(List<Job> batch) {
+        batchSizes.record(batch.size());
+        List<String> types = call("Classification", batch, Job::classify, classifier::classifyIntents);
+        List<float[]> embeddings = call("Embedding", batch, Job::embed, embedder::embedAll);
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            lag.record(System.nanoTime() - job.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+            try {
+                resultHandler.accept(new Result(job.memoryId(), job.text(), job.classify(), types.get(i),
+                        embeddings.get(i)));
+            } catch (RuntimeException e) {
+                log.warn("Failed to apply pipeline result for memory {}", job.memoryId(), e);
+            }
+        }
+    }
+
+    // Results of `operation` aligned with `batch`: null for jobs that didn't ask
+    // for it, and for every job when the call fails, so none stays pending
+    private static <T> List<T> call(String name, List<Job> batch, Predicate<Job> wanted,
+            Function<List<String>, List<T>> operation) {
+        List<T> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        List<Integer> positions = new ArrayList<>(batch.size());
+        List<String> texts = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (wanted.test(batch.get(i))) {
+                positions.add(i);
+                texts.add(batch.get(i).text());
+            }
+        }
+        if (texts.isEmpty()) {
+            return results;
+        }
+        try {
+            List<T> answers = operation.apply(texts);
+            for (int i = 0; i < positions.size() && i < answers.size(); i++) {
+                results.set(positions.get(i), answers.get(i));
+            }
+        } catch (RuntimeException e) {
+            log.warn("{} batch of {} failed", name, texts.size(), e);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,44 @@
+// Progress and lease of the memory compaction job
+
+package com.continuum.memory;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+
+// One row per job. Runs resume after lastUserId; the lease stops two replicas
+// from running the job at once.
+@Entity
+@Table(name = "compaction_checkpoints")
+public class CompactionCheckpoint {
+
+    @Id
+    @Column(nullable = false, updatable = false, length = 64)
+    public String name;
+
+    // Last user fully compacted; null to start from the first user
+    @Column(nullable = true)
+    public String lastUserId;
+
+    // Instance holding the lease, until when
+    @Column(nullable = true)
+    public String leaseOwner;
+
+    @Column(nullable = true)
+    public LocalDateTime leaseUntil;
+
+    // Report of the last finished run
+    @Column(nullable = true)
+    public LocalDateTime lastRunFinishedAt;
+
+    @Column(nullable = true)
+    public Integer lastRunUsers;
+
+    @Column(nullable = true)
+    public Integer lastRunRowsReclaimed;
+
+    @Column(nullable = true)
+    public Long lastRunMillis;
+}
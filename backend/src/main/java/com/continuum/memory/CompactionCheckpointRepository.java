@@ -0,0 +1,43 @@
+// Data access for compaction checkpoints
+
+package com.continuum.memory;
+
+import java.time.LocalDateTime;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface CompactionCheckpointRepository extends JpaRepository<CompactionCheckpoint, String> {
+
+    // Take the lease if it is free, expired or already ours. Returns 1 on success.
+    @Modifying
+    @Query("update CompactionCheckpoint c set c.leaseOwner = :owner, c.leaseUntil = :until where c.name = :name "
+            + "and (c.leaseUntil is null or c.leaseUntil < :now or c.leaseOwner = :owner)")
+    int claimLease(@Param("name") String name,
+            @Param("owner") String owner,
+            @Param("now") LocalDateTime now,
+            @Param("until") LocalDateTime until);
+
+    // Record progress, as long as we still hold the lease
+    @Modifying
+    @Query("update CompactionCheckpoint c set c.lastUserId = :lastUserId "
+            + "where c.name = :name and c.leaseOwner = :owner")
+    int advance(@Param("name") String name,
+            @Param("owner") String owner,
+            @Param("lastUserId") String lastUserId);
+
+    // Store the run report and release the lease
+    @Modifying
+    @Query("update CompactionCheckpoint c set c.lastUserId = :lastUserId, c.leaseOwner = null, "
+            + "c.leaseUntil = null, c.lastRunFinishedAt = :finishedAt, c.lastRunUsers = :users, "
+            + "c.lastRunRowsReclaimed = :rowsReclaimed, c.lastRunMillis = :millis "
+            + "where c.name = :name and c.leaseOwner = :owner")
+    int finish(@Param("name") String name,
+            @Param("owner") String owner,
+            @Param("lastUserId") String lastUserId,
+            @Param("finishedAt") LocalDateTime finishedAt,
+            @Param("users") int users,
+            @Param("rowsReclaimed") int rowsReclaimed,
+            @Param("millis") long millis);
+}
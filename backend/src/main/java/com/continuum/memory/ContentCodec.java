@@ -0,0 +1,77 @@
+// Compressed storage form of memory content for the cold tier
+
+package com.continuum.memory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A format byte followed by either the UTF-8 bytes (RAW) or their raw DEFLATE
+// stream (DEFLATE), whichever is smaller. Short messages rarely shrink, so they
+// mostly stay RAW; long pasted context often halves.
+final class ContentCodec {
+
+    static final byte RAW = 0;
+    static final byte DEFLATE = 1;
+
+    private ContentCodec() {
+    }
+
+    static byte[] encode(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            // Only worth keeping if it beats the raw bytes
+            byte[] out = new byte[utf8.length + 1];
+            out[0] = DEFLATE;
+            int length = 1;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (deflater.finished() && length < out.length) {
+                return Arrays.copyOf(out, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] raw = new byte[utf8.length + 1];
+        raw[0] = RAW;
+        System.arraycopy(utf8, 0, raw, 1, utf8.length);
+        return raw;
+    }
+
+    static String decode(byte[] stored) {
+        if (stored == null || stored.length == 0) {
+            return "";
+        }
+        if (stored[0] == RAW) {
+            return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+        }
+        if (stored[0] != DEFLATE) {
+            throw new IllegalArgumentException("Unknown content format " + stored[0]);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored, 1, stored.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Structured filters on a context query
+
+package com.continuum.memory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Restricts which memories a context query may return, before any text scoring.
+// Every condition is optional and they combine with AND: type is one of `types`,
+// at least one of `anyTags`, every one of `allTags`, importance at least
+// `minImportance`, created strictly after `createdAfter`. Tags compare
+// case-insensitively.
+public final class ContextFilter {
+
+    public static final ContextFilter NONE = new ContextFilter(Set.of(), Set.of(), Set.of(), null, null);
+
+    final Set<MemoryType> types;
+    final Set<String> anyTags;
+    final Set<String> allTags;
+    final Integer minImportance;
+    final LocalDateTime createdAfter;
+
+    private ContextFilter(Set<MemoryType> types, Set<String> anyTags, Set<String> allTags, Integer minImportance,
+            LocalDateTime createdAfter) {
+        this.types = types;
+        this.anyTags = anyTags;
+        this.allTags = allTags;
+        this.minImportance = minImportance;
+        this.createdAfter = createdAfter;
+    }
+
+    // Build a filter from request fields, any of which may be null. Unlike stored
+    // memories, an unknown type label is an error here rather than OTHER, since
+    // silently widening it would return memories the caller excluded.
+    public static ContextFilter of(List<String> types, List<String> anyTags, List<String> allTags,
+            Integer minImportance, LocalDateTime createdAfter) {
+        Set<MemoryType> typeSet = EnumSet.noneOf(MemoryType.class);
+        if (types != null) {
+            for (String label : types) {
+                if (label == null || label.isBlank()) {
+                    continue;
+                }
+                try {
+                    typeSet.add(MemoryType.valueOf(label.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown memory type: " + label);
+                }
+            }
+        }
+        if (minImportance != null && (minImportance < 1 || minImportance > 5)) {
+            throw new IllegalArgumentException("minImportance must be between 1 and 5");
+        }
+        ContextFilter filter = new ContextFilter(typeSet, normalizeTags(anyTags), normalizeTags(allTags),
+                minImportance, createdAfter);
+        return filter.isEmpty() ? NONE : filter;
+    }
+
+    static ContextFilter ofTypes(Set<MemoryType> types) {
+        return types.isEmpty() ? NONE : new ContextFilter(types, Set.of(), Set.of(), null, null);
+    }
+
+    static String normalizeTag(String tag) {
+        return tag.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> normalizeTags(List<String> tags) {
+        if (tags == null) {
+            return Set.of();
+        }
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String tag : tags) {
+            if (tag != null && !tag.isBlank()) {
+                normalized.add(normalizeTag(tag));
+            }
+        }
+        return normalized;
+    }
+
+    public boolean isEmpty() {
+        return types.isEmpty() && anyTags.isEmpty() && allTags.isEmpty() && minImportance == null
+                && createdAfter == null;
+    }
+
+    // Parameters for the native filter clauses in MemoryRepository: comma-joined
+    // values, or null when the condition is unset. Tags never contain commas since
+    // they are split on them when stored.
+    String typeCodes() {
+        return types.isEmpty() ? null : types.stream()
+                .map(type -> Short.toString(type.code))
+                .collect(Collectors.joining(","));
+    }
+
+    String anyTagList() {
+        return anyTags.isEmpty() ? null : String.join(",", anyTags);
+    }
+
+    String allTagList() {
+        return allTags.isEmpty() ? null : String.join(",", allTags);
+    }
+}
@@ -0,0 +1,15 @@
+// What ingestion does with a near-duplicate of a stored memory
+
+package com.continuum.memory;
+
+public enum DuplicatePolicy {
+    // Store it like any other memory
+    OFF,
+    // Don't store it; refresh the original's updatedAt and raise its importance
+    // to the higher of the two
+    MERGE,
+    // Store it inactive, pointing at the original through duplicateOfId
+    LINK,
+    // Don't store it and report the original to the client
+    REJECT
+}
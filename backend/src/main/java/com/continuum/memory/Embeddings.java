@@ -0,0 +1,61 @@
+// Helpers for storing and comparing memory embeddings
+
+package com.continuum.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+final class Embeddings {
+
+    private Embeddings() {
+    }
+
+    // Pack a vector as little-endian float32 for the `embedding` column
+    static byte[] encode(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] decode(byte[] bytes) {
+        if (bytes == null || bytes.length < Float.BYTES) {
+            return null;
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    // Copy scaled to unit length, so cosine similarity becomes a dot product.
+    // Returns null for a zero vector.
+    static float[] normalize(float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * inv;
+        }
+        return unit;
+    }
+
+    static float dot(float[] a, float[] b) {
+        int n = Math.min(a.length, b.length);
+        float sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,311 @@
+// Approximate nearest-neighbour index (HNSW) over unit-length vectors
+
+package com.continuum.memory;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+class HnswIndex {
+
+    // A node's position in the graph: its vector plus neighbour lists per layer
+    private static final class Node {
+        final int id;
+        final float[] vector;
+        final int[][] links;
+
+        Node(int id, float[] vector, int level) {
+            this(id, vector, new int[level + 1][]);
+            Arrays.fill(links, new int[0]);
+        }
+
+        Node(int id, float[] vector, int[][] links) {
+            this.id = id;
+            this.vector = vector;
+            this.links = links;
+        }
+
+        int level() {
+            return links.length - 1;
+        }
+    }
+
+    // Search hit: node id with its cosine similarity to the query
+    static final class Hit {
+        final int id;
+        final float similarity;
+
+        Hit(int id, float similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+    }
+
+    private static final Comparator<Hit> NEAREST_FIRST = (a, b) -> Float.compare(b.similarity, a.similarity);
+    private static final Comparator<Hit> FARTHEST_FIRST = (a, b) -> Float.compare(a.similarity, b.similarity);
+
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    private Node entry;
+
+    HnswIndex(int m, int efConstruction, long seed) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    boolean contains(int id) {
+        return nodes.containsKey(id);
+    }
+
+    // Add a vector under the given id, replacing any previous vector for it
+    void insert(int id, float[] vector) {
+        float[] unit = Embeddings.normalize(vector);
+        if (unit == null) {
+            remove(id);
+            return;
+        }
+        if (nodes.containsKey(id)) {
+            remove(id);
+        }
+        int level = (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        Node node = new Node(id, unit, level);
+        nodes.put(id, node);
+        if (entry == null) {
+            entry = node;
+            return;
+        }
+
+        Node ep = entry;
+        for (int layer = entry.level(); layer > level; layer--) {
+            ep = greedyClosest(unit, ep, layer);
+        }
+        for (int layer = Math.min(level, entry.level()); layer >= 0; layer--) {
+            List<Hit> candidates = searchLayer(unit, ep, efConstruction, layer);
+            int[] selected = closest(candidates, node.id, maxLinks(layer));
+            node.links[layer] = selected;
+            for (int neighbourId : selected) {
+                Node neighbour = nodes.get(neighbourId);
+                link(neighbour, node.id, layer);
+            }
+            ep = nodes.get(candidates.get(0).id);
+        }
+        if (level > entry.level()) {
+            entry = node;
+        }
+    }
+
+    // Remove a vector, reconnecting its neighbours among themselves
+    void remove(int id) {
+        Node node = nodes.remove(id);
+        if (node == null) {
+            return;
+        }
+        for (int layer = 0; layer <= node.level(); layer++) {
+            for (int neighbourId : node.links[layer]) {
+                Node neighbour = nodes.get(neighbourId);
+                if (neighbour == null || neighbour.level() < layer) {
+                    continue;
+                }
+                Set<Integer> pool = new LinkedHashSet<>();
+                for (int other : neighbour.links[layer]) {
+                    pool.add(other);
+                }
+                for (int other : node.links[layer]) {
+                    pool.add(other);
+                }
+                pool.remove(id);
+                pool.remove(neighbourId);
+                neighbour.links[layer] = closest(toHits(neighbour.vector, pool), neighbourId, maxLinks(layer));
+            }
+        }
+        if (entry == node) {
+            entry = null;
+            for (Node candidate : nodes.values()) {
+                if (entry == null || candidate.level() > entry.level()) {
+                    entry = candidate;
+                }
+            }
+        }
+    }
+
+    // Give every node the id `newIds[id]`, keeping the graph as it is. Each node
+    // must have an entry. Links to removed nodes (remove only repairs the links
+    // the removed node held itself) are dropped on the way.
+    void renumber(int[] newIds) {
+        Map<Integer, Node> renumbered = new HashMap<>(nodes.size() * 2);
+        for (Node node : nodes.values()) {
+            int[][] links = new int[node.links.length][];
+            for (int layer = 0; layer < links.length; layer++) {
+                links[layer] = Arrays.stream(node.links[layer])
+                        .filter(nodes::containsKey)
+                        .map(id -> newIds[id])
+                        .toArray();
+            }
+            renumbered.put(newIds[node.id], new Node(newIds[node.id], node.vector, links));
+        }
+        nodes.clear();
+        nodes.putAll(renumbered);
+        entry = entry == null ? null : nodes.get(newIds[entry.id]);
+    }
+
+    // Up to k nearest ids accepted by the filter, nearest first
+    List<Hit> search(float[] query, int k, int ef, IntPredicate accept) {
+        float[] unit = Embeddings.normalize(query);
+        if (unit == null || entry == null || k <= 0) {
+            return List.of();
+        }
+        Node ep = entry;
+        for (int layer = entry.level(); layer > 0; layer--) {
+            ep = greedyClosest(unit, ep, layer);
+        }
+        List<Hit> hits = searchLayer(unit, ep, Math.max(ef, k), 0);
+        List<Hit> result = new ArrayList<>(k);
+        for (Hit hit : hits) {
+            if (accept == null || accept.test(hit.id)) {
+                result.add(hit);
+                if (result.size() == k) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Up to k nearest among the given ids by exhaustive comparison, nearest first.
+    // Exact, and cheaper than a graph walk when only a few ids are eligible.
+    List<Hit> searchExact(float[] query, int k, int[] ids) {
+        float[] unit = Embeddings.normalize(query);
+        if (unit == null || k <= 0) {
+            return List.of();
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (int id : ids) {
+            Node node = nodes.get(id);
+            if (node != null) {
+                hits.add(new Hit(node.id, Embeddings.dot(unit, node.vector)));
+            }
+        }
+        hits.sort(NEAREST_FIRST);
+        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * m : m;
+    }
+
+    private void link(Node from, int to, int layer) {
+        int[] current = from.links[layer];
+        int[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = to;
+        if (grown.length <= maxLinks(layer)) {
+            from.links[layer] = grown;
+            return;
+        }
+        List<Integer> pool = new ArrayList<>(grown.length);
+        for (int id : grown) {
+            pool.add(id);
+        }
+        from.links[layer] = closest(toHits(from.vector, pool), from.id, maxLinks(layer));
+    }
+
+    private Node greedyClosest(float[] query, Node start, int layer) {
+        Node best = start;
+        float bestSimilarity = Embeddings.dot(query, start.vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbourId : best.links[layer]) {
+                Node neighbour = nodes.get(neighbourId);
+                if (neighbour == null) {
+                    continue;
+                }
+                float similarity = Embeddings.dot(query, neighbour.vector);
+                if (similarity > bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Beam search on one layer; returns up to ef hits, nearest first
+    private List<Hit> searchLayer(float[] query, Node start, int ef, int layer) {
+        Set<Integer> visited = new HashSet<>();
+        PriorityQueue<Hit> frontier = new PriorityQueue<>(NEAREST_FIRST);
+        PriorityQueue<Hit> results = new PriorityQueue<>(FARTHEST_FIRST);
+
+        Hit first = new Hit(start.id, Embeddings.dot(query, start.vector));
+        visited.add(start.id);
+        frontier.add(first);
+        results.add(first);
+
+        while (!frontier.isEmpty()) {
+            Hit current = frontier.poll();
+            if (results.size() >= ef && current.similarity < results.peek().similarity) {
+                break;
+            }
+            Node node = nodes.get(current.id);
+            if (node == null || node.level() < layer) {
+                continue;
+            }
+            for (int neighbourId : node.links[layer]) {
+                if (!visited.add(neighbourId)) {
+                    continue;
+                }
+                Node neighbour = nodes.get(neighbourId);
+                if (neighbour == null) {
+                    continue;
+                }
+                Hit hit = new Hit(neighbourId, Embeddings.dot(query, neighbour.vector));
+                if (results.size() < ef || hit.similarity > results.peek().similarity) {
+                    frontier.add(hit);
+                    results.add(hit);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Hit> ordered = new ArrayList<>(results);
+        ordered.sort(NEAREST_FIRST);
+        return ordered;
+    }
+
+    private List<Hit> toHits(float[] origin, Collection<Integer> ids) {
+        List<Hit> hits = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Node node = nodes.get(id);
+            if (node != null) {
+                hits.add(new Hit(id, Embeddings.dot(origin, node.vector)));
+            }
+        }
+        return hits;
+    }
+
+    private static int[] closest(List<Hit> hits, int self, int max) {
+        List<Hit> sorted = new ArrayList<>(hits);
+        sorted.sort(NEAREST_FIRST);
+        int[] ids = new int[Math.min(max, sorted.size())];
+        int n = 0;
+        for (Hit hit : sorted) {
+            if (n == ids.length) {
+                break;
+            }
+            if (hit.id != self) {
+                ids[n++] = hit.id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+}
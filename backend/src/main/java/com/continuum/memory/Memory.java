@@ -4,19 +4,40 @@ package com.continuum.memory;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Table;
 import java.time.LocalDateTime;
+import java.util.UUID;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
-
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Transient;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.springframework.data.domain.Persistable;
+
+// The hot tier, hash-partitioned by userId (see PostgresSchemaInitializer).
+// MemoryCompactor moves old and inactive rows to the cold tier, ArchivedMemory.
 @Entity
-@Table(name = "memories")
-public class Memory {
+@Table(name = "memories", indexes = {
+        // Serves the per-user context lookups, which always filter on active
+        @Index(name = "idx_memories_user_workspace_active", columnList = "userId, workspaceId, active"),
+        // Finds the active preference a new one supersedes
+        @Index(name = "idx_memories_supersession", columnList = "userId, type, topic, workspaceId, active"),
+        // Keyset pagination for listings and export
+        @Index(name = "idx_memories_created_id", columnList = "createdAt, id"),
+        @Index(name = "idx_memories_user_created_id", columnList = "userId, createdAt, id"),
+        // Exact-fingerprint duplicate check when the in-memory index is off
+        @Index(name = "idx_memories_user_fingerprint", columnList = "userId, fingerprint")
+})
+public class Memory implements Persistable<UUID> {
 
     @Id
     @Column(nullable = false, updatable = false)
-    public String id;
+    public UUID id;
 
     @Column(nullable = false)
     public String userId;
@@ -30,15 +51,22 @@ public class Memory {
 
     // High-level semantic type for this memory (preference, goal, task, etc.)
     @Column(nullable = false)
-    public String type; // stored as string for now (e.g. "PREFERENCE", "GOAL")
+    @Convert(converter = MemoryType.SmallintConverter.class)
+    public MemoryType type;
+
+    // True while `type` is provisional and background classification is pending
+    @Column(nullable = true)
+    public Boolean typePending;
 
     // Optional topic key to group related memories (e.g. "tone", "language")
     @Column(nullable = true)
     public String topic;
 
-    // Comma-separated tags for now (e.g. "coding,python")
-    @Column(nullable = true, length = 512)
-    public String tags;
+    // Tags, e.g. {"coding", "python"}; a Postgres text array. The API exchanges
+    // them comma-separated (see Tags).
+    @Column(nullable = true)
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    public String[] tags;
 
     // 1–5 importance score (higher = more important)
     @Column(nullable = true)
@@ -50,27 +78,69 @@ public class Memory {
 
     // If superseded, points to the id of the newer memory
     @Column(nullable = true)
-    public String supersededById;
+    public UUID supersededById;
+
+    // If stored as a near-duplicate under the "link" policy, the memory it
+    // duplicates. Such memories are never active.
+    @Column(nullable = true)
+    public UUID duplicateOfId;
+
+    // SimHash of content; near-duplicates differ in a few bits. Null on rows
+    // written before fingerprints existed. Set whenever content is written.
+    @Column(nullable = true)
+    public Long fingerprint;
 
     @Column(nullable = false, length = 4000)
     public String content;
 
+    // True when content is a whole generated prompt pasted back in; such memories
+    // are never rendered into context. Set whenever content is written.
+    @Column(nullable = true)
+    public Boolean wovenPrompt;
+
+    // Sentence embedding of content as little-endian float32, used for semantic
+    // retrieval. Null when the embedding service was unavailable.
+    @Column(nullable = true)
+    public byte[] embedding;
+
     @Column(nullable = false, updatable = false)
     public LocalDateTime createdAt;
 
     @Column(nullable = false)
     public LocalDateTime updatedAt;
 
+    // Ids are assigned by the service, so Spring Data can't tell new entities from
+    // existing ones by a null id. Without this, every save of a new memory would
+    // SELECT it first (merge) and JDBC insert batching couldn't kick in.
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markNotNew() {
+        isNew = false;
+    }
+
     @PrePersist
     protected void onCreate() {
         LocalDateTime now = LocalDateTime.now();
         createdAt = now;
         updatedAt = now;
         // default semantic fields if not provided
-        if (type == null || type.isBlank()) {
-            type = "OTHER";
+        if (type == null) {
+            type = MemoryType.OTHER;
         }
-        active = true;
+        active = duplicateOfId == null;
     }
 
     @PreUpdate
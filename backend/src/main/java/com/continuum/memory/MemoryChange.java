@@ -0,0 +1,67 @@
+// Outbox table structure: one row per memory mutation
+
+package com.continuum.memory;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// Written by MemoryOutbox in the same transaction as the change it describes, so
+// a change is recorded if and only if it commits. Events carry ids only;
+// subscribers read whatever state they need. OutboxRelay delivers them in
+// (txId, id) order. A transaction id is assigned at a transaction's first write,
+// not at commit, so this is not commit order; changes to the same memory are
+// still in order, since writers to one row are serialized by its lock.
+@Entity
+@Table(name = "memory_outbox", indexes = {
+        @Index(name = "idx_memory_outbox_position", columnList = "txId, id")
+})
+public class MemoryChange {
+
+    public enum Kind {
+        CREATED,
+        UPDATED,
+        DELETED,
+        // Deactivated by the newer preference successorId
+        SUPERSEDED,
+        // Moved to the cold tier by compaction; successorId is set when it was
+        // folded into a representative memory
+        ARCHIVED
+    }
+
+    // Allocated in blocks so the rows of a batch ingest insert in JDBC batches
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "memory_outbox_seq")
+    @SequenceGenerator(name = "memory_outbox_seq", sequenceName = "memory_outbox_seq", allocationSize = 50)
+    public Long id;
+
+    // Id of the writing transaction, filled in by a column default (see
+    // PostgresSchemaInitializer)
+    @Column(nullable = true, insertable = false, updatable = false)
+    public Long txId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    public Kind kind;
+
+    @Column(nullable = false)
+    public UUID memoryId;
+
+    @Column(nullable = false)
+    public String userId;
+
+    @Column(nullable = true)
+    public UUID successorId;
+
+    @Column(nullable = false)
+    public LocalDateTime occurredAt;
+}
@@ -0,0 +1,38 @@
+// Data access for the memory outbox
+
+package com.continuum.memory;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface MemoryChangeRepository extends JpaRepository<MemoryChange, Long> {
+
+    // Oldest transaction id still in progress. Every transaction below it has
+    // finished, and every one that commits later is at or above it, so reading
+    // only below it never skips a change that commits behind a stored offset.
+    // Delivery follows transaction id order, which is not commit order.
+    @Query(value = "select txid_snapshot_xmin(txid_current_snapshot())", nativeQuery = true)
+    long visibleHorizon();
+
+    // Next changes after position (txId, id), from transactions below `horizon`
+    @Query("select c from MemoryChange c where c.txId < :horizon "
+            + "and (c.txId > :txId or (c.txId = :txId and c.id > :id)) order by c.txId asc, c.id asc")
+    List<MemoryChange> findAfter(@Param("txId") long txId,
+            @Param("id") long id,
+            @Param("horizon") long horizon,
+            Pageable pageable);
+
+    // Drop delivered changes: older than `before` and at or behind position
+    // (txId, id)
+    @Modifying
+    @Query("delete from MemoryChange c where c.occurredAt < :before "
+            + "and (c.txId < :txId or (c.txId = :txId and c.id <= :id))")
+    int deleteDelivered(@Param("before") LocalDateTime before,
+            @Param("txId") long txId,
+            @Param("id") long id);
+}
@@ -0,0 +1,26 @@
+// Consumer of the memory change stream
+
+package com.continuum.memory;
+
+import java.util.List;
+
+// Spring beans implementing this are fed by OutboxRelay in (txId, id) order and
+// at least once: a batch that throws is delivered again, along with anything
+// after it, so onChanges must be idempotent. Delivery resumes from the
+// subscriber's stored offset after a restart.
+public interface MemoryChangeSubscriber {
+
+    // Stable name the offset is stored under; renaming starts over from the
+    // oldest retained change
+    String name();
+
+    // True for in-process state every replica holds, such as MemoryIndex: each
+    // replica then gets every change under its own offset, starting from the
+    // changes that commit after it starts. False to have the changes handled
+    // once, by whichever replica holds the offset.
+    default boolean everyInstance() {
+        return false;
+    }
+
+    void onChanges(List<MemoryChange> changes);
+}
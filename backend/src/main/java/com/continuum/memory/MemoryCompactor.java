@@ -0,0 +1,532 @@
+// Scheduled compaction and consolidation of the memories table
+
+package com.continuum.memory;
+
+import com.continuum.common.Ids;
+import com.continuum.nlu.TextEmbedder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Keeps the hot memories table down to what context queries can return. A run
+// walks users in id order from the last checkpoint and, for each user:
+//   1. points every superseded memory straight at the end of its supersession
+//      chain, so A -> B -> C becomes A -> C and B -> C
+//   2. folds each settled cluster of active memories sharing a workspace, type
+//      and topic into one representative memory
+//   3. moves inactive memories, TASKs not updated for task-ttl and other
+//      memories not updated for cold-after to memories_archive, the cold tier.
+//      Preferences, goals and constraints stay hot however old they are.
+//   4. embeds active memories stored without an embedding (before semantic
+//      retrieval existed, or while the embedding service was down), so they
+//      rejoin semantic retrieval. Unlike the steps above this ignores min-age.
+// "Settled" means not updated for min-age, so nothing a user is still editing is
+// touched. Work happens in transactions of at most batch-size rows with a pause
+// after each, and the checkpoint is saved after every user. A run stops after
+// users-per-run users or max-run-time and the next one resumes there, starting
+// over once every user has been visited. A lease on the checkpoint row keeps
+// replicas from running at the same time.
+@Component
+@ConditionalOnProperty(name = "continuum.compaction.enabled", havingValue = "true", matchIfMissing = true)
+public class MemoryCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryCompactor.class);
+
+    private static final String CHECKPOINT = "memories";
+    private static final int USER_PAGE_SIZE = 100;
+    // Below every id, where the embedding backfill starts a user
+    private static final UUID FIRST_ID = new UUID(0, 0);
+    // Length of Memory.content
+    private static final int MAX_CONTENT = 4000;
+    private static final Set<MemoryType> ALWAYS_HOT = EnumSet.of(MemoryType.PREFERENCE, MemoryType.GOAL,
+            MemoryType.CONSTRAINT);
+
+    // A cluster's representative, the members folded into it and its new content
+    record Consolidation(Memory representative, List<Memory> members, String content) {
+    }
+
+    // What one run did. Rows reclaimed are the rows moved out of memories.
+    public record Report(int users, int collapsed, int consolidated, Map<ArchivedMemory.Reason, Integer> archived,
+            int embedded, long millis) {
+
+        public int rowsReclaimed() {
+            return archived.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    private final MemoryRepository repository;
+    private final ArchivedMemoryRepository archive;
+    private final CompactionCheckpointRepository checkpoints;
+    private final TextEmbedder embedder;
+    private final MemoryIndex index;
+    private final MemoryOutbox outbox;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration minAge;
+    private final Duration taskTtl;
+    private final Duration coldAfter;
+    private final int minClusterSize;
+    private final int usersPerRun;
+    private final int batchSize;
+    private final Duration pause;
+    private final Duration maxRunTime;
+    // Lease owner name of this instance
+    private final String owner = Ids.newId().toString();
+
+    private final Map<ArchivedMemory.Reason, Counter> archivedCounters = new EnumMap<>(ArchivedMemory.Reason.class);
+    private final Counter collapsedCounter;
+    private final Counter consolidatedCounter;
+    private final Counter embeddedCounter;
+    private final Timer runs;
+
+    public MemoryCompactor(MemoryRepository repository, ArchivedMemoryRepository archive,
+            CompactionCheckpointRepository checkpoints, TextEmbedder embedder, MemoryIndex index,
+            MemoryOutbox outbox, TransactionTemplate transactionTemplate, MeterRegistry registry,
+            @Value("${continuum.compaction.min-age:P7D}") Duration minAge,
+            @Value("${continuum.compaction.task-ttl:P90D}") Duration taskTtl,
+            @Value("${continuum.compaction.cold-after:P180D}") Duration coldAfter,
+            @Value("${continuum.compaction.min-cluster-size:3}") int minClusterSize,
+            @Value("${continuum.compaction.users-per-run:1000}") int usersPerRun,
+            @Value("${continuum.compaction.batch-size:200}") int batchSize,
+            @Value("${continuum.compaction.pause:PT0.05S}") Duration pause,
+            @Value("${continuum.compaction.max-run-time:PT5M}") Duration maxRunTime) {
+        if (minClusterSize < 2) {
+            throw new IllegalArgumentException("continuum.compaction.min-cluster-size must be at least 2");
+        }
+        if (usersPerRun < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("continuum.compaction.users-per-run and batch-size must be positive");
+        }
+        this.repository = repository;
+        this.archive = archive;
+        this.checkpoints = checkpoints;
+        this.embedder = embedder;
+        this.index = index;
+        this.outbox = outbox;
+        this.transactionTemplate = transactionTemplate;
+        this.minAge = minAge;
+        this.taskTtl = taskTtl;
+        this.coldAfter = coldAfter;
+        this.minClusterSize = minClusterSize;
+        this.usersPerRun = usersPerRun;
+        this.batchSize = batchSize;
+        this.pause = pause;
+        this.maxRunTime = maxRunTime;
+
+        for (ArchivedMemory.Reason reason : ArchivedMemory.Reason.values()) {
+            archivedCounters.put(reason, Counter.builder("continuum.compaction.archived")
+                    .description("Memories moved to memories_archive")
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        this.collapsedCounter = Counter.builder("continuum.compaction.collapsed")
+                .description("Supersession pointers moved to the end of their chain")
+                .register(registry);
+        this.consolidatedCounter = Counter.builder("continuum.compaction.consolidated")
+                .description("Memories folded into a representative on the same topic")
+                .register(registry);
+        this.embeddedCounter = Counter.builder("continuum.compaction.embedded")
+                .description("Memories given the embedding they were stored without")
+                .register(registry);
+        this.runs = Timer.builder("continuum.compaction.run")
+                .description("Duration of one compaction run")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${continuum.compaction.interval:PT1H}",
+            initialDelayString = "${continuum.compaction.initial-delay:PT5M}")
+    public void scheduledRun() {
+        compact();
+    }
+
+    // Run compaction now, from the checkpoint. Returns null when another
+    // instance holds the lease.
+    public Report compact() {
+        long started = System.nanoTime();
+        CompactionCheckpoint checkpoint = claimLease();
+        if (checkpoint == null) {
+            return null;
+        }
+        long deadline = started + maxRunTime.toNanos();
+        Tally tally = new Tally();
+        String cursor = checkpoint.lastUserId;
+        try {
+            boolean stopped = false;
+            while (!stopped && tally.users < usersPerRun) {
+                List<String> userIds = repository.findUserIdsAfter(cursor,
+                        PageRequest.of(0, Math.min(USER_PAGE_SIZE, usersPerRun - tally.users)));
+                if (userIds.isEmpty()) {
+                    cursor = null; // every user visited; the next run starts over
+                    break;
+                }
+                for (String userId : userIds) {
+                    compactUser(userId, tally);
+                    cursor = userId;
+                    tally.users++;
+                    transactionTemplate.executeWithoutResult(status -> checkpoints.advance(CHECKPOINT, owner, userId));
+                    if (System.nanoTime() > deadline || Thread.currentThread().isInterrupted()) {
+                        stopped = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            tally.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            String lastUserId = cursor;
+            transactionTemplate.executeWithoutResult(status -> checkpoints.finish(CHECKPOINT, owner, lastUserId,
+                    LocalDateTime.now(), tally.users, tally.archivedTotal(), tally.millis));
+            runs.record(tally.millis, TimeUnit.MILLISECONDS);
+        }
+        Report report = new Report(tally.users, tally.collapsed, tally.consolidated, tally.archived, tally.embedded,
+                tally.millis);
+        log.info("Compaction run: {} users, {} rows reclaimed {}, {} memories consolidated, "
+                + "{} supersession pointers collapsed, {} memories embedded in {} ms", report.users(),
+                report.rowsReclaimed(), report.archived(), report.consolidated(), report.collapsed(),
+                report.embedded(), report.millis());
+        return report;
+    }
+
+    // The checkpoint, once this instance holds its lease; null if another does.
+    // The lease outlives a run that overruns max-run-time finishing its last user.
+    private CompactionCheckpoint claimLease() {
+        if (!checkpoints.existsById(CHECKPOINT)) {
+            CompactionCheckpoint checkpoint = new CompactionCheckpoint();
+            checkpoint.name = CHECKPOINT;
+            try {
+                checkpoints.saveAndFlush(checkpoint);
+            } catch (DataIntegrityViolationException e) {
+                // Another instance created it first
+            }
+        }
+        LocalDateTime now = LocalDateTime.now();
+        return transactionTemplate.execute(status -> checkpoints.claimLease(CHECKPOINT, owner, now,
+                now.plus(maxRunTime.multipliedBy(2))) == 1 ? checkpoints.findById(CHECKPOINT).orElse(null) : null);
+    }
+
+    private void compactUser(String userId, Tally tally) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime settledBefore = now.minus(minAge);
+
+        int collapsed = transactionTemplate.execute(status -> collapseChains(userId));
+        if (collapsed > 0) {
+            tally.collapsed(collapsed);
+            pause();
+        }
+
+        for (Consolidation consolidation : planConsolidations(
+                repository.findConsolidationCandidates(userId, settledBefore), minClusterSize)) {
+            consolidate(consolidation, tally);
+            pause();
+        }
+
+        int moved;
+        do {
+            moved = archiveBatch(userId, settledBefore, now.minus(taskTtl), now.minus(coldAfter), tally);
+            if (moved > 0) {
+                pause();
+            }
+        } while (moved == batchSize && !Thread.currentThread().isInterrupted());
+
+        embedMissing(userId, tally);
+    }
+
+    // Embed a user's active memories that have none, batch-size at a time, one
+    // embedding call per batch. Stops at the first batch the service returns
+    // nothing for, so a run doesn't keep calling it while it is down; those rows
+    // are retried on the user's next visit.
+    private void embedMissing(String userId, Tally tally) {
+        UUID after = FIRST_ID;
+        List<Memory> rows;
+        do {
+            rows = repository.findUnembeddedAfter(userId, after, PageRequest.of(0, batchSize));
+            if (rows.isEmpty()) {
+                return;
+            }
+            after = rows.get(rows.size() - 1).id;
+            List<float[]> vectors = embedder.embedAll(rows.stream().map(m -> m.content).toList());
+            List<Memory> embedded = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                byte[] embedding = Embeddings.encode(vectors.get(i));
+                if (embedding != null) {
+                    rows.get(i).embedding = embedding;
+                    embedded.add(rows.get(i));
+                }
+            }
+            if (embedded.isEmpty()) {
+                return;
+            }
+            List<Memory> filled = transactionTemplate.execute(status -> {
+                List<Memory> written = new ArrayList<>(embedded.size());
+                for (Memory memory : embedded) {
+                    if (repository.fillEmbedding(memory.id, memory.content, memory.embedding) == 1) {
+                        written.add(memory);
+                    }
+                }
+                if (!written.isEmpty()) {
+                    outbox.record(MemoryChange.Kind.UPDATED, userId, written.stream().map(m -> m.id).toList(), null);
+                }
+                return written;
+            });
+            filled.forEach(index::onSaved);
+            tally.embedded(filled.size());
+            pause();
+        } while (rows.size() == batchSize && !Thread.currentThread().isInterrupted());
+    }
+
+    // Point each of a user's superseded memories at the end of its chain. Returns
+    // the number of rows changed.
+    private int collapseChains(String userId) {
+        Map<UUID, UUID> successors = new HashMap<>();
+        for (MemoryRepository.SupersessionLink link : repository.findSupersessionLinks(userId)) {
+            successors.put(link.getId(), link.getSupersededById());
+        }
+        Map<UUID, List<UUID>> byEnd = new HashMap<>();
+        chainEnds(successors).forEach((id, end) -> {
+            if (!end.equals(successors.get(id))) {
+                byEnd.computeIfAbsent(end, e -> new ArrayList<>()).add(id);
+            }
+        });
+        int collapsed = 0;
+        for (Map.Entry<UUID, List<UUID>> entry : byEnd.entrySet()) {
+            collapsed += repository.repointSupersession(entry.getValue(), entry.getKey());
+        }
+        return collapsed;
+    }
+
+    // The end of each superseded memory's supersession chain: the first successor
+    // that is not itself superseded. `successors` maps every superseded memory to
+    // its successor.
+    static Map<UUID, UUID> chainEnds(Map<UUID, UUID> successors) {
+        Map<UUID, UUID> ends = new HashMap<>();
+        for (Map.Entry<UUID, UUID> entry : successors.entrySet()) {
+            UUID end = entry.getValue();
+            // Bounded in case bad data closes a cycle
+            for (int hops = 0; successors.containsKey(end) && hops < successors.size(); hops++) {
+                UUID known = ends.get(end);
+                end = known != null ? known : successors.get(end);
+            }
+            ends.put(entry.getKey(), end);
+        }
+        return ends;
+    }
+
+    // Clusters of at least minClusterSize memories sharing a workspace, type and
+    // topic (case-insensitively), each folded into its representative: the most
+    // important member, the newest among equals. The representative keeps its
+    // content and gains every other member's on a new line, newest first, while it
+    // fits in a memory. A member whose words are already there folds in without
+    // adding them; one that doesn't fit stays as it is. Preferences are left out,
+    // since supersession already keeps one per topic, and so are woven prompts.
+    static List<Consolidation> planConsolidations(List<Memory> candidates, int minClusterSize) {
+        Map<List<Object>, List<Memory>> clusters = new LinkedHashMap<>();
+        for (Memory memory : candidates) {
+            if (memory.type == MemoryType.PREFERENCE || Boolean.TRUE.equals(memory.wovenPrompt)
+                    || memory.topic == null || memory.topic.isBlank()) {
+                continue;
+            }
+            List<Object> key = Arrays.asList(memory.workspaceId, memory.type,
+                    memory.topic.trim().toLowerCase(Locale.ROOT));
+            clusters.computeIfAbsent(key, k -> new ArrayList<>()).add(memory);
+        }
+
+        List<Consolidation> consolidations = new ArrayList<>();
+        for (List<Memory> cluster : clusters.values()) {
+            if (cluster.size() < minClusterSize) {
+                continue;
+            }
+            Comparator<Memory> newestFirst = Comparator.comparing((Memory m) -> m.updatedAt).reversed();
+            cluster.sort(Comparator.comparing((Memory m) -> m.importance == null ? 3 : m.importance).reversed()
+                    .thenComparing(newestFirst));
+            Memory representative = cluster.get(0);
+            List<Memory> others = new ArrayList<>(cluster.subList(1, cluster.size()));
+            others.sort(newestFirst);
+
+            StringBuilder content = new StringBuilder(representative.content);
+            Set<String> seen = new HashSet<>();
+            seen.add(String.join(" ", UserMemoryIndex.tokenize(representative.content)));
+            List<Memory> members = new ArrayList<>();
+            for (Memory member : others) {
+                String text = member.content.trim();
+                if (seen.add(String.join(" ", UserMemoryIndex.tokenize(text)))) {
+                    if (content.length() + 1 + text.length() > MAX_CONTENT) {
+                        continue;
+                    }
+                    content.append('\n').append(text);
+                }
+                members.add(member);
+            }
+            if (!members.isEmpty()) {
+                consolidations.add(new Consolidation(representative, members, content.toString()));
+            }
+        }
+        return consolidations;
+    }
+
+    // Apply one consolidation, unless a memory in it changed since it was planned
+    private void consolidate(Consolidation plan, Tally tally) {
+        // Embed outside the transaction so the NLU call doesn't hold a connection.
+        // Without an embedding the representative would drop out of semantic
+        // retrieval, so the cluster waits for a later run.
+        byte[] embedding = Embeddings.encode(embedder.embed(plan.content()));
+        if (embedding == null) {
+            return;
+        }
+        List<Memory> planned = new ArrayList<>(plan.members());
+        planned.add(plan.representative());
+
+        Memory saved = transactionTemplate.execute(status -> {
+            Map<UUID, Memory> current = new HashMap<>();
+            for (Memory memory : repository.findAllByIdForUpdate(planned.stream().map(m -> m.id).toList())) {
+                current.put(memory.id, memory);
+            }
+            for (Memory memory : planned) {
+                Memory now = current.get(memory.id);
+                if (now == null || !now.active || !now.updatedAt.equals(memory.updatedAt)) {
+                    return null;
+                }
+            }
+            Memory representative = current.get(plan.representative().id);
+            Set<String> tags = new LinkedHashSet<>();
+            if (representative.tags != null) {
+                tags.addAll(Arrays.asList(representative.tags));
+            }
+            LocalDateTime archivedAt = LocalDateTime.now();
+            List<Memory> members = new ArrayList<>();
+            List<ArchivedMemory> archived = new ArrayList<>();
+            for (Memory planMember : plan.members()) {
+                Memory member = current.get(planMember.id);
+                representative.importance = MemoryService.higher(representative.importance, member.importance);
+                if (member.tags != null) {
+                    tags.addAll(Arrays.asList(member.tags));
+                }
+                ArchivedMemory copy = ArchivedMemory.of(member, ArchivedMemory.Reason.CONSOLIDATED, archivedAt);
+                copy.supersededById = representative.id;
+                archived.add(copy);
+                members.add(member);
+            }
+            representative.content = plan.content();
+            representative.wovenPrompt = WovenPrompts.detect(plan.content());
+            representative.fingerprint = SimHash.of(plan.content());
+            representative.embedding = embedding;
+            representative.tags = tags.isEmpty() ? null : tags.toArray(new String[0]);
+            archive.saveAll(archived);
+            repository.deleteAll(members);
+            outbox.record(MemoryChange.Kind.ARCHIVED, representative.userId,
+                    members.stream().map(m -> m.id).toList(), representative.id);
+            outbox.record(MemoryChange.Kind.UPDATED, representative);
+            return repository.save(representative);
+        });
+        if (saved == null) {
+            return;
+        }
+        for (Memory member : plan.members()) {
+            index.onDeleted(saved.userId, member.id);
+            tally.archived(ArchivedMemory.Reason.CONSOLIDATED);
+        }
+        index.onSaved(saved);
+        tally.consolidated(plan.members().size());
+    }
+
+    // Move up to batch-size of a user's archivable rows to the archive. Returns
+    // how many were moved.
+    private int archiveBatch(String userId, LocalDateTime settledBefore, LocalDateTime staleTasksBefore,
+            LocalDateTime agedBefore, Tally tally) {
+        int[] repointed = new int[1];
+        List<Memory> moved = transactionTemplate.execute(status -> {
+            List<Memory> rows = repository.findArchivable(userId, settledBefore, MemoryType.TASK, staleTasksBefore,
+                    ALWAYS_HOT, agedBefore, PageRequest.of(0, batchSize));
+            if (rows.isEmpty()) {
+                return rows;
+            }
+            LocalDateTime archivedAt = LocalDateTime.now();
+            List<ArchivedMemory> archived = new ArrayList<>(rows.size());
+            Map<UUID, List<UUID>> bySuccessor = new HashMap<>();
+            for (Memory row : rows) {
+                archived.add(ArchivedMemory.of(row, archiveReason(row), archivedAt));
+                if (row.supersededById != null) {
+                    bySuccessor.computeIfAbsent(row.supersededById, s -> new ArrayList<>()).add(row.id);
+                }
+            }
+            archive.saveAll(archived);
+            // Rows archived earlier that point at these now point where they do,
+            // keeping archived chains collapsed too
+            for (Map.Entry<UUID, List<UUID>> entry : bySuccessor.entrySet()) {
+                repointed[0] += archive.repointSupersession(entry.getValue(), entry.getKey());
+            }
+            repository.deleteAll(rows);
+            outbox.record(MemoryChange.Kind.ARCHIVED, userId, rows.stream().map(m -> m.id).toList(), null);
+            return rows;
+        });
+        tally.collapsed(repointed[0]);
+        for (Memory row : moved) {
+            if (row.active) {
+                index.onDeleted(userId, row.id);
+            }
+            tally.archived(archiveReason(row));
+        }
+        return moved.size();
+    }
+
+    private static ArchivedMemory.Reason archiveReason(Memory row) {
+        if (!row.active) {
+            return ArchivedMemory.reasonFor(row);
+        }
+        return row.type == MemoryType.TASK ? ArchivedMemory.Reason.STALE_TASK : ArchivedMemory.Reason.AGED;
+    }
+
+    private void pause() {
+        if (pause.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(pause.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Running totals of one run
+    private final class Tally {
+        int users;
+        int collapsed;
+        int consolidated;
+        int embedded;
+        long millis;
+        final Map<ArchivedMemory.Reason, Integer> archived = new EnumMap<>(ArchivedMemory.Reason.class);
+
+        void collapsed(int count) {
+            collapsed += count;
+            collapsedCounter.increment(count);
+        }
+
+        void consolidated(int count) {
+            consolidated += count;
+            consolidatedCounter.increment(count);
+        }
+
+        void embedded(int count) {
+            embedded += count;
+            embeddedCounter.increment(count);
+        }
+
+        void archived(ArchivedMemory.Reason reason) {
+            archived.merge(reason, 1, Integer::sum);
+            archivedCounters.get(reason).increment();
+        }
+
+        int archivedTotal() {
+            return archived.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+}
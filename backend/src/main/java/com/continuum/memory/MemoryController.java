@@ -1,7 +1,21 @@
 package com.continuum.memory;
 
+import com.continuum.common.CursorPage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -12,38 +26,83 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 
 @RestController
 public class MemoryController {
 
+    private static final String NDJSON = "application/x-ndjson";
+
     private final MemoryService memoryService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
 
-    public MemoryController(MemoryService memoryService) {
+    public MemoryController(MemoryService memoryService, Validator validator, ObjectMapper objectMapper,
+            @Value("${continuum.ingestion.max-batch-size:10000}") int maxBatchSize) {
         this.memoryService = memoryService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
     }
 
-    // Create memory
+    // Create memory. A near-duplicate rejected by the duplicate policy is a 409
+    // naming the stored original in duplicateOfId; one merged into the stored
+    // original is a 200 with the original.
     @PostMapping("api/memories")
     public ResponseEntity<MemoryDto.MemoryResponse> createMemory(
             @Valid @RequestBody MemoryDto.CreateMemoryRequest request) {
-        MemoryDto.MemoryResponse resp = memoryService.createMemory(request);
-        return new ResponseEntity<>(resp, HttpStatus.CREATED);
+        return created(memoryService.createMemory(request));
     }
 
-    // Get all memories
+    // Get memories, one page at a time. The cursor for the next page is returned
+    // in the X-Next-Cursor header and is absent on the last page.
     @GetMapping("api/memories")
-    public List<MemoryDto.MemoryResponse> getMemories(@RequestParam(required = false) String userId) {
-        if (userId == null) {
-            return memoryService.listMemories();
+    public ResponseEntity<List<MemoryDto.MemoryResponse>> getMemories(@RequestParam(required = false) String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            CursorPage<MemoryDto.MemoryResponse> page = memoryService.listMemories(userId, cursor, limit);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                ok.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return ok.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
-        return memoryService.listMemoriesByUserId(userId);
     }
 
-    // Get specific memory
+    // Export memories as newline-delimited JSON, streamed straight from a database
+    // cursor so the response size doesn't bound heap usage
+    @GetMapping(value = "api/memories/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportMemories(@RequestParam(required = false) String userId) {
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            ObjectWriter json = objectMapper.writer();
+            memoryService.exportMemories(userId, memory -> {
+                try {
+                    writer.write(json.writeValueAsString(memory));
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    // Get specific memory. Only the hot tier is searched unless includeCold is set.
     @GetMapping("api/memories/{id}")
-    public ResponseEntity<MemoryDto.MemoryResponse> getMemoryById(@PathVariable @NonNull String id) {
-        MemoryDto.MemoryResponse resp = memoryService.getMemoryById(id);
+    public ResponseEntity<MemoryDto.MemoryResponse> getMemoryById(@PathVariable @NonNull String id,
+            @RequestParam(defaultValue = "false") boolean includeCold) {
+        MemoryDto.MemoryResponse resp = memoryService.getMemoryById(id, includeCold);
         if (resp == null) {
             return ResponseEntity.notFound().build();
         }
@@ -77,6 +136,66 @@ public class MemoryController {
     public ResponseEntity<MemoryDto.MemoryResponse> ingestMessage(
             @Valid @RequestBody MemoryDto.IngestMessageRequest request) {
 
+        return created(memoryService.ingestMessage(toCreateRequest(request)));
+    }
+
+    private static ResponseEntity<MemoryDto.MemoryResponse> created(MemoryDto.MemoryResponse resp) {
+        if (resp.id == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(resp);
+        }
+        if (resp.merged) {
+            return ResponseEntity.ok(resp); // no new row
+        }
+        return new ResponseEntity<>(resp, HttpStatus.CREATED);
+    }
+
+    // Ingest many raw messages in one transaction. Invalid messages, and
+    // near-duplicates rejected by the duplicate policy, are reported per index and
+    // skipped; the rest are stored.
+    @PostMapping("api/ingestion/messages:batch")
+    public ResponseEntity<MemoryDto.BatchIngestResponse> ingestMessages(
+            @Valid @RequestBody MemoryDto.BatchIngestRequest request) {
+        if (request.messages.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        MemoryDto.BatchIngestResponse response = new MemoryDto.BatchIngestResponse();
+        response.results = new ArrayList<>(request.messages.size());
+        List<MemoryDto.CreateMemoryRequest> valid = new ArrayList<>();
+        List<MemoryDto.BatchIngestResult> validResults = new ArrayList<>();
+        for (int i = 0; i < request.messages.size(); i++) {
+            MemoryDto.IngestMessageRequest message = request.messages.get(i);
+            MemoryDto.BatchIngestResult result = new MemoryDto.BatchIngestResult();
+            result.index = i;
+            response.results.add(result);
+
+            String error = validate(message);
+            if (error != null) {
+                result.error = error;
+                response.rejected++;
+                continue;
+            }
+            valid.add(toCreateRequest(message));
+            validResults.add(result);
+        }
+
+        if (!valid.isEmpty()) {
+            List<MemoryDto.MemoryResponse> stored = memoryService.ingestBatch(valid);
+            for (int i = 0; i < stored.size(); i++) {
+                MemoryDto.MemoryResponse memory = stored.get(i);
+                if (memory.id == null) {
+                    validResults.get(i).error = "duplicate of " + memory.duplicateOfId;
+                    response.rejected++;
+                } else {
+                    validResults.get(i).id = memory.id;
+                    response.accepted++;
+                }
+            }
+        }
+        return new ResponseEntity<>(response, HttpStatus.CREATED);
+    }
+
+    private MemoryDto.CreateMemoryRequest toCreateRequest(MemoryDto.IngestMessageRequest request) {
         MemoryDto.CreateMemoryRequest memoryRequest = new MemoryDto.CreateMemoryRequest();
         memoryRequest.userId = request.userId;
         memoryRequest.workspaceId = request.workspaceId;
@@ -86,9 +205,22 @@ public class MemoryController {
         memoryRequest.topic = request.topic;
         memoryRequest.tags = request.tags;
         memoryRequest.importance = request.importance;
+        return memoryRequest;
+    }
 
-        MemoryDto.MemoryResponse resp = memoryService.createMemory(memoryRequest);
-        return new ResponseEntity<>(resp, HttpStatus.CREATED);
+    // Constraint violations of one batch item as "field: message", or null if valid
+    private String validate(MemoryDto.IngestMessageRequest message) {
+        if (message == null) {
+            return "message: must not be null";
+        }
+        Set<ConstraintViolation<MemoryDto.IngestMessageRequest>> violations = validator.validate(message);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
     }
 
     // Query context: return the most relevant memories for a user + query
@@ -97,11 +229,20 @@ public class MemoryController {
             @Valid @RequestBody MemoryDto.ContextQueryRequest request) {
 
         int limit = (request.limit == null || request.limit <= 0) ? 5 : request.limit;
+        ContextFilter filter;
+        try {
+            filter = ContextFilter.of(request.types, request.anyTags, request.allTags, request.minImportance,
+                    request.createdAfter);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
         List<MemoryDto.MemoryResponse> results = memoryService.queryContext(
                 request.userId,
                 request.workspaceId,
+                filter,
                 request.query,
-                limit);
+                limit,
+                Boolean.TRUE.equals(request.includeCold));
 
         MemoryDto.ContextQueryResponse response = new MemoryDto.ContextQueryResponse();
         response.memories = results;
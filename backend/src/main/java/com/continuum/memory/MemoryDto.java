@@ -1,29 +1,39 @@
 package com.continuum.memory;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public class MemoryDto {
 
-    // Request model for creating/updating a memory directly
+    // Request model for creating/updating a memory directly. Lengths match the
+    // memories columns, so an oversized field is a 400 rather than a failed insert.
     public static class CreateMemoryRequest {
         @NotBlank
+        @Size(max = 255)
         public String userId;
 
         // Optional workspace/project this memory is associated with
+        @Size(max = 255)
         public String workspaceId;
 
         @NotBlank
+        @Size(max = 255)
         public String source;
 
         @NotBlank
+        @Size(max = 4000)
         public String content;
 
         // Optional semantic fields
-        // e.g. "PREFERENCE", "GOAL", "TASK", "DECISION", "FACT", "CONSTRAINT"
+        // One of "PREFERENCE", "GOAL", "TASK", "DECISION", "FACT", "CONSTRAINT",
+        // case-insensitive; anything else is stored as "OTHER"
         public String type;
 
         // Optional topic key (e.g. "tone", "language")
+        @Size(max = 255)
         public String topic;
 
         // Optional comma-separated tags (e.g. "coding,python")
@@ -33,27 +43,55 @@ public class MemoryDto {
         public Integer importance;
     }
 
-    // Request model for ingesting a raw message that will become a memory
+    // Request model for ingesting a raw message that will become a memory. Sized
+    // like CreateMemoryRequest; in a batch an oversized message is reported at its
+    // index instead of failing the whole insert.
     public static class IngestMessageRequest {
         @NotBlank
+        @Size(max = 255)
         public String userId;
 
         // Optional workspace/project for this ingested message
+        @Size(max = 255)
         public String workspaceId;
 
         @NotBlank
+        @Size(max = 255)
         public String source;
 
         @NotBlank
+        @Size(max = 4000)
         public String text;
 
         // Optional semantic fields when ingesting directly from a client
         public String type;
+        @Size(max = 255)
         public String topic;
         public String tags;
         public Integer importance;
     }
 
+    // Request model for ingesting many raw messages in one call
+    public static class BatchIngestRequest {
+        @NotEmpty
+        public List<IngestMessageRequest> messages;
+    }
+
+    // Outcome for one message of a batch, by its position in the request. Exactly
+    // one of id (stored) or error (rejected) is set.
+    public static class BatchIngestResult {
+        public int index;
+        public String id;
+        public String error;
+    }
+
+    // Response model for batch ingestion
+    public static class BatchIngestResponse {
+        public int accepted;
+        public int rejected;
+        public List<BatchIngestResult> results;
+    }
+
     // Request model for querying context (memories) for a user + task/query
     public static class ContextQueryRequest {
         @NotBlank
@@ -68,6 +106,25 @@ public class MemoryDto {
 
         // Limit for how many memories to return, null means "use default"
         public Integer limit;
+
+        // Optional filters, applied before ranking and combined with AND. Types
+        // are memory type names; an unknown one is rejected.
+        public List<String> types;
+
+        // Memories carrying at least one of these tags (case-insensitive)
+        public List<String> anyTags;
+
+        // Memories carrying every one of these tags (case-insensitive)
+        public List<String> allTags;
+
+        // Minimum importance from 1 to 5; memories without one are excluded
+        public Integer minImportance;
+
+        // Only memories created after this time
+        public LocalDateTime createdAfter;
+
+        // Fill slots the hot tier leaves free from the cold tier
+        public Boolean includeCold;
     }
 
     // Response model for memory data over HTTP
@@ -84,6 +141,18 @@ public class MemoryDto {
         public String tags;
         public Integer importance;
         public boolean active;
+        // Content is a previously generated prompt rather than user context
+        public boolean wovenPrompt;
+        // Set when this message was a near-duplicate of the memory with this id:
+        // either stored inactive and linked to it, or (without an id) rejected
+        public String duplicateOfId;
+        // Nothing was stored: the message was merged into this existing memory
+        public boolean merged;
+        // Read from the cold tier, where compaction moved it
+        public boolean cold;
+
+        public LocalDateTime createdAt;
+        public LocalDateTime updatedAt;
     }
 
     // Response model for context query
@@ -0,0 +1,213 @@
+// Per-user in-process search index kept in sync with memory writes
+
+package com.continuum.memory;
+
+import com.continuum.common.InvalidationBus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+// Each user's active memories are held as a pre-tokenized, searchable snapshot, so
+// repeat context queries for a user are answered without touching Postgres. The
+// set of loaded users is bounded by count and idle time; writes go through
+// onSaved/onDeleted and update a loaded user in place. Writes on other replicas
+// arrive through the InvalidationBus (published by MemoryOutbox) and drop the
+// user's index, to be rebuilt on the next query. Every replica also reads the
+// outbox change stream, which updates loaded users incrementally and covers
+// messages the bus missed.
+@Component
+public class MemoryIndex implements MemoryChangeSubscriber {
+
+    // Invalidation cache name; keys are user ids
+    static final String CACHE = "memories";
+
+    private final MemoryRepository repository;
+    private final InvalidationBus bus;
+    private final RankingModel ranking;
+    private final double vectorWeight;
+    private final boolean warmOnStartup;
+    private final int warmUsers;
+    private final Cache<String, UserMemoryIndex> users;
+
+    public MemoryIndex(MemoryRepository repository, InvalidationBus bus, RankingModel ranking,
+            MeterRegistry registry,
+            @Value("${continuum.retrieval.vector-weight:0.5}") double vectorWeight,
+            @Value("${continuum.retrieval.warm-on-startup:true}") boolean warmOnStartup,
+            @Value("${continuum.retrieval.warm-up.max-users:1000}") int warmUsers,
+            @Value("${continuum.retrieval.cache.max-users:10000}") long maxUsers,
+            @Value("${continuum.retrieval.cache.idle:PT30M}") Duration idle) {
+        this.repository = repository;
+        this.bus = bus;
+        this.ranking = ranking;
+        this.vectorWeight = vectorWeight;
+        this.warmOnStartup = warmOnStartup;
+        this.warmUsers = (int) Math.min(warmUsers, maxUsers);
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idle)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, users, "memory.context");
+        Gauge.builder("continuum.context.cache.hit-ratio", users, c -> c.stats().hitRate())
+                .description("Share of context queries served from a loaded user index")
+                .register(registry);
+        Gauge.builder("continuum.context.cache.memories", users,
+                c -> c.asMap().values().stream().mapToInt(UserMemoryIndex::size).sum())
+                .description("Active memories held across loaded user indexes")
+                .register(registry);
+        bus.subscribe(CACHE, new InvalidationBus.Listener() {
+            @Override
+            public void invalidate(String userId, long version) {
+                users.asMap().computeIfPresent(userId, (id, index) -> version < index.loadedAt ? index : null);
+            }
+
+            @Override
+            public void invalidateAll() {
+                users.invalidateAll();
+            }
+        });
+    }
+
+    // Rebuild the indexes of the most recently active users so their first
+    // queries after a restart don't pay the load cost. Capped at warm-up.max-users
+    // (and the cache bound); anyone else is loaded on first use.
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmOnStartup || warmUsers <= 0) {
+            return;
+        }
+        for (String userId : repository.findRecentlyActiveUserIds(PageRequest.of(0, warmUsers))) {
+            forUser(userId);
+        }
+    }
+
+    // Ranked memory ids for a user (optionally scoped to a workspace). The user's
+    // index is built from the database on first use. `queryVector` may be null, in
+    // which case ranking is keyword-only.
+    public List<UUID> search(String userId, String workspaceId, String query, float[] queryVector, int limit) {
+        return forUser(userId).search(query, queryVector, workspaceId, limit, vectorWeight);
+    }
+
+    // Same ranking as search over the memories that pass `filter`, returning
+    // read-only snapshots of them. `candidates` is told how many were scored.
+    List<Memory> searchSnapshots(String userId, String workspaceId, ContextFilter filter, String query,
+            float[] queryVector, int limit, IntConsumer candidates) {
+        return forUser(userId).searchSnapshots(query, queryVector, workspaceId, filter, limit, vectorWeight,
+                candidates);
+    }
+
+    // The same ranking, keyword-only, over memories that are not in the user's
+    // index, such as cold-tier rows. The index is built for this call only.
+    List<Memory> searchDetached(List<Memory> memories, String workspaceId, ContextFilter filter, String query,
+            int limit) {
+        UserMemoryIndex detached = new UserMemoryIndex(ranking);
+        // Ordinals must follow createdAt, as in forUser
+        memories.stream()
+                .sorted(Comparator.comparing((Memory m) -> m.createdAt))
+                .forEach(detached::upsert);
+        return detached.searchSnapshots(query, null, workspaceId, filter, limit, vectorWeight, n -> {
+        });
+    }
+
+    // Read-only snapshots of a user's newest active memories of the given types
+    List<Memory> newestOfTypes(String userId, String workspaceId, Set<MemoryType> types, int limit) {
+        return forUser(userId).newestOfTypes(workspaceId, types, limit);
+    }
+
+    // Read-only snapshot of the user's active memory in the same workspace that
+    // is a near-duplicate of `fingerprint` (see SimHash), or null
+    Memory findNearDuplicate(String userId, String workspaceId, long fingerprint, int maxDistance) {
+        return forUser(userId).nearDuplicate(fingerprint, workspaceId, maxDistance);
+    }
+
+    // Called after a memory has been saved. Only active memories are indexed, so a
+    // superseded one drops out. Users that are not loaded are skipped; they will
+    // pick the change up when their index is next built.
+    public void onSaved(Memory memory) {
+        users.asMap().computeIfPresent(memory.userId, (userId, index) -> {
+            if (memory.active) {
+                index.upsert(memory);
+            } else {
+                index.remove(memory.id);
+            }
+            return index;
+        });
+    }
+
+    // Called after a memory has been deleted
+    public void onDeleted(String userId, UUID memoryId) {
+        users.asMap().computeIfPresent(userId, (id, index) -> {
+            index.remove(memoryId);
+            return index;
+        });
+    }
+
+    @Override
+    public String name() {
+        return "memory-index";
+    }
+
+    @Override
+    public boolean everyInstance() {
+        return true;
+    }
+
+    // Apply changes from any replica to the loaded users they touch. Rows are
+    // re-read rather than taken from the change, so applying one twice, or one
+    // this replica applied when it made it, is harmless.
+    @Override
+    public void onChanges(List<MemoryChange> changes) {
+        List<MemoryChange> loaded = new ArrayList<>();
+        for (MemoryChange change : changes) {
+            if (users.asMap().containsKey(change.userId)) {
+                loaded.add(change);
+            }
+        }
+        if (loaded.isEmpty()) {
+            return;
+        }
+        Map<UUID, Memory> current = repository.findAllById(loaded.stream().map(c -> c.memoryId).distinct().toList())
+                .stream()
+                .collect(Collectors.toMap(m -> m.id, Function.identity()));
+        for (MemoryChange change : loaded) {
+            Memory memory = current.get(change.memoryId);
+            if (memory != null && memory.userId.equals(change.userId)) {
+                onSaved(memory);
+            } else {
+                onDeleted(change.userId, change.memoryId);
+            }
+        }
+    }
+
+    private UserMemoryIndex forUser(String userId) {
+        // The load runs atomically for this user, so a save racing with it is
+        // applied after the load instead of lost.
+        return users.get(userId, id -> {
+            InvalidationBus.Loaded<List<Memory>> loaded = bus.load(
+                    () -> repository.findByUserIdAndActiveTrueOrderByCreatedAtAsc(id));
+            UserMemoryIndex index = new UserMemoryIndex(ranking);
+            index.loadedAt = loaded.version();
+            for (Memory memory : loaded.value()) {
+                index.upsert(memory);
+            }
+            return index;
+        });
+    }
+}
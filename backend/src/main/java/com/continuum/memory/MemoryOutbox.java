@@ -0,0 +1,52 @@
+// Records memory mutations in the outbox table
+
+package com.continuum.memory;
+
+import com.continuum.common.InvalidationBus;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Every write to memories goes through here in the same transaction, so the
+// outbox holds exactly the changes that committed (see MemoryChange). The same
+// transaction tells other replicas to drop the user's MemoryIndex entry.
+@Component
+public class MemoryOutbox {
+
+    private final MemoryChangeRepository repository;
+    private final InvalidationBus bus;
+
+    public MemoryOutbox(MemoryChangeRepository repository, InvalidationBus bus) {
+        this.repository = repository;
+        this.bus = bus;
+    }
+
+    void record(MemoryChange.Kind kind, Memory memory) {
+        record(kind, memory.userId, List.of(memory.id), null);
+    }
+
+    // One change per id, all for the same user. Throws IllegalStateException
+    // outside a transaction, where the change and its event could diverge.
+    void record(MemoryChange.Kind kind, String userId, Collection<UUID> memoryIds, UUID successorId) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Memory changes must be recorded inside the writing transaction");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<MemoryChange> changes = new ArrayList<>(memoryIds.size());
+        for (UUID memoryId : memoryIds) {
+            MemoryChange change = new MemoryChange();
+            change.kind = kind;
+            change.memoryId = memoryId;
+            change.userId = userId;
+            change.successorId = successorId;
+            change.occurredAt = now;
+            changes.add(change);
+        }
+        repository.saveAll(changes);
+        bus.publish(MemoryIndex.CACHE, userId);
+    }
+}
@@ -2,11 +2,208 @@
 
 package com.continuum.memory;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
-public interface MemoryRepository extends JpaRepository<Memory, String> {
-    List<Memory> findByUserId(String userId);
+public interface MemoryRepository extends JpaRepository<Memory, UUID> {
+    // Keyset pages in (createdAt, id) order. The first page has no position; later
+    // pages start after the last row of the previous one.
+    @Query("select m from Memory m order by m.createdAt asc, m.id asc")
+    List<Memory> findFirstPage(Pageable pageable);
+
+    @Query("select m from Memory m where m.createdAt > :createdAt "
+            + "or (m.createdAt = :createdAt and m.id > :id) order by m.createdAt asc, m.id asc")
+    List<Memory> findPageAfter(@Param("createdAt") LocalDateTime createdAt,
+            @Param("id") UUID id,
+            Pageable pageable);
+
+    @Query("select m from Memory m where m.userId = :userId order by m.createdAt asc, m.id asc")
+    List<Memory> findFirstPageByUserId(@Param("userId") String userId, Pageable pageable);
+
+    @Query("select m from Memory m where m.userId = :userId and (m.createdAt > :createdAt "
+            + "or (m.createdAt = :createdAt and m.id > :id)) order by m.createdAt asc, m.id asc")
+    List<Memory> findPageByUserIdAfter(@Param("userId") String userId,
+            @Param("createdAt") LocalDateTime createdAt,
+            @Param("id") UUID id,
+            Pageable pageable);
+
+    // Cursor over every memory (or one user's) for export. Rows are fetched from
+    // the server in chunks; the caller must hold a transaction and close the stream.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select m from Memory m where (:userId is null or m.userId = :userId) order by m.createdAt asc, m.id asc")
+    Stream<Memory> streamAll(@Param("userId") String userId);
 
     List<Memory> findByUserIdAndWorkspaceId(String userId, String workspaceId);
+
+    // Active memory with exactly this content fingerprint, served by
+    // idx_memories_user_fingerprint. A null workspaceId matches memories without one.
+    Optional<Memory> findFirstByUserIdAndWorkspaceIdAndFingerprintAndActiveTrue(String userId, String workspaceId,
+            Long fingerprint);
+
+    // Active (non-superseded) memories, served by idx_memories_user_workspace_active
+    List<Memory> findByUserIdAndActiveTrueOrderByCreatedAtAsc(String userId);
+
+    // Native clauses for a ContextFilter, shared by the context queries below. Each
+    // parameter is null when its condition is unset; see ContextFilter for the
+    // comma-joined lists. Tags compare lowercased.
+    String CONTEXT_FILTER = "and (cast(:typeCodes as text) is null "
+            + "or m.type = any(cast(string_to_array(:typeCodes, ',') as smallint[]))) "
+            + "and (cast(:anyTags as text) is null "
+            + "or exists (select 1 from unnest(m.tags) t where lower(t) = any(string_to_array(:anyTags, ',')))) "
+            + "and (cast(:allTags as text) is null "
+            + "or string_to_array(:allTags, ',') <@ array(select lower(t) from unnest(m.tags) t)) "
+            + "and (cast(:minImportance as integer) is null or m.importance >= :minImportance) "
+            + "and (cast(:createdAfter as timestamp) is null or m.created_at > :createdAfter) ";
+
+    // Newest active memories that pass the filter, used to top up keyword results
+    @Query(value = "select * from memories m where m.user_id = :userId and m.active = true "
+            + "and (cast(:workspaceId as text) is null or m.workspace_id = :workspaceId) "
+            + CONTEXT_FILTER
+            + "order by m.created_at desc limit :limit", nativeQuery = true)
+    List<Memory> findRecentActive(@Param("userId") String userId,
+            @Param("workspaceId") String workspaceId,
+            @Param("typeCodes") String typeCodes,
+            @Param("anyTags") String anyTags,
+            @Param("allTags") String allTags,
+            @Param("minImportance") Integer minImportance,
+            @Param("createdAfter") LocalDateTime createdAfter,
+            @Param("limit") int limit);
+
+    // Newest active memories of the given types
+    @Query("select m from Memory m where m.userId = :userId and m.active = true and m.type in :types "
+            + "and (:workspaceId is null or m.workspaceId = :workspaceId) order by m.createdAt desc")
+    List<Memory> findRecentActiveByTypes(@Param("userId") String userId,
+            @Param("workspaceId") String workspaceId,
+            @Param("types") Collection<MemoryType> types,
+            Pageable pageable);
+
+    // Keyword pre-filter on the GIN full-text index. `tsQuery` is a to_tsquery
+    // expression such as "java | spring".
+    @Query(value = "select * from memories m where m.user_id = :userId and m.active = true "
+            + "and (cast(:workspaceId as text) is null or m.workspace_id = :workspaceId) "
+            + CONTEXT_FILTER
+            + "and to_tsvector('english', m.content) @@ to_tsquery('english', :tsQuery) "
+            + "order by ts_rank(to_tsvector('english', m.content), to_tsquery('english', :tsQuery)) desc, "
+            + "m.created_at desc limit :limit", nativeQuery = true)
+    List<Memory> searchActiveByKeywords(@Param("userId") String userId,
+            @Param("workspaceId") String workspaceId,
+            @Param("tsQuery") String tsQuery,
+            @Param("typeCodes") String typeCodes,
+            @Param("anyTags") String anyTags,
+            @Param("allTags") String allTags,
+            @Param("minImportance") Integer minImportance,
+            @Param("createdAfter") LocalDateTime createdAfter,
+            @Param("limit") int limit);
+
+    // Active memories in one supersession slot, served by idx_memories_supersession
+    @Query("select m.id from Memory m where m.userId = :userId and m.type = :type and m.topic = :topic "
+            + "and ((:workspaceId is null and m.workspaceId is null) or m.workspaceId = :workspaceId) "
+            + "and m.active = true and m.id <> :excludeId")
+    List<UUID> findActiveIdsForSupersession(@Param("userId") String userId,
+            @Param("type") MemoryType type,
+            @Param("topic") String topic,
+            @Param("workspaceId") String workspaceId,
+            @Param("excludeId") UUID excludeId);
+
+    // Bulk-deactivate superseded memories. Bypasses @PreUpdate, so updatedAt is
+    // passed in.
+    @Modifying
+    @Query("update Memory m set m.active = false, m.supersededById = :newId, m.updatedAt = :now "
+            + "where m.id in :ids")
+    int supersede(@Param("ids") Collection<UUID> ids,
+            @Param("newId") UUID newId,
+            @Param("now") LocalDateTime now);
+
+    // Transaction-scoped Postgres advisory lock on a supersession slot
+    @Query(value = "select 1 from (select pg_advisory_xact_lock(hashtext(:slot))) l", nativeQuery = true)
+    Integer lockSupersessionSlot(@Param("slot") String slot);
+
+    // Ingested memories still waiting for background classification
+    List<Memory> findByTypePendingTrue();
+
+    // User ids by their latest active memory, most recent first
+    @Query("select m.userId from Memory m where m.active = true group by m.userId order by max(m.updatedAt) desc")
+    List<String> findRecentlyActiveUserIds(Pageable pageable);
+
+    // A page of user ids in ascending order, starting after `after` (or from the
+    // first when null), for jobs that walk every user
+    @Query("select distinct m.userId from Memory m where (:after is null or m.userId > :after) order by m.userId")
+    List<String> findUserIdsAfter(@Param("after") String after, Pageable pageable);
+
+    // A superseded memory and its successor
+    interface SupersessionLink {
+        UUID getId();
+
+        UUID getSupersededById();
+    }
+
+    @Query("select m.id as id, m.supersededById as supersededById from Memory m "
+            + "where m.userId = :userId and m.supersededById is not null")
+    List<SupersessionLink> findSupersessionLinks(@Param("userId") String userId);
+
+    // Point superseded memories at another successor. Leaves updatedAt alone,
+    // since it is when the memory was superseded.
+    @Modifying
+    @Query("update Memory m set m.supersededById = :successor where m.id in :ids")
+    int repointSupersession(@Param("ids") Collection<UUID> ids, @Param("successor") UUID successor);
+
+    // Rows compaction moves to the archive, oldest first and locked until commit:
+    // inactive since before `settledBefore`, active TASKs not updated since
+    // `staleTasksBefore`, or active memories of other types outside `keptTypes`
+    // not updated since `agedBefore`. Memories awaiting classification are left
+    // alone.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select m from Memory m where m.userId = :userId "
+            + "and ((m.active = false and m.updatedAt < :settledBefore) "
+            + "or (m.active = true and m.type = :taskType and m.updatedAt < :staleTasksBefore) "
+            + "or (m.active = true and m.type <> :taskType and m.type not in :keptTypes "
+            + "and m.updatedAt < :agedBefore)) "
+            + "and (m.typePending is null or m.typePending = false) order by m.updatedAt asc")
+    List<Memory> findArchivable(@Param("userId") String userId,
+            @Param("settledBefore") LocalDateTime settledBefore,
+            @Param("taskType") MemoryType taskType,
+            @Param("staleTasksBefore") LocalDateTime staleTasksBefore,
+            @Param("keptTypes") Collection<MemoryType> keptTypes,
+            @Param("agedBefore") LocalDateTime agedBefore,
+            Pageable pageable);
+
+    // Active memories with a topic, not updated since `settledBefore`: the
+    // candidates for consolidation
+    @Query("select m from Memory m where m.userId = :userId and m.active = true and m.topic is not null "
+            + "and m.updatedAt < :settledBefore and (m.typePending is null or m.typePending = false)")
+    List<Memory> findConsolidationCandidates(@Param("userId") String userId,
+            @Param("settledBefore") LocalDateTime settledBefore);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select m from Memory m where m.id in :ids")
+    List<Memory> findAllByIdForUpdate(@Param("ids") Collection<UUID> ids);
+
+    // A page of a user's active memories stored without an embedding, in id
+    // order after `afterId`. Memories awaiting classification are left to the
+    // pipeline, which embeds them too.
+    @Query("select m from Memory m where m.userId = :userId and m.active = true and m.embedding is null "
+            + "and (m.typePending is null or m.typePending = false) and m.id > :afterId order by m.id")
+    List<Memory> findUnembeddedAfter(@Param("userId") String userId, @Param("afterId") UUID afterId,
+            Pageable pageable);
+
+    // Fill in a missing embedding, unless the content changed since it was
+    // computed. Leaves updatedAt alone, since the memory itself didn't change.
+    @Modifying
+    @Query("update Memory m set m.embedding = :embedding "
+            + "where m.id = :id and m.embedding is null and m.content = :content")
+    int fillEmbedding(@Param("id") UUID id, @Param("content") String content, @Param("embedding") byte[] embedding);
 }
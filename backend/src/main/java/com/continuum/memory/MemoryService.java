@@ -2,175 +2,782 @@
 
 package com.continuum.memory;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.lang.NonNull;
-import com.continuum.nlu.NluClient;
+import com.continuum.common.CursorPage;
+import com.continuum.common.Ids;
+import com.continuum.common.KeysetCursor;
+import com.continuum.nlu.IntentClassifier;
+import com.continuum.nlu.TextEmbedder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 
 @Service
 public class MemoryService {
 
+    // Flush and clear the persistence context at the JDBC batch size, so a large
+    // batch is sent as a few multi-row inserts and doesn't pile up managed entities
+    private static final int INSERT_FLUSH_SIZE = 500;
+    // Texts per NLU call when the pipeline is full and the work is done inline,
+    // to keep each request well inside the read timeout
+    private static final int INLINE_CHUNK_SIZE = 128;
+    private static final Set<MemoryType> PINNED_TYPES = EnumSet.of(MemoryType.PREFERENCE, MemoryType.GOAL);
+    // Cold-tier rows that were still current when archived. The others were
+    // replaced by another memory, which is what context should return.
+    private static final Set<ArchivedMemory.Reason> COLD_CONTEXT_REASONS = EnumSet.of(ArchivedMemory.Reason.AGED,
+            ArchivedMemory.Reason.STALE_TASK);
+
     private final MemoryRepository repository;
-    private final NluClient nluClient;
+    private final ArchivedMemoryRepository archive;
+    private final IntentClassifier classifier;
+    private final ClassificationPipeline classificationPipeline;
+    private final TextEmbedder embedder;
+    private final MemoryIndex index;
+    private final MemoryOutbox outbox;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final boolean useIndex;
+    private final boolean postgres;
+    private final ObservationRegistry observations;
+    private final DistributionSummary candidates;
+    private final DistributionSummary returned;
+    private final DuplicatePolicy duplicatePolicy;
+    private final int duplicateDistance;
+    private final Counter duplicates;
+    private final int coldScanLimit;
+    // Query vectors by normalized query text. Prompts repeat tasks and the same
+    // text always embeds the same, so only new queries wait on the embedder.
+    private final Cache<String, float[]> queryVectors;
 
-    public MemoryService(MemoryRepository repository, NluClient nluClient) {
+    public MemoryService(MemoryRepository repository, ArchivedMemoryRepository archive, IntentClassifier classifier,
+            ClassificationPipeline classificationPipeline, TextEmbedder embedder,
+            MemoryIndex index, MemoryOutbox outbox, TransactionTemplate transactionTemplate,
+            EntityManager entityManager,
+            MeterRegistry registry, ObservationRegistry observations,
+            @Value("${continuum.retrieval.in-memory-index:true}") boolean useIndex,
+            @Value("${continuum.storage.postgres:true}") boolean postgres,
+            @Value("${continuum.dedup.policy:merge}") String duplicatePolicy,
+            @Value("${continuum.dedup.max-distance:3}") int duplicateDistance,
+            @Value("${continuum.storage.cold-scan-limit:2000}") int coldScanLimit,
+            @Value("${continuum.retrieval.query-vectors.max-size:10000}") long queryVectorsMaxSize,
+            @Value("${continuum.retrieval.query-vectors.ttl:PT1H}") Duration queryVectorsTtl) {
+        if (duplicateDistance < 0 || duplicateDistance > SimHash.MAX_DISTANCE) {
+            throw new IllegalArgumentException(
+                    "continuum.dedup.max-distance must be between 0 and " + SimHash.MAX_DISTANCE);
+        }
         this.repository = repository;
-        this.nluClient = nluClient;
+        this.archive = archive;
+        this.classifier = classifier;
+        this.classificationPipeline = classificationPipeline;
+        this.embedder = embedder;
+        this.index = index;
+        this.outbox = outbox;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManager = entityManager;
+        this.useIndex = useIndex;
+        this.postgres = postgres;
+        this.observations = observations;
+        this.candidates = DistributionSummary.builder("continuum.context.candidates")
+                .description("Memories scored for one context query")
+                .register(registry);
+        this.returned = DistributionSummary.builder("continuum.context.results")
+                .description("Memories returned by one context query")
+                .register(registry);
+        this.duplicatePolicy = DuplicatePolicy.valueOf(duplicatePolicy.trim().toUpperCase(Locale.ROOT));
+        this.duplicateDistance = duplicateDistance;
+        this.duplicates = Counter.builder("continuum.ingest.duplicates")
+                .description("Ingested messages found to nearly duplicate a stored memory")
+                .tag("policy", this.duplicatePolicy.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+        this.coldScanLimit = coldScanLimit;
+        this.queryVectors = Caffeine.newBuilder()
+                .maximumSize(queryVectorsMaxSize)
+                .expireAfterWrite(queryVectorsTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, queryVectors, "context.query-vectors");
     }
 
     // Convert Memory entity into MemoryResponse
     public MemoryDto.MemoryResponse toResponse(Memory memory) {
         MemoryDto.MemoryResponse resp = new MemoryDto.MemoryResponse();
-        resp.id = memory.id;
+        resp.id = memory.id.toString();
         resp.userId = memory.userId;
         resp.workspaceId = memory.workspaceId;
         resp.source = memory.source;
         resp.content = memory.content;
-        resp.type = memory.type;
+        resp.type = memory.type == null ? null : memory.type.name();
         resp.topic = memory.topic;
-        resp.tags = memory.tags;
+        resp.tags = Tags.join(memory.tags);
         resp.importance = memory.importance;
         resp.active = memory.active;
+        resp.wovenPrompt = Boolean.TRUE.equals(memory.wovenPrompt);
+        resp.duplicateOfId = memory.duplicateOfId == null ? null : memory.duplicateOfId.toString();
+        resp.createdAt = memory.createdAt;
+        resp.updatedAt = memory.updatedAt;
+        return resp;
+    }
+
+    private MemoryDto.MemoryResponse toResponse(ArchivedMemory archived) {
+        MemoryDto.MemoryResponse resp = toResponse(archived.toMemory());
+        resp.cold = true;
         return resp;
     }
 
-    // Create a memory
+    // Create a memory. A near-duplicate of a stored memory is handled by the
+    // duplicate policy; a rejected one comes back without an id. The memory is
+    // stored without an embedding, which the background pipeline adds.
     public MemoryDto.MemoryResponse createMemory(MemoryDto.CreateMemoryRequest request) {
-        Memory memory = new Memory();
-        memory.id = UUID.randomUUID().toString();
-        memory.userId = request.userId;
-        memory.workspaceId = request.workspaceId;
-        memory.source = request.source;
-        memory.content = request.content;
+        Memory memory = newMemory(request);
+        MemoryDto.MemoryResponse duplicate = resolveDuplicate(memory);
+        if (duplicate != null) {
+            return duplicate;
+        }
         // Decide on the semantic type. Prefer explicit client type, otherwise ask NLU.
         String resolvedType = request.type;
         if (resolvedType == null || resolvedType.isBlank()) {
-            String predicted = nluClient.classifyIntent(memory.content);
-            if (predicted != null && !predicted.isBlank()) {
-                resolvedType = predicted;
+            resolvedType = classifier.classifyIntent(memory.content);
+        }
+        memory.type = MemoryType.of(resolvedType);
+        return submitted(persist(memory));
+    }
+
+    // Ingest a raw message. It is stored right away; an untyped message gets a
+    // provisional type, and the background pipeline classifies and embeds it.
+    public MemoryDto.MemoryResponse ingestMessage(MemoryDto.CreateMemoryRequest request) {
+        if (request.type != null && !request.type.isBlank()) {
+            return createMemory(request);
+        }
+        Memory memory = newMemory(request);
+        MemoryDto.MemoryResponse duplicate = resolveDuplicate(memory);
+        if (duplicate != null) {
+            return duplicate;
+        }
+        memory.type = MemoryType.OTHER;
+        memory.typePending = true;
+        return submitted(persist(memory));
+    }
+
+    // Hand a just-stored memory to the pipeline and respond with it. When the
+    // queue is full the work is done inline and the response reflects it.
+    private MemoryDto.MemoryResponse submitted(Memory saved) {
+        if (!classificationPipeline.submit(saved.id, saved.content, Boolean.TRUE.equals(saved.typePending), true)) {
+            processInline(List.of(saved));
+            return repository.findById(saved.id).map(this::toResponse).orElse(toResponse(saved));
+        }
+        return toResponse(saved);
+    }
+
+    // Ingest many messages in one transaction with JDBC insert batching.
+    // Supersession is resolved once per batch: within a preference slot the last
+    // message wins, and it deactivates everything older in one bulk update.
+    // Messages are classified (when untyped) and embedded in the background as
+    // in ingestMessage.
+    // Near-duplicates, of stored memories or of earlier messages in the batch, are
+    // handled by the duplicate policy. Responses follow the order of `requests`;
+    // a rejected message's response has no id.
+    public List<MemoryDto.MemoryResponse> ingestBatch(List<MemoryDto.CreateMemoryRequest> requests) {
+        List<Memory> memories = new ArrayList<>(requests.size());
+        // What each request became: a memory of this batch (its own, or the one it
+        // was merged into), a stored memory it was merged into, or a rejection
+        Memory[] outcomes = new Memory[requests.size()];
+        UUID[] mergedInto = new UUID[requests.size()];
+        UUID[] rejectedAs = new UUID[requests.size()];
+        // Stored originals to merge into, with the highest incoming importance
+        Map<UUID, Integer> storedMerges = new LinkedHashMap<>();
+        SimHash.Table<Memory> batchOriginals = new SimHash.Table<>(m -> m.fingerprint);
+        for (int i = 0; i < requests.size(); i++) {
+            MemoryDto.CreateMemoryRequest request = requests.get(i);
+            Memory memory = newMemory(request);
+            boolean classify = request.type == null || request.type.isBlank();
+            memory.type = classify ? MemoryType.OTHER : MemoryType.of(request.type);
+            memory.typePending = classify ? Boolean.TRUE : null;
+
+            if (duplicatePolicy != DuplicatePolicy.OFF) {
+                Memory earlier = batchOriginals.find(memory.fingerprint,
+                        SimHash.allowedDistance(memory.content, duplicateDistance),
+                        m -> m.userId.equals(memory.userId) && Objects.equals(m.workspaceId, memory.workspaceId));
+                Memory original = earlier != null ? earlier : findNearDuplicate(memory);
+                if (original != null) {
+                    duplicates.increment();
+                    if (duplicatePolicy == DuplicatePolicy.MERGE) {
+                        if (earlier != null) {
+                            earlier.importance = higher(earlier.importance, memory.importance);
+                            outcomes[i] = earlier;
+                        } else {
+                            storedMerges.put(original.id, higher(storedMerges.get(original.id),
+                                    memory.importance));
+                            mergedInto[i] = original.id;
+                        }
+                        continue;
+                    }
+                    if (duplicatePolicy == DuplicatePolicy.REJECT) {
+                        rejectedAs[i] = original.id;
+                        continue;
+                    }
+                    memory.duplicateOfId = original.id;
+                }
+            }
+            if (memory.duplicateOfId == null) {
+                batchOriginals.add(memory);
+            }
+            memories.add(memory);
+            outcomes[i] = memory;
+        }
+
+        // Explicitly typed preferences grouped by slot; sorted so concurrent batches
+        // take the advisory locks in the same order
+        Map<String, List<Memory>> slots = new TreeMap<>();
+        for (Memory memory : memories) {
+            if (isSupersedingPreference(memory)) {
+                slots.computeIfAbsent(slotKey(memory), k -> new ArrayList<>()).add(memory);
+            }
+        }
+
+        // Previously stored preferences deactivated by this batch, id -> userId
+        Map<UUID, String> supersededIds = new HashMap<>();
+        Map<UUID, Memory> merged = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<String, List<UUID>> existingBySlot = new HashMap<>();
+            for (Map.Entry<String, List<Memory>> slot : slots.entrySet()) {
+                Memory winner = slot.getValue().get(slot.getValue().size() - 1);
+                if (postgres) {
+                    repository.lockSupersessionSlot(slot.getKey());
+                }
+                existingBySlot.put(slot.getKey(), repository.findActiveIdsForSupersession(
+                        winner.userId, MemoryType.PREFERENCE, winner.topic, winner.workspaceId, winner.id));
+            }
+
+            for (int i = 0; i < memories.size(); i++) {
+                repository.save(memories.get(i));
+                if ((i + 1) % INSERT_FLUSH_SIZE == 0) {
+                    // Send the JDBC batch and keep the persistence context small
+                    repository.flush();
+                    entityManager.clear();
+                }
+            }
+            repository.flush();
+            memories.stream().collect(Collectors.groupingBy(m -> m.userId,
+                    Collectors.mapping(m -> m.id, Collectors.toList())))
+                    .forEach((userId, ids) -> outbox.record(MemoryChange.Kind.CREATED, userId, ids, null));
+
+            LocalDateTime now = LocalDateTime.now();
+            for (Map.Entry<String, List<Memory>> slot : slots.entrySet()) {
+                List<Memory> inSlot = slot.getValue();
+                Memory winner = inSlot.get(inSlot.size() - 1);
+                List<UUID> existing = existingBySlot.get(slot.getKey());
+                existing.forEach(id -> supersededIds.put(id, winner.userId));
+                List<UUID> ids = new ArrayList<>(existing);
+                for (Memory loser : inSlot.subList(0, inSlot.size() - 1)) {
+                    ids.add(loser.id);
+                    loser.active = false;
+                    loser.supersededById = winner.id;
+                }
+                if (!ids.isEmpty()) {
+                    repository.supersede(ids, winner.id, now);
+                    outbox.record(MemoryChange.Kind.SUPERSEDED, winner.userId, ids, winner.id);
+                }
+            }
+
+            for (Map.Entry<UUID, Integer> merge : storedMerges.entrySet()) {
+                repository.findById(merge.getKey()).ifPresent(original -> {
+                    bump(original, merge.getValue());
+                    merged.put(original.id, repository.save(original));
+                    outbox.record(MemoryChange.Kind.UPDATED, original);
+                });
+            }
+        });
+
+        supersededIds.forEach((id, userId) -> index.onDeleted(userId, id));
+        for (Memory memory : memories) {
+            index.onSaved(memory);
+        }
+        merged.values().forEach(index::onSaved);
+
+        List<Memory> inline = new ArrayList<>();
+        for (Memory memory : memories) {
+            if (!classificationPipeline.submit(memory.id, memory.content, Boolean.TRUE.equals(memory.typePending),
+                    true)) {
+                inline.add(memory);
             }
         }
-        memory.type = (resolvedType == null || resolvedType.isBlank()) ? "OTHER" : resolvedType;
+        processInline(inline);
+
+        List<MemoryDto.MemoryResponse> responses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            if (outcomes[i] != null) {
+                responses.add(toResponse(outcomes[i]));
+            } else if (mergedInto[i] != null && merged.containsKey(mergedInto[i])) {
+                responses.add(mergedResponse(merged.get(mergedInto[i])));
+            } else {
+                // Rejected, or merged into a memory deleted in the meantime
+                responses.add(rejected(rejectedAs[i] != null ? rejectedAs[i] : mergedInto[i]));
+            }
+        }
+        return responses;
+    }
+
+    // Apply the duplicate policy to a memory about to be stored. Returns the
+    // response to give instead of storing it: the merged original, or a rejection.
+    // Null means store it; under LINK it is then linked to its original.
+    private MemoryDto.MemoryResponse resolveDuplicate(Memory memory) {
+        Memory original = findNearDuplicate(memory);
+        if (original == null) {
+            return null;
+        }
+        duplicates.increment();
+        switch (duplicatePolicy) {
+            case MERGE:
+                Memory merged = merge(original.id, memory.importance);
+                return merged == null ? null : mergedResponse(merged);
+            case REJECT:
+                return rejected(original.id);
+            default:
+                memory.duplicateOfId = original.id;
+                return null;
+        }
+    }
+
+    // Active memory of the same user and workspace that `memory` nearly
+    // duplicates, or null. Without the in-memory index only identical
+    // fingerprints are found.
+    private Memory findNearDuplicate(Memory memory) {
+        if (duplicatePolicy == DuplicatePolicy.OFF) {
+            return null;
+        }
+        if (useIndex) {
+            return index.findNearDuplicate(memory.userId, memory.workspaceId, memory.fingerprint,
+                    SimHash.allowedDistance(memory.content, duplicateDistance));
+        }
+        return repository.findFirstByUserIdAndWorkspaceIdAndFingerprintAndActiveTrue(memory.userId,
+                memory.workspaceId, memory.fingerprint).orElse(null);
+    }
+
+    // Refresh a stored memory in place of storing its near-duplicate. Null if the
+    // original has been deleted since it was found.
+    private Memory merge(UUID originalId, Integer importance) {
+        Memory merged = transactionTemplate.execute(status -> repository.findById(originalId)
+                .map(original -> {
+                    bump(original, importance);
+                    outbox.record(MemoryChange.Kind.UPDATED, original);
+                    return repository.save(original);
+                })
+                .orElse(null));
+        if (merged != null) {
+            index.onSaved(merged);
+        }
+        return merged;
+    }
+
+    // Mark a memory as seen again: refresh updatedAt and keep the higher importance
+    private static void bump(Memory original, Integer importance) {
+        original.updatedAt = LocalDateTime.now();
+        original.importance = higher(original.importance, importance);
+    }
+
+    static Integer higher(Integer a, Integer b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : Math.max(a, b);
+    }
+
+    private MemoryDto.MemoryResponse mergedResponse(Memory original) {
+        MemoryDto.MemoryResponse resp = toResponse(original);
+        resp.merged = true;
+        return resp;
+    }
+
+    private static MemoryDto.MemoryResponse rejected(UUID originalId) {
+        MemoryDto.MemoryResponse resp = new MemoryDto.MemoryResponse();
+        resp.duplicateOfId = originalId.toString();
+        return resp;
+    }
+
+    // Write back a background pipeline result in one transaction: the type,
+    // superseding older preferences if the memory turned out to be one, and the
+    // embedding unless the content changed or was embedded since
+    void applyResult(ClassificationPipeline.Result result) {
+        List<UUID> supersededIds = new ArrayList<>();
+        Memory updated = transactionTemplate.execute(status -> {
+            Memory memory = repository.findById(result.memoryId()).orElse(null);
+            if (memory == null) {
+                return null;
+            }
+            // Otherwise explicitly typed since ingestion
+            boolean classify = result.classified() && Boolean.TRUE.equals(memory.typePending);
+            boolean embed = result.embedding() != null && memory.embedding == null
+                    && Objects.equals(memory.content, result.text());
+            if (!classify && !embed) {
+                return null;
+            }
+            if (classify) {
+                memory.type = MemoryType.of(result.type());
+                memory.typePending = null;
+                supersededIds.addAll(supersedePreferences(memory));
+            }
+            if (embed) {
+                memory.embedding = Embeddings.encode(result.embedding());
+            }
+            outbox.record(MemoryChange.Kind.UPDATED, memory);
+            return repository.save(memory);
+        });
+        if (updated == null) {
+            return;
+        }
+        for (UUID oldId : supersededIds) {
+            index.onDeleted(updated.userId, oldId);
+        }
+        index.onSaved(updated);
+    }
+
+    // The pipeline's work for `memories`, done here, still batched: used when
+    // its queue is full rather than drop the work
+    private void processInline(List<Memory> memories) {
+        for (int from = 0; from < memories.size(); from += INLINE_CHUNK_SIZE) {
+            List<Memory> chunk = memories.subList(from, Math.min(from + INLINE_CHUNK_SIZE, memories.size()));
+            List<Memory> untyped = chunk.stream().filter(m -> Boolean.TRUE.equals(m.typePending)).toList();
+            List<String> types = classifier.classifyIntents(untyped.stream().map(m -> m.content).toList());
+            List<float[]> vectors = embedder.embedAll(chunk.stream().map(m -> m.content).toList());
+            int next = 0;
+            for (int i = 0; i < chunk.size(); i++) {
+                Memory memory = chunk.get(i);
+                boolean classify = Boolean.TRUE.equals(memory.typePending);
+                applyResult(new ClassificationPipeline.Result(memory.id, memory.content, classify,
+                        classify ? types.get(next++) : null, vectors.get(i)));
+            }
+        }
+    }
+
+    @PostConstruct
+    void startClassificationPipeline() {
+        classificationPipeline.start(this::applyResult);
+    }
+
+    // Re-queue memories whose background classification was lost to a restart
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingClassifications() {
+        for (Memory memory : repository.findByTypePendingTrue()) {
+            if (!classificationPipeline.submit(memory.id, memory.content, true, memory.embedding == null)) {
+                break;
+            }
+        }
+    }
+
+    private Memory newMemory(MemoryDto.CreateMemoryRequest request) {
+        Memory memory = new Memory();
+        memory.id = Ids.newId();
+        memory.userId = request.userId;
+        memory.workspaceId = request.workspaceId;
+        memory.source = request.source;
+        memory.content = request.content;
+        memory.wovenPrompt = WovenPrompts.detect(request.content);
+        memory.fingerprint = SimHash.of(request.content);
         memory.topic = request.topic;
-        memory.tags = request.tags;
+        memory.tags = Tags.parse(request.tags);
         memory.importance = request.importance;
+        return memory;
+    }
 
-        // If this is a PREFERENCE with a topic, mark older preferences for the same
-        // user+topic as inactive and superseded.
-        if ("PREFERENCE".equalsIgnoreCase(memory.type) && memory.topic != null && !memory.topic.isBlank()) {
-            List<Memory> existingPrefs = repository.findByUserId(request.userId).stream()
-                    .filter(m -> m.type != null
-                            && "PREFERENCE".equalsIgnoreCase(m.type)
-                            && Objects.equals(m.topic, memory.topic)
-                            && Objects.equals(m.workspaceId, memory.workspaceId)
-                            && m.active)
-                    .toList();
+    // Insert a new memory and supersede older preferences in one transaction. NLU
+    // calls happen before this or in the pipeline, so they don't hold a connection.
+    private Memory persist(Memory memory) {
+        List<UUID> supersededIds = new ArrayList<>();
+        Memory saved = transactionTemplate.execute(status -> {
+            supersededIds.addAll(supersedePreferences(memory));
+            outbox.record(MemoryChange.Kind.CREATED, memory);
+            return repository.save(memory);
+        });
 
-            for (Memory old : existingPrefs) {
-                old.active = false;
-                old.supersededById = memory.id;
-                repository.save(old);
-            }
+        for (UUID oldId : supersededIds) {
+            index.onDeleted(saved.userId, oldId);
         }
+        index.onSaved(saved);
+        return saved;
+    }
 
-        Memory saved = repository.save(memory);
-        return toResponse(saved);
+    // Linked near-duplicates are stored inactive and never supersede anything
+    private static boolean isSupersedingPreference(Memory memory) {
+        return memory.type == MemoryType.PREFERENCE && memory.topic != null && !memory.topic.isBlank()
+                && memory.duplicateOfId == null;
+    }
+
+    // Advisory lock key for a user+topic+workspace preference slot
+    private static String slotKey(Memory memory) {
+        return memory.userId + '|' + memory.topic + '|' + memory.workspaceId;
+    }
+
+    // If this is a PREFERENCE with a topic, mark older active preferences for the
+    // same user+topic+workspace as inactive and superseded by `memory`, and
+    // record that in the outbox. Must run inside a transaction; returns the
+    // superseded ids.
+    private List<UUID> supersedePreferences(Memory memory) {
+        if (!isSupersedingPreference(memory)) {
+            return List.of();
+        }
+        // Serialize writers on the same preference slot until commit, so two
+        // concurrent inserts can't both see "no active preference" and stay active.
+        if (postgres) {
+            repository.lockSupersessionSlot(slotKey(memory));
+        }
+        List<UUID> ids = repository.findActiveIdsForSupersession(
+                memory.userId, MemoryType.PREFERENCE, memory.topic, memory.workspaceId, memory.id);
+        if (!ids.isEmpty()) {
+            repository.supersede(ids, memory.id, LocalDateTime.now());
+            outbox.record(MemoryChange.Kind.SUPERSEDED, memory.userId, ids, memory.id);
+        }
+        return ids;
     }
 
     // Update a memory
     public MemoryDto.MemoryResponse updateMemory(@NonNull String id,
             MemoryDto.CreateMemoryRequest request) {
-        Optional<Memory> optional = repository.findById(id);
+        Optional<Memory> optional = find(id);
         if (optional.isEmpty()) {
             return null; // controller will turn this into 404
         }
 
         Memory existing = optional.get();
+        String previousUserId = existing.userId;
         existing.userId = request.userId;
         existing.source = request.source;
+        if (!Objects.equals(existing.content, request.content)) {
+            existing.embedding = Embeddings.encode(embedder.embed(request.content));
+        }
         existing.content = request.content;
+        existing.wovenPrompt = WovenPrompts.detect(request.content);
+        existing.fingerprint = SimHash.of(request.content);
 
-        Memory updated = repository.save(existing);
+        Memory updated = transactionTemplate.execute(status -> {
+            outbox.record(MemoryChange.Kind.UPDATED, existing);
+            if (!Objects.equals(previousUserId, existing.userId)) {
+                // The previous owner's memory set changed too
+                outbox.record(MemoryChange.Kind.UPDATED, previousUserId, List.of(existing.id), null);
+            }
+            return repository.save(existing);
+        });
+        if (!Objects.equals(previousUserId, updated.userId)) {
+            index.onDeleted(previousUserId, updated.id);
+        }
+        index.onSaved(updated);
         return toResponse(updated);
     }
 
-    // List all memories
-    public List<MemoryDto.MemoryResponse> listMemories() {
-        return repository.findAll().stream()
-                .map(this::toResponse)
-                .toList();
+    // List one page of memories, optionally for a single user, oldest first.
+    // Throws IllegalArgumentException for a malformed cursor.
+    public CursorPage<MemoryDto.MemoryResponse> listMemories(String userId, String cursor, Integer limit) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        int pageSize = KeysetCursor.pageSize(limit);
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+
+        List<Memory> rows;
+        if (userId == null) {
+            rows = after == null
+                    ? repository.findFirstPage(page)
+                    : repository.findPageAfter(after.createdAt(), after.id(), page);
+        } else {
+            rows = after == null
+                    ? repository.findFirstPageByUserId(userId, page)
+                    : repository.findPageByUserIdAfter(userId, after.createdAt(), after.id(), page);
+        }
+        return CursorPage.of(rows, pageSize, m -> new KeysetCursor(m.createdAt, m.id), this::toResponse);
     }
 
-    // List all memories by user
-    public List<MemoryDto.MemoryResponse> listMemoriesByUserId(String userId) {
-        return repository.findByUserId(userId).stream()
-                .map(this::toResponse)
-                .toList();
+    // Hand every memory (or one user's) to `sink` in (createdAt, id) order, one row
+    // at a time. Runs in a read-only transaction for the life of the cursor, and
+    // detaches each row so the persistence context stays empty.
+    public void exportMemories(String userId, Consumer<MemoryDto.MemoryResponse> sink) {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            try (Stream<Memory> memories = repository.streamAll(userId)) {
+                memories.forEach(memory -> {
+                    sink.accept(toResponse(memory));
+                    entityManager.detach(memory);
+                });
+            }
+        });
     }
 
     // Query memories for a user (optionally scoped to a workspace) based on a
-    // simple
-    // text query. Later this will call vector/graph search.
+    // text query. Ranking blends keyword and embedding similarity in the in-memory
+    // index, then weighs in importance, recency and type (see RankingModel).
+    // Results come from the index's snapshots; the database is only read the
+    // first time a user is loaded. Observed as continuum.context.query, with the
+    // embedding call and scoring as child spans.
     public List<MemoryDto.MemoryResponse> queryContext(String userId, String workspaceId, String query, int limit) {
-        String normalizedQuery = query.toLowerCase();
-        String[] terms = normalizedQuery.split("\\s+");
+        return queryContext(userId, workspaceId, ContextFilter.NONE, query, limit);
+    }
 
-        List<Memory> userMemories;
-        if (workspaceId != null && !workspaceId.isBlank()) {
-            userMemories = repository.findByUserIdAndWorkspaceId(userId, workspaceId);
-        } else {
-            userMemories = repository.findByUserId(userId);
-        }
+    // Same, restricted to the memories that pass `filter`. Filters are applied
+    // before ranking, so the limit is filled from matching memories only.
+    public List<MemoryDto.MemoryResponse> queryContext(String userId, String workspaceId, ContextFilter filter,
+            String query, int limit) {
+        return queryContext(userId, workspaceId, filter, query, limit, false);
+    }
 
-        return userMemories.stream()
-                .sorted((a, b) -> {
-                    int scoreA = score(a.content, terms);
-                    int scoreB = score(b.content, terms);
-                    if (scoreA != scoreB) {
-                        return Integer.compare(scoreB, scoreA); // higher score first
-                    }
-                    // tie‑break by recency (newer first)
-                    if (a.createdAt == null || b.createdAt == null) {
-                        return 0;
+    // Same, and with `includeCold` any slots the hot tier leaves free are filled
+    // from the cold tier (see ArchivedMemory), ranked among themselves
+    public List<MemoryDto.MemoryResponse> queryContext(String userId, String workspaceId, ContextFilter filter,
+            String query, int limit, boolean includeCold) {
+        return Observation.createNotStarted("continuum.context.query", observations)
+                .contextualName("context query")
+                .lowCardinalityKeyValue("source", useIndex ? "index" : "database")
+                .lowCardinalityKeyValue("filtered", Boolean.toString(!filter.isEmpty()))
+                .lowCardinalityKeyValue("cold", Boolean.toString(includeCold))
+                .observe(() -> {
+                    List<MemoryDto.MemoryResponse> results = useIndex
+                            ? queryContextFromIndex(userId, workspaceId, filter, query, limit)
+                            : queryContextFromDatabase(userId, workspaceId, filter, query, limit);
+                    if (includeCold && results.size() < limit) {
+                        results = new ArrayList<>(results);
+                        results.addAll(queryColdContext(userId, workspaceId, filter, query, limit - results.size()));
                     }
-                    return b.createdAt.compareTo(a.createdAt);
+                    returned.record(results.size());
+                    return results;
+                });
+    }
+
+    // Cold-tier fallback: the user's most recently updated cold rows, up to
+    // cold-scan-limit, decompressed and ranked keyword-only
+    private List<MemoryDto.MemoryResponse> queryColdContext(String userId, String workspaceId, ContextFilter filter,
+            String query, int limit) {
+        String scope = (workspaceId == null || workspaceId.isBlank()) ? null : workspaceId;
+        List<Memory> cold = archive.findRecentByReasons(userId, COLD_CONTEXT_REASONS,
+                PageRequest.of(0, coldScanLimit)).stream()
+                .map(ArchivedMemory::toMemory)
+                .toList();
+        return index.searchDetached(cold, scope, filter, query, limit).stream()
+                .map(memory -> {
+                    MemoryDto.MemoryResponse resp = toResponse(memory);
+                    resp.cold = true;
+                    return resp;
                 })
-                .limit(limit)
+                .toList();
+    }
+
+    private List<MemoryDto.MemoryResponse> queryContextFromIndex(String userId, String workspaceId,
+            ContextFilter filter, String query, int limit) {
+        float[] queryVector = queryVector(query);
+        List<Memory> hits = Observation.createNotStarted("continuum.context.score", observations)
+                .contextualName("context score")
+                .observe(() -> index.searchSnapshots(userId, workspaceId, filter, query, queryVector, limit,
+                        candidates::record));
+        return hits.stream()
                 .map(this::toResponse)
                 .toList();
     }
 
-    // More matching words = higher score (will be replaced with embedded vectors
-    // later)
-    private int score(String content, String[] terms) {
-        if (content == null) {
-            return 0;
+    // Embedding of `query`, cached under its normalized text. Null (keyword-only
+    // ranking) when the embedder fails; failures aren't cached, so the next
+    // query retries.
+    private float[] queryVector(String query) {
+        String normalized = query == null ? "" : query.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        return queryVectors.get(normalized, embedder::embed);
+    }
+
+    // Newest active preferences and goals for a user (optionally scoped to a
+    // workspace). These hold whatever the task is, so prompts include them even
+    // when the query doesn't match their wording.
+    public List<MemoryDto.MemoryResponse> pinnedContext(String userId, String workspaceId, int limit) {
+        String scope = (workspaceId == null || workspaceId.isBlank()) ? null : workspaceId;
+        List<Memory> memories = useIndex
+                ? index.newestOfTypes(userId, scope, PINNED_TYPES, limit)
+                : repository.findRecentActiveByTypes(userId, scope, PINNED_TYPES, PageRequest.of(0, limit));
+        return memories.stream()
+                .map(this::toResponse)
+                .toList();
+    }
+
+    // Database-only retrieval: keyword pre-filter on the full-text index, topped up
+    // with the newest active memories. Only active rows that pass the filter ever
+    // leave Postgres.
+    private List<MemoryDto.MemoryResponse> queryContextFromDatabase(String userId, String workspaceId,
+            ContextFilter filter, String query, int limit) {
+        String scope = (workspaceId == null || workspaceId.isBlank()) ? null : workspaceId;
+        String tsQuery = Arrays.stream(UserMemoryIndex.tokenize(query))
+                .distinct()
+                .limit(32)
+                .collect(Collectors.joining(" | "));
+
+        List<Memory> results = new ArrayList<>(limit);
+        if (!tsQuery.isEmpty()) {
+            results.addAll(repository.searchActiveByKeywords(userId, scope, tsQuery, filter.typeCodes(),
+                    filter.anyTagList(), filter.allTagList(), filter.minImportance, filter.createdAfter, limit));
         }
-        String lower = content.toLowerCase();
-        int score = 0;
-        for (String term : terms) {
-            if (!term.isEmpty() && lower.contains(term)) {
-                score++;
+        if (results.size() < limit) {
+            Set<UUID> seen = new HashSet<>();
+            results.forEach(m -> seen.add(m.id));
+            for (Memory memory : repository.findRecentActive(userId, scope, filter.typeCodes(),
+                    filter.anyTagList(), filter.allTagList(), filter.minImportance, filter.createdAfter, limit)) {
+                if (results.size() < limit && seen.add(memory.id)) {
+                    results.add(memory);
+                }
             }
         }
-        return score;
+        return results.stream()
+                .map(this::toResponse)
+                .toList();
     }
 
     // Get memory by id
     public MemoryDto.MemoryResponse getMemoryById(@NonNull String id) {
-        Optional<Memory> optional = repository.findById(id);
-        if (optional.isEmpty()) {
+        return getMemoryById(id, false);
+    }
+
+    // Get memory by id, looking in the cold tier too when `includeCold` is set
+    public MemoryDto.MemoryResponse getMemoryById(@NonNull String id, boolean includeCold) {
+        Optional<Memory> optional = find(id);
+        if (optional.isPresent()) {
+            return toResponse(optional.get());
+        }
+        UUID key = Ids.parse(id);
+        if (!includeCold || key == null) {
             return null;
         }
-        return toResponse(optional.get());
+        return archive.findById(key).map(this::toResponse).orElse(null);
     }
 
     // Delete memory
     public boolean deleteMemoryById(@NonNull String id) {
-        if (!repository.existsById(id)) {
+        Optional<Memory> optional = find(id);
+        if (optional.isEmpty()) {
             return false;
         }
-        repository.deleteById(id);
+        Memory memory = optional.get();
+        transactionTemplate.executeWithoutResult(status -> {
+            repository.delete(memory);
+            outbox.record(MemoryChange.Kind.DELETED, memory);
+        });
+        index.onDeleted(memory.userId, memory.id);
         return true;
     }
+
+    // Ids that aren't UUIDs can't match a row
+    private Optional<Memory> find(String id) {
+        UUID key = Ids.parse(id);
+        return key == null ? Optional.empty() : repository.findById(key);
+    }
 }
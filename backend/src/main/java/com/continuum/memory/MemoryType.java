@@ -0,0 +1,61 @@
+// Semantic type of a memory
+
+package com.continuum.memory;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import java.util.Locale;
+
+// Stored as a smallint code rather than the name. Codes are part of the schema:
+// never renumber one, only add new ones. The migration in
+// PostgresSchemaInitializer maps the old names to the same codes.
+public enum MemoryType {
+    OTHER(0),
+    PREFERENCE(1),
+    GOAL(2),
+    TASK(3),
+    DECISION(4),
+    FACT(5),
+    CONSTRAINT(6);
+
+    private static final MemoryType[] BY_CODE = new MemoryType[values().length];
+
+    static {
+        for (MemoryType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    final short code;
+
+    MemoryType(int code) {
+        this.code = (short) code;
+    }
+
+    // Case-insensitive lookup of a client or classifier label. Missing and
+    // unknown labels are OTHER.
+    public static MemoryType of(String name) {
+        if (name == null || name.isBlank()) {
+            return OTHER;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return OTHER;
+        }
+    }
+
+    @Converter
+    public static class SmallintConverter implements AttributeConverter<MemoryType, Short> {
+
+        @Override
+        public Short convertToDatabaseColumn(MemoryType type) {
+            return type == null ? null : type.code;
+        }
+
+        @Override
+        public MemoryType convertToEntityAttribute(Short code) {
+            return code == null || code < 0 || code >= BY_CODE.length ? null : BY_CODE[code];
+        }
+    }
+}
@@ -0,0 +1,28 @@
+// Delivery position of one outbox subscriber
+
+package com.continuum.memory;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+
+// Every change at or before (txId, changeId) has been handled by the subscriber
+@Entity
+@Table(name = "outbox_offsets")
+public class OutboxOffset {
+
+    @Id
+    @Column(nullable = false, updatable = false, length = 64)
+    public String subscriber;
+
+    @Column(nullable = false)
+    public long txId;
+
+    @Column(nullable = false)
+    public long changeId;
+
+    @Column(nullable = false)
+    public LocalDateTime updatedAt;
+}
@@ -0,0 +1,50 @@
+// Data access for outbox subscriber offsets
+
+package com.continuum.memory;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface OutboxOffsetRepository extends JpaRepository<OutboxOffset, String> {
+
+    // Start a subscriber at position (txId, changeId), unless it has an offset
+    @Modifying
+    @Query(value = "insert into outbox_offsets (subscriber, tx_id, change_id, updated_at) "
+            + "values (:subscriber, :txId, :changeId, :now) on conflict do nothing", nativeQuery = true)
+    int createIfMissing(@Param("subscriber") String subscriber,
+            @Param("txId") long txId,
+            @Param("changeId") long changeId,
+            @Param("now") LocalDateTime now);
+
+    // The subscriber's offset, locked until commit. Empty while another instance
+    // holds it, so each subscriber is fed by one instance at a time.
+    @Query(value = "select * from outbox_offsets where subscriber = :subscriber for update skip locked",
+            nativeQuery = true)
+    List<OutboxOffset> lock(@Param("subscriber") String subscriber);
+
+    @Modifying
+    @Query("update OutboxOffset o set o.txId = :txId, o.changeId = :changeId, o.updatedAt = :now "
+            + "where o.subscriber = :subscriber")
+    int advance(@Param("subscriber") String subscriber,
+            @Param("txId") long txId,
+            @Param("changeId") long changeId,
+            @Param("now") LocalDateTime now);
+
+    // Heartbeat: mark the offsets as held by a running replica, advanced or not
+    @Modifying
+    @Query("update OutboxOffset o set o.updatedAt = :now where o.subscriber in :subscribers")
+    int touch(@Param("subscribers") Collection<String> subscribers, @Param("now") LocalDateTime now);
+
+    // Per-replica offsets with no heartbeat since `before`, left by replicas
+    // that stopped without removing them
+    @Modifying
+    @Query("delete from OutboxOffset o where o.subscriber like '%@%' and o.updatedAt < :before")
+    int deleteAbandoned(@Param("before") LocalDateTime before);
+
+    List<OutboxOffset> findBySubscriberIn(Collection<String> subscribers);
+}
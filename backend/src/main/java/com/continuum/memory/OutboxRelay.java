@@ -0,0 +1,197 @@
+// Delivers the memory outbox to in-process subscribers
+
+package com.continuum.memory;
+
+import com.continuum.common.Ids;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Polls memory_outbox every poll-interval and hands each MemoryChangeSubscriber
+// the changes past its offset, batch-size at a time, in transaction id order (see
+// MemoryChangeRepository.visibleHorizon). A batch is delivered and its offset
+// advanced in one transaction: if the subscriber throws, the offset stays and
+// the batch comes again on the next poll. The offset row is locked while a
+// batch is delivered, so with several replicas each subscriber is fed by one of
+// them at a time; everyInstance subscribers have an offset per replica instead,
+// removed when the replica shuts down. A replica refreshes its offsets on every
+// cleanup, so one that crashed is recognised by offsets untouched for longer
+// than retention, and they are dropped. Changes every subscriber has passed are
+// deleted once older than retention.
+@Component
+@ConditionalOnProperty(name = "continuum.storage.postgres", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final MemoryChangeRepository changes;
+    private final OutboxOffsetRepository offsets;
+    private final List<MemoryChangeSubscriber> subscribers;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Duration retention;
+    private final Map<String, Counter> delivered = new HashMap<>();
+    private final Counter failures;
+    // Offset key per subscriber: its name, suffixed with this replica's id for
+    // everyInstance subscribers
+    private final Map<String, String> offsetKeys = new HashMap<>();
+    // Offset keys known to have a row
+    private final Set<String> started = new HashSet<>();
+
+    public OutboxRelay(MemoryChangeRepository changes, OutboxOffsetRepository offsets,
+            ObjectProvider<MemoryChangeSubscriber> subscribers, TransactionTemplate transactionTemplate,
+            MeterRegistry registry,
+            @Value("${continuum.outbox.batch-size:500}") int batchSize,
+            @Value("${continuum.outbox.retention:P7D}") Duration retention) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("continuum.outbox.batch-size must be positive");
+        }
+        this.changes = changes;
+        this.offsets = offsets;
+        this.subscribers = subscribers.orderedStream().toList();
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.retention = retention;
+        Set<String> names = new HashSet<>();
+        String instance = Ids.newId().toString();
+        for (MemoryChangeSubscriber subscriber : this.subscribers) {
+            if (!names.add(subscriber.name())) {
+                throw new IllegalStateException("Two outbox subscribers are named " + subscriber.name());
+            }
+            offsetKeys.put(subscriber.name(),
+                    subscriber.everyInstance() ? subscriber.name() + '@' + instance : subscriber.name());
+            delivered.put(subscriber.name(), Counter.builder("continuum.outbox.delivered")
+                    .description("Memory changes handed to an outbox subscriber")
+                    .tag("subscriber", subscriber.name())
+                    .register(registry));
+        }
+        this.failures = Counter.builder("continuum.outbox.failures")
+                .description("Outbox batches a subscriber failed on, to be delivered again")
+                .register(registry);
+    }
+
+    // Start this replica's offsets at the outbox's visible end, before anything
+    // in-process is loaded: state loaded later already reflects every change
+    // below the horizon
+    @PostConstruct
+    public void createInstanceOffsets() {
+        for (MemoryChangeSubscriber subscriber : subscribers) {
+            if (subscriber.everyInstance()) {
+                String key = offsetKeys.get(subscriber.name());
+                transactionTemplate.executeWithoutResult(status -> offsets.createIfMissing(key,
+                        changes.visibleHorizon() - 1, Long.MAX_VALUE, LocalDateTime.now()));
+                started.add(key);
+            }
+        }
+    }
+
+    // Deliver everything currently visible, subscriber by subscriber
+    @Scheduled(fixedDelayString = "${continuum.outbox.poll-interval:PT1S}")
+    public void poll() {
+        for (MemoryChangeSubscriber subscriber : subscribers) {
+            try {
+                int count;
+                do {
+                    count = deliverBatch(subscriber);
+                } while (count == batchSize);
+            } catch (RuntimeException e) {
+                failures.increment();
+                log.warn("Outbox subscriber {} failed; its batch will be delivered again", subscriber.name(), e);
+            }
+        }
+    }
+
+    // Deliver the next batch to `subscriber` and advance its offset. Returns the
+    // number of changes delivered; 0 when there were none or another instance
+    // holds the offset.
+    int deliverBatch(MemoryChangeSubscriber subscriber) {
+        String name = subscriber.name();
+        String key = offsetKeys.get(name);
+        if (!started.contains(key)) {
+            transactionTemplate.executeWithoutResult(status -> offsets.createIfMissing(key, 0, 0, LocalDateTime.now()));
+            started.add(key);
+        }
+        return transactionTemplate.execute(status -> {
+            List<OutboxOffset> locked = offsets.lock(key);
+            if (locked.isEmpty()) {
+                return 0;
+            }
+            OutboxOffset offset = locked.get(0);
+            List<MemoryChange> batch = changes.findAfter(offset.txId, offset.changeId, changes.visibleHorizon(),
+                    PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            subscriber.onChanges(Collections.unmodifiableList(batch));
+            MemoryChange last = batch.get(batch.size() - 1);
+            offsets.advance(key, last.txId, last.id, LocalDateTime.now());
+            delivered.get(name).increment(batch.size());
+            return batch.size();
+        });
+    }
+
+    // Delete changes older than retention that every subscriber has passed, and
+    // the offsets of replicas that have been gone for as long
+    @Scheduled(fixedDelayString = "${continuum.outbox.cleanup-interval:PT1H}")
+    public void deleteDelivered() {
+        LocalDateTime now = LocalDateTime.now();
+        List<String> instanceKeys = subscribers.stream()
+                .filter(MemoryChangeSubscriber::everyInstance)
+                .map(subscriber -> offsetKeys.get(subscriber.name()))
+                .toList();
+        int abandoned = transactionTemplate.execute(status -> {
+            if (!instanceKeys.isEmpty()) {
+                offsets.touch(instanceKeys, now);
+            }
+            return offsets.deleteAbandoned(now.minus(retention));
+        });
+        if (abandoned > 0) {
+            log.info("Deleted {} offsets of stopped replicas", abandoned);
+        }
+        List<String> names = List.copyOf(offsetKeys.values());
+        long txId = Long.MAX_VALUE;
+        long changeId = Long.MAX_VALUE;
+        if (!names.isEmpty()) {
+            List<OutboxOffset> positions = offsets.findBySubscriberIn(names);
+            if (positions.size() < names.size()) {
+                return; // a subscriber hasn't started yet and needs every change
+            }
+            OutboxOffset slowest = Collections.min(positions,
+                    Comparator.comparingLong((OutboxOffset o) -> o.txId).thenComparingLong(o -> o.changeId));
+            txId = slowest.txId;
+            changeId = slowest.changeId;
+        }
+        long finalTxId = txId;
+        long finalChangeId = changeId;
+        int deleted = transactionTemplate.execute(status -> changes.deleteDelivered(
+                now.minus(retention), finalTxId, finalChangeId));
+        if (deleted > 0) {
+            log.info("Deleted {} delivered memory changes", deleted);
+        }
+    }
+
+    // Drop this replica's offsets; a replica that crashes leaves its rows behind
+    // until deleteDelivered finds them abandoned. They never hold back deletion
+    // on the others.
+    @PreDestroy
+    public void removeInstanceOffsets() {
+        for (MemoryChangeSubscriber subscriber : subscribers) {
+            if (subscriber.everyInstance()) {
+                offsets.deleteById(offsetKeys.get(subscriber.name()));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+// Final ordering of context candidates from several relevance signals
+
+package com.continuum.memory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// A candidate's final score is a weighted sum of:
+//   relevance   text/vector score, scaled so the best candidate is 1
+//   importance  1–5 mapped to 0–1; a memory without one counts as 3
+//   recency     exp(-ln2 * age / half-life), age measured from updatedAt
+//   type prior  flat boost per memory type, e.g. CONSTRAINT
+// Weights come from continuum.ranking.*; replace this bean to plug in another
+// model.
+@Component
+public class RankingModel {
+
+    // Relevance alone, which is how candidates were ordered before the other
+    // signals existed
+    static final RankingModel RELEVANCE_ONLY = new RankingModel(1, 0, 0, Duration.ofDays(30), "",
+            Clock.systemDefaultZone());
+
+    private final double relevanceWeight;
+    private final double importanceWeight;
+    private final double recencyWeight;
+    // ln 2 / half-life in seconds
+    private final double decayPerSecond;
+    // Indexed by MemoryType code
+    private final double[] typePriors = new double[MemoryType.values().length];
+    private final Clock clock;
+
+    @Autowired
+    public RankingModel(@Value("${continuum.ranking.relevance-weight:1.0}") double relevanceWeight,
+            @Value("${continuum.ranking.importance-weight:0.3}") double importanceWeight,
+            @Value("${continuum.ranking.recency-weight:0.2}") double recencyWeight,
+            @Value("${continuum.ranking.recency-half-life:P30D}") Duration halfLife,
+            @Value("${continuum.ranking.type-priors:CONSTRAINT=0.15,PREFERENCE=0.05,GOAL=0.05}") String typePriors) {
+        this(relevanceWeight, importanceWeight, recencyWeight, halfLife, typePriors, Clock.systemDefaultZone());
+    }
+
+    // `typePriors` is a comma-separated list of TYPE=boost; unlisted types get 0
+    RankingModel(double relevanceWeight, double importanceWeight, double recencyWeight, Duration halfLife,
+            String typePriors, Clock clock) {
+        if (halfLife.isZero() || halfLife.isNegative()) {
+            throw new IllegalArgumentException("Recency half-life must be positive");
+        }
+        this.relevanceWeight = relevanceWeight;
+        this.importanceWeight = importanceWeight;
+        this.recencyWeight = recencyWeight;
+        this.decayPerSecond = Math.log(2) / halfLife.toSeconds();
+        this.clock = clock;
+        for (String entry : typePriors.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Type prior must be TYPE=boost: " + entry);
+            }
+            MemoryType type = MemoryType.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+            this.typePriors[type.code] = Double.parseDouble(parts[1].trim());
+        }
+    }
+
+    // Importance on a 0–1 scale
+    static double importanceSignal(Integer importance) {
+        int value = importance == null ? 3 : Math.max(1, Math.min(5, importance));
+        return (value - 1) / 4.0;
+    }
+
+    double prior(MemoryType type) {
+        return type == null ? 0 : typePriors[type.code];
+    }
+
+    // Memory timestamps are local wall-clock times, so ages are taken on that clock
+    static long epochSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    long nowEpochSecond() {
+        return epochSecond(LocalDateTime.now(clock));
+    }
+
+    // Rewrite the first n relevance scores as final scores. Inputs are parallel
+    // arrays over the candidates. The loop is branch-free over primitives so the
+    // JIT can unroll it; only the exp call stays scalar.
+    void score(double[] scores, double[] importance, double[] ageSeconds, double[] priors, int n) {
+        double best = 0;
+        for (int i = 0; i < n; i++) {
+            best = Math.max(best, scores[i]);
+        }
+        double relevanceScale = best > 0 ? relevanceWeight / best : 0;
+        double decay = -decayPerSecond;
+        for (int i = 0; i < n; i++) {
+            scores[i] = relevanceScale * scores[i]
+                    + importanceWeight * importance[i]
+                    + recencyWeight * Math.exp(decay * ageSeconds[i])
+                    + priors[i];
+        }
+    }
+}
@@ -0,0 +1,176 @@
+// Primitive score accumulator with bounded top-K selection
+
+package com.continuum.memory;
+
+import java.util.Arrays;
+
+class ScoreAccumulator {
+
+    private static final int EMPTY = -1;
+
+    // Open-addressing table from doc ordinal to slot in the parallel arrays below
+    private int[] table;
+    private int mask;
+
+    private int[] ordinals;
+    private double[] scores;
+    private int size;
+
+    ScoreAccumulator(int expectedCandidates) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedCandidates * 2 - 1)) << 1;
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+        ordinals = new int[Math.max(4, expectedCandidates)];
+        scores = new double[ordinals.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int ordinalAt(int slot) {
+        return ordinals[slot];
+    }
+
+    double scoreAt(int slot) {
+        return scores[slot];
+    }
+
+    // Backing score array, valid up to size(). Rankers rewrite it in place.
+    double[] scores() {
+        return scores;
+    }
+
+    double maxScore() {
+        double max = 0;
+        for (int slot = 0; slot < size; slot++) {
+            max = Math.max(max, scores[slot]);
+        }
+        return max;
+    }
+
+    // Add to the score of a candidate, registering it on first sight
+    void add(int ordinal, double delta) {
+        int slot = slotOf(ordinal, true);
+        scores[slot] += delta;
+    }
+
+    boolean contains(int ordinal) {
+        return slotOf(ordinal, false) != EMPTY;
+    }
+
+    private int slotOf(int ordinal, boolean insert) {
+        int pos = mix(ordinal) & mask;
+        while (true) {
+            int slot = table[pos];
+            if (slot == EMPTY) {
+                if (!insert) {
+                    return EMPTY;
+                }
+                if (size == ordinals.length) {
+                    ordinals = Arrays.copyOf(ordinals, size * 2);
+                    scores = Arrays.copyOf(scores, size * 2);
+                }
+                ordinals[size] = ordinal;
+                table[pos] = size;
+                if (++size * 2 > table.length) {
+                    rehash();
+                }
+                return size - 1;
+            }
+            if (ordinals[slot] == ordinal) {
+                return slot;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, EMPTY);
+        mask = table.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int pos = mix(ordinals[slot]) & mask;
+            while (table[pos] != EMPTY) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = slot;
+        }
+    }
+
+    private static int mix(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    // Ordinals of the best `limit` candidates, best first. Uses a bounded min-heap
+    // so only O(n log k) work is done. Ties go to the higher ordinal, which is the
+    // newer memory because ordinals follow createdAt order.
+    int[] top(int limit) {
+        int k = Math.min(limit, size);
+        int[] heap = new int[k]; // slots, weakest at heap[0]
+        int heapSize = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (heapSize < k) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (better(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        int[] result = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            result[i] = ordinals[heap[0]];
+            heap[0] = heap[i];
+            siftDown(heap, i);
+        }
+        return result;
+    }
+
+    private boolean better(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        return ordinals[a] > ordinals[b];
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(heap[parent], heap[i])) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= heapSize) {
+                return;
+            }
+            int weakest = left;
+            int right = left + 1;
+            if (right < heapSize && better(heap[left], heap[right])) {
+                weakest = right;
+            }
+            if (!better(heap[i], heap[weakest])) {
+                return;
+            }
+            swap(heap, i, weakest);
+            i = weakest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+}
@@ -0,0 +1,120 @@
+// 64-bit SimHash content fingerprints for near-duplicate detection
+
+package com.continuum.memory;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+// Texts that share most of their words get fingerprints a few bits apart, so
+// near-duplicates are found by Hamming distance. Fingerprints are split into
+// BANDS 16-bit bands for LSH: two fingerprints within BANDS - 1 bits of each
+// other agree on at least one whole band, so looking up every band of a
+// fingerprint finds all of them.
+final class SimHash {
+
+    static final int BANDS = 4;
+    // Largest distance the band lookup is guaranteed to find
+    static final int MAX_DISTANCE = BANDS - 1;
+
+    private static final int BAND_BITS = 64 / BANDS;
+    // In texts shorter than this, changing one word (say "Java 17" to "Java 21")
+    // moves the fingerprint only a few bits, so they must match exactly
+    private static final int MIN_TERMS_FOR_DISTANCE = 24;
+
+    private SimHash() {
+    }
+
+    // Fingerprint over the lowercase words and adjacent word pairs of `text`,
+    // so both vocabulary and word order count. Punctuation and case don't.
+    static long of(String text) {
+        String[] terms = UserMemoryIndex.tokenize(text);
+        int[] weights = new int[64];
+        for (int i = 0; i < terms.length; i++) {
+            accumulate(weights, hash(terms[i]));
+            if (i + 1 < terms.length) {
+                accumulate(weights, hash(terms[i] + ' ' + terms[i + 1]));
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    // Distance up to which `text` counts as a near-duplicate, given the
+    // configured maximum: that maximum for long texts, 0 for short ones
+    static int allowedDistance(String text, int maxDistance) {
+        return UserMemoryIndex.tokenize(text).length >= MIN_TERMS_FOR_DISTANCE ? maxDistance : 0;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // Lookup keys of the bands: band number in the high bits, band value below
+    static int[] bandKeys(long fingerprint) {
+        int[] keys = new int[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            int value = (int) ((fingerprint >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1));
+            keys[band] = (band << BAND_BITS) | value;
+        }
+        return keys;
+    }
+
+    private static void accumulate(int[] weights, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+        }
+    }
+
+    // FNV-1a over the UTF-16 chars, finished with the splitmix64 mixer so every
+    // output bit depends on every input char
+    private static long hash(String feature) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < feature.length(); i++) {
+            h ^= feature.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    // Band lookup over a small, short-lived set of items, e.g. one ingest batch
+    static final class Table<T> {
+        private final Map<Integer, List<T>> buckets = new HashMap<>();
+        private final ToLongFunction<T> fingerprintOf;
+
+        Table(ToLongFunction<T> fingerprintOf) {
+            this.fingerprintOf = fingerprintOf;
+        }
+
+        void add(T item) {
+            for (int key : bandKeys(fingerprintOf.applyAsLong(item))) {
+                buckets.computeIfAbsent(key, k -> new ArrayList<>(1)).add(item);
+            }
+        }
+
+        // Closest item within maxDistance that `accept` allows, or null
+        T find(long fingerprint, int maxDistance, Predicate<T> accept) {
+            T best = null;
+            int bestDistance = maxDistance + 1;
+            for (int key : bandKeys(fingerprint)) {
+                for (T item : buckets.getOrDefault(key, List.of())) {
+                    int d = distance(fingerprint, fingerprintOf.applyAsLong(item));
+                    if (d < bestDistance && accept.test(item)) {
+                        best = item;
+                        bestDistance = d;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+// Conversion between the comma-separated tags of the API and the stored array
+
+package com.continuum.memory;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+final class Tags {
+
+    private Tags() {
+    }
+
+    // "coding, python,,coding" -> {"coding", "python"}: trimmed, blanks and
+    // repeats dropped. Null when nothing is left.
+    static String[] parse(String tags) {
+        if (tags == null || tags.isBlank()) {
+            return null;
+        }
+        Set<String> unique = new LinkedHashSet<>();
+        for (String tag : tags.split(",")) {
+            String trimmed = tag.trim();
+            if (!trimmed.isEmpty()) {
+                unique.add(trimmed);
+            }
+        }
+        return unique.isEmpty() ? null : unique.toArray(new String[0]);
+    }
+
+    static String join(String[] tags) {
+        return tags == null || tags.length == 0 ? null : String.join(",", Arrays.asList(tags));
+    }
+}
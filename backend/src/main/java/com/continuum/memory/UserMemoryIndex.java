@@ -0,0 +1,574 @@
+// In-memory inverted index over a single user's memories
+
+package com.continuum.memory;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+class UserMemoryIndex {
+
+    // Standard BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // HNSW graph parameters: links per node and construction beam width
+    private static final int HNSW_M = 16;
+    private static final int HNSW_EF_CONSTRUCTION = 100;
+
+    // Ordinals of removed memories are renumbered away once there are at least
+    // this many and more of them than live memories
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 256;
+
+    // Indexed view of one memory. Ordinals are assigned in load/insert order, so a
+    // higher ordinal means a newer memory. compact() renumbers them densely,
+    // keeping that order.
+    static final class Doc {
+        int ordinal;
+        final UUID id;
+        LocalDateTime createdAt;
+        String[] terms;
+        int length;
+        // Ranking signals that don't depend on the query
+        double importance;
+        double prior;
+        long updatedAtSecond;
+        long fingerprint;
+        // Display fields of the memory, so results can be served without a database
+        // read. Never mutated after upsert; a change replaces the whole snapshot.
+        Memory snapshot;
+
+        Doc(int ordinal, UUID id) {
+            this.ordinal = ordinal;
+            this.id = id;
+        }
+    }
+
+    // Posting list for one term: doc ordinals with their term frequencies
+    static final class Postings {
+        int[] ordinals = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void add(int ordinal, int freq) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            ordinals[size] = ordinal;
+            freqs[size] = freq;
+            size++;
+        }
+
+        void remove(int ordinal) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    size--;
+                    ordinals[i] = ordinals[size];
+                    freqs[i] = freqs[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final RankingModel ranking;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<UUID, Doc> byId = new HashMap<>();
+    private final List<Doc> byOrdinal = new ArrayList<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final HnswIndex vectors = new HnswIndex(HNSW_M, HNSW_EF_CONSTRUCTION, 42);
+    private long totalLength;
+
+    // Bitmap indexes from an attribute value to the ordinals that hold it, so
+    // workspace scope and query filters compose by AND/OR before any scoring
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+    private final RoaringBitmap live = new RoaringBitmap();
+    private final Map<String, RoaringBitmap> byWorkspace = new HashMap<>();
+    private final Map<MemoryType, RoaringBitmap> byType = new EnumMap<>(MemoryType.class);
+    // Keyed by lowercase tag
+    private final Map<String, RoaringBitmap> byTag = new HashMap<>();
+    // Keyed by importance clamped to 1..5; 0 holds memories without one
+    private final Map<Integer, RoaringBitmap> byImportance = new HashMap<>();
+    // Keyed by creation day; the boundary day of a created-after filter is checked
+    // per memory
+    private final TreeMap<LocalDate, RoaringBitmap> byDay = new TreeMap<>();
+    // LSH buckets keyed by SimHash band (see SimHash.bandKeys)
+    private final Map<Integer, RoaringBitmap> byBand = new HashMap<>();
+
+    // InvalidationBus horizon the index was loaded at
+    long loadedAt;
+
+    UserMemoryIndex() {
+        this(RankingModel.RELEVANCE_ONLY);
+    }
+
+    UserMemoryIndex(RankingModel ranking) {
+        this.ranking = ranking;
+    }
+
+    // Split text into lowercase alphanumeric terms
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Add or replace a memory in the index
+    void upsert(Memory memory) {
+        lock.writeLock().lock();
+        try {
+            Doc doc = byId.get(memory.id);
+            if (doc != null) {
+                unlink(doc);
+            } else {
+                doc = new Doc(byOrdinal.size(), memory.id);
+                byOrdinal.add(doc);
+                byId.put(memory.id, doc);
+            }
+            doc.createdAt = memory.createdAt;
+            doc.snapshot = snapshotOf(memory);
+            doc.importance = RankingModel.importanceSignal(memory.importance);
+            doc.prior = ranking.prior(memory.type);
+            LocalDateTime updatedAt = memory.updatedAt != null ? memory.updatedAt : memory.createdAt;
+            doc.updatedAtSecond = updatedAt == null ? 0 : RankingModel.epochSecond(updatedAt);
+            // Rows from before fingerprints existed get one here
+            doc.fingerprint = memory.fingerprint != null ? memory.fingerprint : SimHash.of(memory.content);
+            mark(doc, true);
+
+            String[] tokens = tokenize(memory.content);
+            Map<String, Integer> freqs = new HashMap<>();
+            for (String token : tokens) {
+                freqs.merge(token, 1, Integer::sum);
+            }
+            doc.terms = freqs.keySet().toArray(new String[0]);
+            doc.length = tokens.length;
+            totalLength += doc.length;
+            for (Map.Entry<String, Integer> entry : freqs.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), t -> new Postings()).add(doc.ordinal, entry.getValue());
+            }
+
+            float[] embedding = Embeddings.decode(memory.embedding);
+            if (embedding != null) {
+                vectors.insert(doc.ordinal, embedding);
+            } else {
+                vectors.remove(doc.ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Copy of the fields a context response needs. The embedding is left out: its
+    // vector already lives in the HNSW graph.
+    private static Memory snapshotOf(Memory memory) {
+        Memory copy = new Memory();
+        copy.id = memory.id;
+        copy.userId = memory.userId;
+        copy.workspaceId = memory.workspaceId;
+        copy.source = memory.source;
+        copy.type = memory.type;
+        copy.topic = memory.topic;
+        copy.tags = memory.tags;
+        copy.importance = memory.importance;
+        copy.active = memory.active;
+        copy.content = memory.content;
+        copy.wovenPrompt = memory.wovenPrompt;
+        copy.createdAt = memory.createdAt;
+        copy.updatedAt = memory.updatedAt;
+        return copy;
+    }
+
+    // Remove a memory from the index
+    void remove(UUID id) {
+        lock.writeLock().lock();
+        try {
+            Doc doc = byId.remove(id);
+            if (doc == null) {
+                return;
+            }
+            unlink(doc);
+            vectors.remove(doc.ordinal);
+            byOrdinal.set(doc.ordinal, null);
+            int tombstones = byOrdinal.size() - byId.size();
+            if (tombstones >= MIN_TOMBSTONES_TO_COMPACT && tombstones > byId.size()) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Renumber the live docs 0..n-1 in ordinal order, so the ordinal space, and
+    // with it byOrdinal and the bitmaps, stays proportional to the live memories
+    // rather than to every memory ever added. Must be called with the write lock
+    // held.
+    private void compact() {
+        int[] newOrdinals = new int[byOrdinal.size()];
+        List<Doc> dense = new ArrayList<>(byId.size());
+        for (int ord = 0; ord < byOrdinal.size(); ord++) {
+            Doc doc = byOrdinal.get(ord);
+            newOrdinals[ord] = -1;
+            if (doc != null) {
+                newOrdinals[ord] = dense.size();
+                doc.ordinal = dense.size();
+                dense.add(doc);
+            }
+        }
+        byOrdinal.clear();
+        byOrdinal.addAll(dense);
+
+        for (Postings list : postings.values()) {
+            for (int i = 0; i < list.size; i++) {
+                list.ordinals[i] = newOrdinals[list.ordinals[i]];
+            }
+        }
+        RoaringBitmap renumberedLive = renumber(live, newOrdinals);
+        live.clear();
+        live.or(renumberedLive);
+        renumber(byWorkspace, newOrdinals);
+        renumber(byType, newOrdinals);
+        renumber(byTag, newOrdinals);
+        renumber(byImportance, newOrdinals);
+        renumber(byDay, newOrdinals);
+        renumber(byBand, newOrdinals);
+        vectors.renumber(newOrdinals);
+    }
+
+    private static <K> void renumber(Map<K, RoaringBitmap> bitmaps, int[] newOrdinals) {
+        bitmaps.replaceAll((key, bitmap) -> renumber(bitmap, newOrdinals));
+    }
+
+    private static RoaringBitmap renumber(RoaringBitmap bitmap, int[] newOrdinals) {
+        // The mapping keeps order, so the renumbered ordinals come out sorted
+        int[] ordinals = bitmap.toArray();
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = newOrdinals[ordinals[i]];
+        }
+        return RoaringBitmap.bitmapOf(ordinals);
+    }
+
+    // Slots in the ordinal space, live or not; for tests
+    int ordinalCapacity() {
+        lock.readLock().lock();
+        try {
+            return byOrdinal.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unlink(Doc doc) {
+        mark(doc, false);
+        for (String term : doc.terms) {
+            Postings list = postings.get(term);
+            if (list != null) {
+                list.remove(doc.ordinal);
+                if (list.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+        totalLength -= doc.length;
+    }
+
+    // Add or drop a doc's ordinal in every bitmap its snapshot belongs to
+    private void mark(Doc doc, boolean present) {
+        Memory memory = doc.snapshot;
+        if (present) {
+            live.add(doc.ordinal);
+        } else {
+            live.remove(doc.ordinal);
+        }
+        mark(byWorkspace, memory.workspaceId, doc.ordinal, present);
+        mark(byType, memory.type, doc.ordinal, present);
+        if (memory.tags != null) {
+            for (String tag : memory.tags) {
+                mark(byTag, ContextFilter.normalizeTag(tag), doc.ordinal, present);
+            }
+        }
+        mark(byImportance, importanceBucket(memory.importance), doc.ordinal, present);
+        mark(byDay, memory.createdAt == null ? null : memory.createdAt.toLocalDate(), doc.ordinal, present);
+        for (int key : SimHash.bandKeys(doc.fingerprint)) {
+            mark(byBand, key, doc.ordinal, present);
+        }
+    }
+
+    private static <K> void mark(Map<K, RoaringBitmap> bitmaps, K key, int ordinal, boolean present) {
+        if (key == null) {
+            return;
+        }
+        if (present) {
+            bitmaps.computeIfAbsent(key, k -> new RoaringBitmap()).add(ordinal);
+            return;
+        }
+        RoaringBitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
+            bitmap.remove(ordinal);
+            if (bitmap.isEmpty()) {
+                bitmaps.remove(key);
+            }
+        }
+    }
+
+    private static int importanceBucket(Integer importance) {
+        return importance == null ? 0 : Math.max(1, Math.min(5, importance));
+    }
+
+    // Ordinals within the workspace scope that pass the filter, or null when
+    // nothing is excluded. Must be called with the read lock held.
+    private RoaringBitmap allowed(String workspaceId, ContextFilter filter) {
+        boolean scoped = workspaceId != null && !workspaceId.isBlank();
+        if (!scoped && filter.isEmpty()) {
+            return null;
+        }
+        List<RoaringBitmap> required = new ArrayList<>();
+        required.add(live);
+        if (scoped) {
+            required.add(byWorkspace.getOrDefault(workspaceId, EMPTY));
+        }
+        if (!filter.types.isEmpty()) {
+            required.add(union(filter.types.stream().map(byType::get)));
+        }
+        if (!filter.anyTags.isEmpty()) {
+            required.add(union(filter.anyTags.stream().map(byTag::get)));
+        }
+        for (String tag : filter.allTags) {
+            required.add(byTag.getOrDefault(tag, EMPTY));
+        }
+        if (filter.minImportance != null) {
+            required.add(union(byImportance.entrySet().stream()
+                    .filter(entry -> entry.getKey() >= filter.minImportance)
+                    .map(Map.Entry::getValue)));
+        }
+        if (filter.createdAfter != null) {
+            required.add(createdAfter(filter.createdAfter));
+        }
+        return FastAggregation.and(required.iterator());
+    }
+
+    private static RoaringBitmap union(Stream<RoaringBitmap> bitmaps) {
+        return FastAggregation.or(bitmaps.filter(Objects::nonNull).iterator());
+    }
+
+    // Whole days after the cutoff's day come from the day bitmaps; only memories
+    // created on that day itself are compared one by one
+    private RoaringBitmap createdAfter(LocalDateTime cutoff) {
+        LocalDate day = cutoff.toLocalDate();
+        RoaringBitmap result = union(byDay.tailMap(day, false).values().stream());
+        RoaringBitmap boundary = byDay.get(day);
+        if (boundary != null) {
+            IntIterator it = boundary.getIntIterator();
+            while (it.hasNext()) {
+                int ord = it.next();
+                if (byOrdinal.get(ord).createdAt.isAfter(cutoff)) {
+                    result.add(ord);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Return ids of the best matching memories, best first, ties to the newer one.
+    // With a query vector the ranking is hybrid: `vectorWeight` of cosine
+    // similarity plus the rest from BM25 normalized to the best keyword hit.
+    // When fewer than `limit` memories match, the newest non-matching ones fill
+    // the remaining slots.
+    List<UUID> search(String query, float[] queryVector, String workspaceId, int limit, double vectorWeight) {
+        lock.readLock().lock();
+        try {
+            return searchDocs(query, queryVector, workspaceId, ContextFilter.NONE, limit, vectorWeight, count -> { })
+                    .stream()
+                    .map(doc -> doc.id)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Same ranking as search over the memories that pass `filter`, returning the
+    // cached memory snapshots. Callers must treat them as read-only. `candidates`
+    // is told how many memories were scored.
+    List<Memory> searchSnapshots(String query, float[] queryVector, String workspaceId, ContextFilter filter,
+            int limit, double vectorWeight, IntConsumer candidates) {
+        lock.readLock().lock();
+        try {
+            return searchDocs(query, queryVector, workspaceId, filter, limit, vectorWeight, candidates).stream()
+                    .map(doc -> doc.snapshot)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Snapshots of the newest memories whose type is in `types`, newest first
+    List<Memory> newestOfTypes(String workspaceId, Set<MemoryType> types, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Memory> result = new ArrayList<>(limit);
+            RoaringBitmap allowed = allowed(workspaceId, ContextFilter.ofTypes(types));
+            IntIterator newestFirst = (allowed == null ? live : allowed).getReverseIntIterator();
+            while (newestFirst.hasNext() && result.size() < limit) {
+                result.add(byOrdinal.get(newestFirst.next()).snapshot);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Snapshot of the memory in the same workspace whose fingerprint is closest
+    // to `fingerprint`, within maxDistance bits (at most SimHash.MAX_DISTANCE), or
+    // null. Only the band buckets of the fingerprint are examined.
+    Memory nearDuplicate(long fingerprint, String workspaceId, int maxDistance) {
+        lock.readLock().lock();
+        try {
+            Doc best = null;
+            int bestDistance = maxDistance + 1;
+            for (int key : SimHash.bandKeys(fingerprint)) {
+                RoaringBitmap bucket = byBand.get(key);
+                if (bucket == null) {
+                    continue;
+                }
+                IntIterator it = bucket.getIntIterator();
+                while (it.hasNext()) {
+                    Doc doc = byOrdinal.get(it.next());
+                    int distance = SimHash.distance(fingerprint, doc.fingerprint);
+                    if (distance < bestDistance && Objects.equals(workspaceId, doc.snapshot.workspaceId)) {
+                        best = doc;
+                        bestDistance = distance;
+                    }
+                }
+            }
+            return best == null ? null : best.snapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Must be called with the read lock held
+    private List<Doc> searchDocs(String query, float[] queryVector, String workspaceId, ContextFilter filter,
+            int limit, double vectorWeight, IntConsumer candidateCount) {
+        int docCount = byId.size();
+        if (docCount == 0 || limit <= 0) {
+            return List.of();
+        }
+        RoaringBitmap allowed = allowed(workspaceId, filter);
+        if (allowed != null && allowed.isEmpty()) {
+            candidateCount.accept(0);
+            return List.of();
+        }
+        IntPredicate accepts = allowed == null ? ord -> true : allowed::contains;
+        double avgLength = Math.max(1.0, (double) totalLength / docCount);
+
+        // Term-at-a-time accumulation: each candidate ends up with exactly one
+        // score slot, filled while walking the postings.
+        String[] terms = new LinkedHashSet<>(Arrays.asList(tokenize(query))).toArray(new String[0]);
+        int expected = 0;
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            expected += list == null ? 0 : list.size;
+        }
+        ScoreAccumulator candidates = new ScoreAccumulator(expected);
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (docCount - list.size + 0.5) / (list.size + 0.5));
+            for (int i = 0; i < list.size; i++) {
+                if (!accepts.test(list.ordinals[i])) {
+                    continue;
+                }
+                Doc doc = byOrdinal.get(list.ordinals[i]);
+                int tf = list.freqs[i];
+                double norm = tf + K1 * (1 - B + B * doc.length / avgLength);
+                candidates.add(doc.ordinal, idf * tf * (K1 + 1) / norm);
+            }
+        }
+
+        ScoreAccumulator ranked = candidates;
+        if (queryVector != null && vectorWeight > 0 && vectors.size() > 0) {
+            int ef = Math.max(64, limit * 8);
+            // A selective filter would leave the graph walk with few accepted
+            // nodes, so small allowed sets are compared exactly instead
+            List<HnswIndex.Hit> hits = allowed != null && allowed.getCardinality() <= ef
+                    ? vectors.searchExact(queryVector, limit * 4, allowed.toArray())
+                    : vectors.search(queryVector, limit * 4, ef, accepts);
+            ranked = new ScoreAccumulator(candidates.size() + hits.size());
+            double maxKeyword = candidates.maxScore();
+            for (int slot = 0; slot < candidates.size(); slot++) {
+                ranked.add(candidates.ordinalAt(slot),
+                        (1 - vectorWeight) * candidates.scoreAt(slot) / maxKeyword);
+            }
+            for (HnswIndex.Hit hit : hits) {
+                ranked.add(hit.id, vectorWeight * Math.max(0f, hit.similarity));
+            }
+        }
+
+        candidateCount.accept(ranked.size());
+        rerank(ranked);
+        int[] top = ranked.top(limit);
+        List<Doc> result = new ArrayList<>(Math.min(limit, docCount));
+        for (int ordinal : top) {
+            result.add(byOrdinal.get(ordinal));
+        }
+
+        // Top up with the most recent memories that did not match any term
+        IntIterator newestFirst = (allowed == null ? live : allowed).getReverseIntIterator();
+        while (newestFirst.hasNext() && result.size() < limit) {
+            int ord = newestFirst.next();
+            if (!ranked.contains(ord)) {
+                result.add(byOrdinal.get(ord));
+            }
+        }
+        return result;
+    }
+
+    // Replace each candidate's relevance with the ranking model's final score.
+    // Signals are gathered into primitive arrays first so the model scores them in
+    // one tight loop.
+    private void rerank(ScoreAccumulator candidates) {
+        int n = candidates.size();
+        double[] importance = new double[n];
+        double[] ageSeconds = new double[n];
+        double[] priors = new double[n];
+        long now = ranking.nowEpochSecond();
+        for (int slot = 0; slot < n; slot++) {
+            Doc doc = byOrdinal.get(candidates.ordinalAt(slot));
+            importance[slot] = doc.importance;
+            ageSeconds[slot] = Math.max(0, now - doc.updatedAtSecond);
+            priors[slot] = doc.prior;
+        }
+        ranking.score(candidates.scores(), importance, ageSeconds, priors, n);
+    }
+}
@@ -0,0 +1,18 @@
+// Detects memories that captured a whole generated prompt instead of user context
+
+package com.continuum.memory;
+
+final class WovenPrompts {
+
+    // Markers written by PromptService and by the older prompt template. The
+    // backfill in PostgresSchemaInitializer matches the same strings.
+    static final String CONTEXT_MARKER = "===== CONTEXT START =====";
+    static final String LEGACY_MARKER = "You are an AI assistant that uses a persistent memory layer (Continuum)";
+
+    private WovenPrompts() {
+    }
+
+    static boolean detect(String content) {
+        return content != null && (content.contains(CONTEXT_MARKER) || content.contains(LEGACY_MARKER));
+    }
+}
@@ -0,0 +1,210 @@
+// Classification cache in front of the NLU service
+
+package com.continuum.nlu;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Repeated snippets are classified once: results are cached in-process
+// (W-TinyLFU, bounded by size and TTL) under a hash of the normalized text, and
+// optionally written to the classification_cache table so they survive restarts.
+// Table rows past the TTL are ignored on lookup and deleted every cleanup-interval.
+@Primary
+@Component
+public class CachingIntentClassifier implements IntentClassifier {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingIntentClassifier.class);
+
+    private final NluClient delegate;
+    private final ClassificationCacheRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean persistent;
+    private final Duration ttl;
+    private final Cache<String, String> cache;
+    private final Counter persistentHits;
+
+    public CachingIntentClassifier(NluClient delegate, ClassificationCacheRepository repository,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry registry,
+            @Value("${nlu.cache.max-size:50000}") long maxSize,
+            @Value("${nlu.cache.ttl:P7D}") Duration ttl,
+            @Value("${nlu.cache.persistent:true}") boolean persistent) {
+        this(delegate, repository, transactionTemplate, registry, maxSize, ttl, persistent, Ticker.systemTicker());
+    }
+
+    CachingIntentClassifier(NluClient delegate, ClassificationCacheRepository repository,
+            TransactionTemplate transactionTemplate, MeterRegistry registry, long maxSize, Duration ttl,
+            boolean persistent, Ticker ticker) {
+        this.delegate = delegate;
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.persistent = persistent;
+        this.ttl = ttl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "nlu.classification");
+        this.persistentHits = Counter.builder("continuum.nlu.cache.persistent-hits")
+                .description("Classifications served from the classification_cache table")
+                .register(registry);
+    }
+
+    @Override
+    public String classifyIntent(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        String key = contentKey(text);
+        String cached = lookupAll(Set.of(key)).get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String type = delegate.classifyIntent(text);
+        if (type != null) {
+            storeAll(Map.of(key, type));
+        }
+        return type;
+    }
+
+    // Cache misses cost one table read and one table write for the whole batch
+    @Override
+    public List<String> classifyIntents(List<String> texts) {
+        List<String> results = new ArrayList<>(Arrays.asList(new String[texts.size()]));
+        Map<String, List<Integer>> positionsByKey = new LinkedHashMap<>();
+        Map<String, String> textByKey = new HashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            String key = contentKey(text);
+            positionsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            textByKey.putIfAbsent(key, text);
+        }
+        if (positionsByKey.isEmpty()) {
+            return results;
+        }
+        Map<String, String> types = new HashMap<>(lookupAll(positionsByKey.keySet()));
+
+        // Only texts not seen before go to the service, each distinct one once
+        List<String> missKeys = new ArrayList<>();
+        for (String key : positionsByKey.keySet()) {
+            if (!types.containsKey(key)) {
+                missKeys.add(key);
+            }
+        }
+        if (!missKeys.isEmpty()) {
+            List<String> predicted = delegate.classifyIntents(missKeys.stream().map(textByKey::get).toList());
+            Map<String, String> classified = new LinkedHashMap<>();
+            for (int n = 0; n < missKeys.size(); n++) {
+                // Failed classifications are retried next time
+                if (predicted.get(n) != null) {
+                    classified.put(missKeys.get(n), predicted.get(n));
+                }
+            }
+            storeAll(classified);
+            types.putAll(classified);
+        }
+        positionsByKey.forEach((key, positions) -> positions.forEach(i -> results.set(i, types.get(key))));
+        return results;
+    }
+
+    // Cached types by key, from the in-process cache and then, for the keys it
+    // lacks, one read of the table. Keys without a fresh entry are absent.
+    private Map<String, String> lookupAll(Set<String> keys) {
+        Map<String, String> found = new HashMap<>(cache.getAllPresent(keys));
+        if (!persistent || found.size() == keys.size()) {
+            return found;
+        }
+        List<String> missing = keys.stream().filter(key -> !found.containsKey(key)).toList();
+        try {
+            LocalDateTime freshAfter = LocalDateTime.now().minus(ttl);
+            for (ClassificationCacheEntry entry : repository.findAllById(missing)) {
+                if (entry.classifiedAt.isAfter(freshAfter)) {
+                    persistentHits.increment();
+                    cache.put(entry.contentHash, entry.type);
+                    found.put(entry.contentHash, entry.type);
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("Classification cache lookup failed: {}", e.getMessage());
+        }
+        return found;
+    }
+
+    // Cache types by key, writing them to the table in one statement
+    private void storeAll(Map<String, String> types) {
+        if (types.isEmpty()) {
+            return;
+        }
+        cache.putAll(types);
+        if (!persistent) {
+            return;
+        }
+        // The statement takes comma-separated lists; hashes are hex
+        Map<String, String> rows = new LinkedHashMap<>();
+        types.forEach((key, type) -> {
+            if (type.indexOf(',') < 0) {
+                rows.put(key, type);
+            }
+        });
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> repository.upsertAll(
+                    String.join(",", rows.keySet()), String.join(",", rows.values()), LocalDateTime.now()));
+        } catch (DataAccessException e) {
+            log.warn("Classification cache write failed: {}", e.getMessage());
+        }
+    }
+
+    // Delete table rows past the TTL; lookups already ignore them
+    @Scheduled(fixedDelayString = "${nlu.cache.cleanup-interval:PT1H}")
+    public void deleteExpired() {
+        if (!persistent) {
+            return;
+        }
+        try {
+            int deleted = transactionTemplate.execute(
+                    status -> repository.deleteClassifiedBefore(LocalDateTime.now().minus(ttl)));
+            if (deleted > 0) {
+                log.info("Deleted {} expired classification cache entries", deleted);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Classification cache cleanup failed: {}", e.getMessage());
+        }
+    }
+
+    // SHA-256 of the text trimmed, lower-cased and with whitespace runs collapsed
+    static String contentKey(String text) {
+        String normalized = text.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+// Persisted classification result, keyed by normalized content hash
+
+package com.continuum.nlu;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "classification_cache")
+public class ClassificationCacheEntry {
+
+    // SHA-256 hex of the normalized text
+    @Id
+    @Column(nullable = false, updatable = false, length = 64)
+    public String contentHash;
+
+    @Column(nullable = false)
+    public String type;
+
+    @Column(nullable = false)
+    public LocalDateTime classifiedAt;
+}
@@ -0,0 +1,27 @@
+package com.continuum.nlu;
+
+import java.time.LocalDateTime;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface ClassificationCacheRepository extends JpaRepository<ClassificationCacheEntry, String> {
+
+    // Insert the entries, or refresh existing (possibly expired) ones, in one
+    // statement: save() would select each assigned id first. Hashes and types are
+    // comma-separated and paired by position; neither may contain a comma.
+    @Modifying
+    @Query(value = "insert into classification_cache (content_hash, type, classified_at) "
+            + "select h, t, :classifiedAt from unnest(string_to_array(:contentHashes, ','), "
+            + "string_to_array(:types, ',')) as u(h, t) "
+            + "on conflict (content_hash) do update set type = excluded.type, classified_at = excluded.classified_at",
+            nativeQuery = true)
+    int upsertAll(@Param("contentHashes") String contentHashes,
+            @Param("types") String types,
+            @Param("classifiedAt") LocalDateTime classifiedAt);
+
+    @Modifying
+    @Query("delete from ClassificationCacheEntry e where e.classifiedAt < :before")
+    int deleteClassifiedBefore(@Param("before") LocalDateTime before);
+}
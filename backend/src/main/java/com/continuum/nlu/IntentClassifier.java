@@ -0,0 +1,13 @@
+package com.continuum.nlu;
+
+import java.util.List;
+
+// Predicts the semantic memory type (GOAL, TASK, PREFERENCE, ...) for text
+public interface IntentClassifier {
+
+    // Returns null when no prediction could be made
+    String classifyIntent(String text);
+
+    // One prediction per input, in order; entries are null where classification failed
+    List<String> classifyIntents(List<String> texts);
+}
@@ -1,15 +1,56 @@
 package com.continuum.nlu;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 @Component
-public class NluClient {
+public class NluClient implements IntentClassifier, TextEmbedder {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final Logger log = LoggerFactory.getLogger(NluClient.class);
+
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
     private final String baseUrl;
 
+    // Stops calling the service while it keeps failing
+    private final CircuitBreaker breaker;
+    // Caps concurrent in-flight calls so a slow service can't absorb every thread
+    private final Semaphore bulkhead;
+
+    private final ObservationRegistry observations;
+    private final Counter shortCircuited;
+    private final Counter bulkheadRejected;
+    // Fallback counters by operation
+    private final Map<String, Counter> fallbacks;
+
     public static class IntentRequest {
         public String text;
     }
@@ -18,30 +59,249 @@ public class NluClient {
         public String type;
     }
 
-    public NluClient(@Value("${nlu.base-url:http://localhost:8090}") String baseUrl) {
+    public static class BatchIntentRequest {
+        public List<String> texts;
+    }
+
+    public static class BatchIntentResponse {
+        public List<String> types;
+    }
+
+    public static class EmbedRequest {
+        public String text;
+    }
+
+    public static class EmbedResponse {
+        public float[] embedding;
+    }
+
+    public static class BatchEmbedRequest {
+        public List<String> texts;
+    }
+
+    public static class BatchEmbedResponse {
+        public List<float[]> embeddings;
+    }
+
+    public NluClient(@Value("${nlu.base-url:http://localhost:8090}") String baseUrl,
+            @Value("${nlu.http.connect-timeout-ms:500}") long connectTimeoutMs,
+            @Value("${nlu.http.read-timeout-ms:3000}") long readTimeoutMs,
+            @Value("${nlu.http.max-connections:32}") int maxConnections,
+            @Value("${nlu.breaker.failure-threshold:5}") int failureThreshold,
+            @Value("${nlu.breaker.open-ms:10000}") long openMs,
+            @Value("${nlu.bulkhead.max-concurrent:16}") int maxConcurrent,
+            MeterRegistry registry,
+            ObservationRegistry observations) {
         this.baseUrl = baseUrl;
+
+        // Single upstream host, so every pooled keep-alive connection can serve it
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        this.breaker = new CircuitBreaker(failureThreshold, TimeUnit.MILLISECONDS.toNanos(openMs), System::nanoTime);
+        this.bulkhead = new Semaphore(maxConcurrent);
+
+        this.observations = observations;
+        Gauge.builder("continuum.nlu.client.breaker.state", breaker, b -> b.state().ordinal())
+                .description("NLU circuit breaker state: 0 closed, 1 open, 2 half-open")
+                .register(registry);
+        Gauge.builder("continuum.nlu.client.in-flight", bulkhead, b -> maxConcurrent - b.availablePermits())
+                .description("NLU calls currently in flight")
+                .register(registry);
+        this.shortCircuited = Counter.builder("continuum.nlu.client.short-circuited")
+                .description("Calls skipped because the circuit breaker was open")
+                .register(registry);
+        this.bulkheadRejected = Counter.builder("continuum.nlu.client.bulkhead-rejected")
+                .description("Calls skipped because too many were already in flight")
+                .register(registry);
+        this.fallbacks = Map.of(
+                "classify", fallbackCounter(registry, "classify"),
+                "classify-batch", fallbackCounter(registry, "classify-batch"),
+                "embed", fallbackCounter(registry, "embed"),
+                "embed-batch", fallbackCounter(registry, "embed-batch"));
     }
 
+    private static Counter fallbackCounter(MeterRegistry registry, String operation) {
+        return Counter.builder("continuum.nlu.client.fallbacks")
+                .description("Texts left unclassified or unembedded, so the caller used its fallback")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    @Override
     public String classifyIntent(String text) {
         if (text == null || text.isBlank()) {
             return null;
         }
-        try {
-            IntentRequest req = new IntentRequest();
-            req.text = text;
+        IntentRequest req = new IntentRequest();
+        req.text = text;
+
+        IntentResponse resp = call("classify", () -> restTemplate.postForObject(
+                baseUrl + "/classify-intent",
+                req,
+                IntentResponse.class));
+
+        if (resp == null || resp.type == null || resp.type.isBlank()) {
+            fellBack("classify", 1);
+            return null; // caller falls back to a default type
+        }
+        return resp.type;
+    }
+
+    @Override
+    public List<String> classifyIntents(List<String> texts) {
+        List<String> results = new ArrayList<>(Arrays.asList(new String[texts.size()]));
+        if (texts.isEmpty()) {
+            return results;
+        }
+        BatchIntentRequest req = new BatchIntentRequest();
+        req.texts = texts;
+
+        BatchIntentResponse resp = call("classify-batch", () -> restTemplate.postForObject(
+                baseUrl + "/classify-intent/batch",
+                req,
+                BatchIntentResponse.class));
+
+        if (resp == null || resp.types == null || resp.types.size() != texts.size()) {
+            fellBack("classify-batch", texts.size());
+            return results;
+        }
+        int missing = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            String type = resp.types.get(i);
+            boolean blank = type == null || type.isBlank();
+            results.set(i, blank ? null : type);
+            missing += blank ? 1 : 0;
+        }
+        fellBack("classify-batch", missing);
+        return results;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        EmbedRequest req = new EmbedRequest();
+        req.text = text;
+
+        EmbedResponse resp = call("embed", () -> restTemplate.postForObject(
+                baseUrl + "/embed",
+                req,
+                EmbedResponse.class));
 
-            IntentResponse resp = restTemplate.postForObject(
-                    baseUrl + "/classify-intent",
-                    req,
-                    IntentResponse.class);
+        if (resp == null || resp.embedding == null || resp.embedding.length == 0) {
+            fellBack("embed", 1);
+            return null; // the memory is still searchable by keywords
+        }
+        return resp.embedding;
+    }
+
+    @Override
+    public List<float[]> embedAll(List<String> texts) {
+        List<float[]> results = new ArrayList<>(Arrays.asList(new float[texts.size()][]));
+        if (texts.isEmpty()) {
+            return results;
+        }
+        BatchEmbedRequest req = new BatchEmbedRequest();
+        req.texts = texts;
+
+        BatchEmbedResponse resp = call("embed-batch", () -> restTemplate.postForObject(
+                baseUrl + "/embed/batch",
+                req,
+                BatchEmbedResponse.class));
+
+        if (resp == null || resp.embeddings == null || resp.embeddings.size() != texts.size()) {
+            fellBack("embed-batch", texts.size());
+            return results;
+        }
+        int missing = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            float[] vector = resp.embeddings.get(i);
+            boolean empty = vector == null || vector.length == 0;
+            results.set(i, empty ? null : vector);
+            missing += empty ? 1 : 0;
+        }
+        fellBack("embed-batch", missing);
+        return results;
+    }
 
-            if (resp == null || resp.type == null || resp.type.isBlank()) {
+    // Run one HTTP call through the bulkhead and circuit breaker as an observation:
+    // a latency timer tagged by operation and outcome, and a span when the request
+    // is traced. Returns null instead of throwing, so callers can fall back.
+    private <T> T call(String operation, Supplier<T> request) {
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejected.increment();
+            return null;
+        }
+        try {
+            if (!breaker.tryAcquire()) {
+                shortCircuited.increment();
                 return null;
             }
-            return resp.type;
-        } catch (Exception e) {
-            // For now, fail soft and let the caller fall back to a default type.
-            return null;
+            Observation observation = Observation.createNotStarted("continuum.nlu.client.latency", observations)
+                    .contextualName("nlu " + operation)
+                    .lowCardinalityKeyValue("operation", operation)
+                    .start();
+            String outcome = "success";
+            try (Observation.Scope scope = observation.openScope()) {
+                T result = request.get();
+                breaker.onSuccess();
+                return result;
+            } catch (HttpClientErrorException e) {
+                // A 4xx means the service is up but rejected this input
+                outcome = "rejected";
+                breaker.onSuccess();
+                log.warn("NLU {} call rejected: {}", operation, e.getStatusCode());
+                return null;
+            } catch (RestClientException e) {
+                outcome = "error";
+                breaker.onFailure();
+                observation.error(e);
+                log.warn("NLU {} call failed: {}", operation, e.getMessage());
+                return null;
+            } catch (RuntimeException e) {
+                // Anything else (a bad response body, a bug) still settles the
+                // breaker, so a half-open trial is never left outstanding
+                outcome = "error";
+                breaker.onFailure();
+                observation.error(e);
+                log.warn("NLU {} call failed unexpectedly", operation, e);
+                return null;
+            } finally {
+                observation.lowCardinalityKeyValue("outcome", outcome).stop();
+            }
+        } finally {
+            bulkhead.release();
         }
     }
+
+    // Count texts the caller gets no result for, whatever the cause: bulkhead,
+    // open breaker, HTTP failure or an empty answer
+    private void fellBack(String operation, int count) {
+        if (count == 0) {
+            return;
+        }
+        fallbacks.get(operation).increment(count);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
 }
@@ -0,0 +1,20 @@
+package com.continuum.nlu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns text into a dense vector for semantic search
+public interface TextEmbedder {
+
+    // Returns null when no embedding could be produced
+    float[] embed(String text);
+
+    // One vector per input, in order; entries are null where embedding failed
+    default List<float[]> embedAll(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(embed(text));
+        }
+        return vectors;
+    }
+}
@@ -1,10 +1,13 @@
 package com.continuum.prompt;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import jakarta.validation.Valid;
+import reactor.core.publisher.Flux;
 
 @RestController
 public class PromptController {
@@ -24,8 +27,24 @@ public class PromptController {
                 request.workspaceId,
                 request.task,
                 request.contextLimit,
+                request.tokenBudget,
                 request.includeSystemInstructions);
 
         return ResponseEntity.ok(res);
     }
+
+    // Generate prompt as server-sent events, one per chunk, named by section. The
+    // header is sent before context retrieval begins.
+    @PostMapping(value = "api/prompts/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<PromptDto.PromptChunk>> streamPrompt(
+            @Valid @RequestBody PromptDto.GeneratePromptRequest request) {
+        return promptService.streamPrompt(
+                request.userId,
+                request.workspaceId,
+                request.task,
+                request.contextLimit,
+                request.tokenBudget,
+                request.includeSystemInstructions)
+                .map(chunk -> ServerSentEvent.builder(chunk).event(chunk.section).build());
+    }
 }
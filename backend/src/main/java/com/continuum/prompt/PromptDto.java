@@ -18,6 +18,10 @@ public class PromptDto {
         // Optional: limit for context memories to include
         public Integer contextLimit;
 
+        // Optional: budget in estimated tokens for the memories in CONTEXT. Memories
+        // are picked by relevance per token and the last one may be trimmed.
+        public Integer tokenBudget;
+
         // Optional: whether to include system instructions
         public Boolean includeSystemInstructions;
     }
@@ -26,5 +30,26 @@ public class PromptDto {
     public static class GeneratePromptResponse {
         public String prompt;
         public int contextMemoriesUsed;
+        // Approximate token count of the whole prompt
+        public int estimatedTokens;
+    }
+
+    // One piece of a streamed prompt. Texts concatenate, in order, to the prompt
+    // generatePrompt would return. `section` is "header", then "workspace" if the
+    // prompt is scoped to one, a context section ("preferences", "goals",
+    // "related", "tasks", "decisions", "facts", or "context" when there is none),
+    // "task", then "done", which alone carries the counts.
+    public static class PromptChunk {
+        public String section;
+        public String text;
+        public Integer contextMemoriesUsed;
+        public Integer estimatedTokens;
+
+        static PromptChunk of(String section, String text) {
+            PromptChunk chunk = new PromptChunk();
+            chunk.section = section;
+            chunk.text = text;
+            return chunk;
+        }
     }
 }
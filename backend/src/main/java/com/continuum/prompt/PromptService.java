@@ -1,155 +1,428 @@
 package com.continuum.prompt;
 
-import java.util.List;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import com.continuum.memory.MemoryDto;
 import com.continuum.memory.MemoryService;
+import com.continuum.workspace.WorkspaceDto;
+import com.continuum.workspace.WorkspaceService;
 
 @Service
 public class PromptService {
 
+    private static final String INSTRUCTIONS = "You are an AI assistant. Use the CONTEXT section as the user's long-term memory (goals, preferences, history).\n"
+            + "Read CONTEXT first, then answer TASK. Prefer recent or explicitly corrective items when there is conflict.\n\n";
+    private static final String CONTEXT_START = "===== CONTEXT START =====\n\n";
+    private static final String CONTEXT_END = "===== CONTEXT END =====\n\n";
+    private static final String NO_CONTEXT = "No prior context was found for this user. Use only the TASK below.\n\n";
+    private static final String CLOSING = "\nWhen answering, ground your response in the CONTEXT where relevant and keep it consistent with the user's long-term preferences.";
+
+    // Context sections in render order. `key` names the section's event when
+    // streaming. PREFERENCES and GOALS hold the standing (pinned) memories;
+    // ranked preferences and goals that aren't standing go to RELATED.
+    private enum Section {
+        PREFERENCES("preferences", "User Preferences"),
+        GOALS("goals", "Current Goals"),
+        RELATED("related", "Related Preferences and Goals"),
+        TASKS("tasks", "Recent Prompts"),
+        DECISIONS("decisions", "Important Decisions / Constraints"),
+        FACTS("facts", "Other Relevant Facts");
+
+        final String key;
+        final String heading;
+
+        Section(String key, String title) {
+            this.key = key;
+            this.heading = "## " + title + "\n\n";
+        }
+    }
+
+    // With a token budget, rank this many memories to choose from
+    private static final int BUDGET_CANDIDATES = 20;
+    // Standing preferences and goals added to the ranked memories
+    private static final int PINNED_LIMIT = 5;
+    // Tokens a context line costs beyond its text: the "N. " prefix and blank line
+    private static final int LINE_OVERHEAD_TOKENS = 3;
+    // Don't bother trimming a memory into less room than this
+    private static final int MIN_TRIMMED_TOKENS = 24;
+    private static final String TRIM_MARKER = " \u2026";
+
+    // A memory's rendered line is fixed by its content and metadata, so it is
+    // cached per version; an edit bumps updatedAt and misses. The content length
+    // tells a trimmed rendering apart from the full one.
+    private record LineKey(String id, LocalDateTime updatedAt, int length) {
+    }
+
+    private record RenderedLine(String text, int tokens) {
+    }
+
+    // Identifies a rendered CONTEXT block: the instructions flag, the workspace
+    // section and every standing and ranked memory at its current version, in
+    // retrieval order.
+    private record BlockKey(boolean includeInstructions, String workspace, List<LineKey> standing,
+            List<LineKey> ranked) {
+    }
+
+    // Everything retrieved for one prompt: the standing preferences and goals,
+    // the ranked memories that aren't among them, and the workspace
+    private record Context(List<MemoryDto.MemoryResponse> standing, List<MemoryDto.MemoryResponse> ranked,
+            WorkspaceDto.WorkspaceResponse workspace) {
+
+        int memoriesUsed() {
+            return standing.size() + ranked.size();
+        }
+    }
+
+    // The concurrent retrieval lookups of one prompt, started but not joined
+    private record Lookups(CompletableFuture<List<MemoryDto.MemoryResponse>> ranked,
+            CompletableFuture<List<MemoryDto.MemoryResponse>> pinned,
+            CompletableFuture<WorkspaceDto.WorkspaceResponse> workspace) {
+    }
+
+    // How many memories to rank and how to cut them down
+    private record Selection(int limit, boolean explicitLimit, Integer tokenBudget) {
+
+        static Selection of(Integer contextLimit, Integer tokenBudget) {
+            boolean explicitLimit = contextLimit != null && contextLimit > 0;
+            return new Selection(explicitLimit ? contextLimit : 5, explicitLimit,
+                    tokenBudget != null && tokenBudget > 0 ? tokenBudget : null);
+        }
+
+        boolean budgeted() {
+            return tokenBudget != null;
+        }
+
+        // With a token budget, a wider pool is ranked and as many as fit are kept
+        int pool() {
+            return budgeted() ? Math.max(limit, BUDGET_CANDIDATES) : limit;
+        }
+
+        int maxCount() {
+            return explicitLimit ? limit : Integer.MAX_VALUE;
+        }
+
+        // The same selection with `tokens` of the budget already spent
+        Selection reserve(int tokens) {
+            return budgeted() ? new Selection(limit, explicitLimit, Math.max(0, tokenBudget - tokens)) : this;
+        }
+    }
+
     private final MemoryService memoryService;
+    private final WorkspaceService workspaceService;
+    // Runs the independent retrieval lookups concurrently. Spring's application
+    // executor: virtual threads when spring.threads.virtual.enabled, else a pool.
+    private final Executor retrievalExecutor;
+    private final Cache<LineKey, RenderedLine> renderedLines;
+    private final Cache<BlockKey, String> renderedBlocks;
+    private final ObservationRegistry observations;
+    private final DistributionSummary promptTokens;
+    private final DistributionSummary memoriesUsed;
 
-    public PromptService(MemoryService memoryService) {
+    public PromptService(MemoryService memoryService, WorkspaceService workspaceService,
+            @Qualifier("applicationTaskExecutor") Executor retrievalExecutor,
+            MeterRegistry registry, ObservationRegistry observations,
+            @Value("${continuum.prompt.cache.max-lines:100000}") long maxLines,
+            @Value("${continuum.prompt.cache.max-blocks:10000}") long maxBlocks,
+            @Value("${continuum.prompt.cache.idle:PT10M}") Duration idle) {
         this.memoryService = memoryService;
+        this.workspaceService = workspaceService;
+        this.retrievalExecutor = retrievalExecutor;
+        this.renderedLines = Caffeine.newBuilder()
+                .maximumSize(maxLines)
+                .expireAfterAccess(idle)
+                .recordStats()
+                .build();
+        this.renderedBlocks = Caffeine.newBuilder()
+                .maximumSize(maxBlocks)
+                .expireAfterAccess(idle)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, renderedLines, "prompt.lines");
+        CaffeineCacheMetrics.monitor(registry, renderedBlocks, "prompt.context");
+        this.observations = observations;
+        this.promptTokens = DistributionSummary.builder("continuum.prompt.tokens")
+                .description("Estimated tokens in a generated prompt")
+                .baseUnit("tokens")
+                .register(registry);
+        this.memoriesUsed = DistributionSummary.builder("continuum.prompt.memories")
+                .description("Memories rendered into a generated prompt's CONTEXT")
+                .register(registry);
     }
 
-    // Build formatted prompt string from context and task
-    private String buildPrompt(
+    // Build formatted prompt string from context and task. Everything before the
+    // TASK depends only on the memories and the instructions flag, so it is
+    // rendered once and reused across tasks.
+    String buildPrompt(
             List<MemoryDto.MemoryResponse> contextMemories,
             String task,
             boolean includeInstructions) {
+        return buildPrompt(new Context(contextMemories == null ? List.of() : contextMemories, List.of(), null), task,
+                includeInstructions);
+    }
 
-        StringBuilder promptBuilder = new StringBuilder();
+    private String buildPrompt(Context context, String task, boolean includeInstructions) {
+        String block = contextBlock(context.standing(), context.ranked(), renderWorkspace(context.workspace()),
+                includeInstructions);
+        return block + renderTask(task);
+    }
+
+    // The workspace the prompt is scoped to, or "" when there is none
+    private static String renderWorkspace(WorkspaceDto.WorkspaceResponse workspace) {
+        if (workspace == null) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("## Workspace\n\n").append(workspace.name);
+        if (workspace.description != null && !workspace.description.isBlank()) {
+            text.append(": ").append(workspace.description);
+        }
+        return text.append("\n\n").toString();
+    }
 
+    private static String renderTask(String task) {
+        return new StringBuilder(task.length() + CLOSING.length() + 16)
+                .append("## TASK\n\n")
+                .append(task).append("\n")
+                .append(CLOSING)
+                .toString();
+    }
+
+    private String contextBlock(List<MemoryDto.MemoryResponse> standing, List<MemoryDto.MemoryResponse> ranked,
+            String workspace, boolean includeInstructions) {
+        if (standing.isEmpty() && ranked.isEmpty()) {
+            return renderContextBlock(List.of(), List.of(), workspace, includeInstructions);
+        }
+        return renderedBlocks.get(new BlockKey(includeInstructions, workspace, versions(standing), versions(ranked)),
+                key -> renderContextBlock(standing, ranked, workspace, includeInstructions));
+    }
+
+    private static List<LineKey> versions(List<MemoryDto.MemoryResponse> memories) {
+        List<LineKey> versions = new ArrayList<>(memories.size());
+        for (MemoryDto.MemoryResponse memory : memories) {
+            versions.add(lineKey(memory));
+        }
+        return versions;
+    }
+
+    // Render instructions and the CONTEXT section in one pass over the memories
+    private String renderContextBlock(List<MemoryDto.MemoryResponse> standing,
+            List<MemoryDto.MemoryResponse> ranked, String workspace, boolean includeInstructions) {
+        List<List<MemoryDto.MemoryResponse>> sections = partition(standing, ranked);
+        int estimate = CONTEXT_START.length() + CONTEXT_END.length() + INSTRUCTIONS.length() + NO_CONTEXT.length()
+                + workspace.length();
+        for (List<MemoryDto.MemoryResponse> section : sections) {
+            for (MemoryDto.MemoryResponse memory : section) {
+                estimate += (memory.content == null ? 0 : memory.content.length()) + 64;
+            }
+        }
+
+        StringBuilder promptBuilder = new StringBuilder(estimate);
         if (includeInstructions) {
             // Short, direct system-style instructions
-            promptBuilder
-                    .append(
-                            "You are an AI assistant. Use the CONTEXT section as the user's long-term memory (goals, preferences, history).\n")
-                    .append("Read CONTEXT first, then answer TASK. Prefer recent or explicitly corrective items when there is conflict.\n\n");
+            promptBuilder.append(INSTRUCTIONS);
         }
+        promptBuilder.append(CONTEXT_START);
+        promptBuilder.append(workspace);
 
-        promptBuilder.append("===== CONTEXT START =====\n\n");
-
-        if (contextMemories == null || contextMemories.isEmpty()) {
-            promptBuilder.append("No prior context was found for this user. Use only the TASK below.\n\n");
+        if (standing.isEmpty() && ranked.isEmpty()) {
+            promptBuilder.append(NO_CONTEXT);
         } else {
-            // Partition memories by semantic type
-            List<MemoryDto.MemoryResponse> preferences = contextMemories.stream()
-                    .filter(m -> "PREFERENCE".equalsIgnoreCase(m.type))
-                    .toList();
-
-            List<MemoryDto.MemoryResponse> goals = contextMemories.stream()
-                    .filter(m -> "GOAL".equalsIgnoreCase(m.type))
-                    .toList();
-
-            List<MemoryDto.MemoryResponse> tasks = contextMemories.stream()
-                    .filter(m -> "TASK".equalsIgnoreCase(m.type))
-                    .toList();
-            // De-duplicate tasks by normalized content so we don't repeat the same wording
-            tasks = dedupeByContent(tasks);
-
-            List<MemoryDto.MemoryResponse> decisions = contextMemories.stream()
-                    .filter(m -> "DECISION".equalsIgnoreCase(m.type)
-                            || "CONSTRAINT".equalsIgnoreCase(m.type))
-                    .toList();
-
-            List<MemoryDto.MemoryResponse> facts = contextMemories.stream()
-                    .filter(m -> m.type == null
-                            || (!"PREFERENCE".equalsIgnoreCase(m.type)
-                                    && !"GOAL".equalsIgnoreCase(m.type)
-                                    && !"TASK".equalsIgnoreCase(m.type)
-                                    && !"DECISION".equalsIgnoreCase(m.type)
-                                    && !"CONSTRAINT".equalsIgnoreCase(m.type)))
-                    .toList();
-
-            // Helper to detect "bad" memories that already contain full woven prompts
-            java.util.function.Predicate<MemoryDto.MemoryResponse> isWovenPromptMemory = m -> {
-                if (m == null || m.content == null) {
-                    return false;
-                }
-                String c = m.content;
-                return c.contains("===== CONTEXT START =====")
-                        || c.contains("You are an AI assistant that uses a persistent memory layer (Continuum)");
-            };
-
-            // Helper to render a section in a compact, LLM-friendly way
-            java.util.function.BiConsumer<String, List<MemoryDto.MemoryResponse>> renderSection = (title, list) -> {
-                if (list == null || list.isEmpty()) {
-                    return;
-                }
-                promptBuilder.append("## ").append(title).append("\n\n");
-                int index = 1;
-                for (MemoryDto.MemoryResponse memory : list) {
-                    if (!memory.active) {
-                        continue; // skip inactive / superseded memories
-                    }
-                    if (isWovenPromptMemory.test(memory)) {
-                        continue; // skip memories that already contain full woven prompts
-                    }
-
-                    promptBuilder.append(index++).append(". ");
-                    promptBuilder.append(memory.content);
-
-                    // Only surface metadata that materially helps the model.
-                    StringBuilder meta = new StringBuilder();
-                    if (memory.importance != null && memory.importance >= 4) {
-                        if (meta.length() > 0) {
-                            meta.append(", ");
-                        }
-                        meta.append("importance: ").append(memory.importance);
-                    }
-                    if (memory.tags != null && !memory.tags.isBlank()) {
-                        if (meta.length() > 0) {
-                            meta.append(", ");
-                        }
-                        meta.append("tags: ").append(memory.tags);
-                    }
-
-                    if (meta.length() > 0) {
-                        promptBuilder.append(" (").append(meta).append(")");
-                    }
-
-                    promptBuilder.append("\n\n");
-                }
-            };
-
-            renderSection.accept("User Preferences", preferences);
-            renderSection.accept("Current Goals", goals);
-            renderSection.accept("Recent Prompts", tasks);
-            renderSection.accept("Important Decisions / Constraints", decisions);
-            renderSection.accept("Other Relevant Facts", facts);
-        }
-
-        promptBuilder.append("===== CONTEXT END =====\n\n");
-
-        promptBuilder.append("## TASK\n\n");
-        promptBuilder.append(task).append("\n");
-
-        promptBuilder.append(
-                "\nWhen answering, ground your response in the CONTEXT where relevant and keep it consistent with the user's long-term preferences.");
+            for (Section section : Section.values()) {
+                renderSection(promptBuilder, section, sections.get(section.ordinal()));
+            }
+        }
 
+        promptBuilder.append(CONTEXT_END);
         return promptBuilder.toString();
     }
 
-    // De-duplicate memories by normalized content, preserving order of first
-    // occurrence
-    private List<MemoryDto.MemoryResponse> dedupeByContent(List<MemoryDto.MemoryResponse> memories) {
-        if (memories == null || memories.isEmpty()) {
-            return memories;
+    // Partition by semantic type, standing memories first and retrieval order
+    // within each section. Ranked preferences and goals go to RELATED, so the
+    // PREFERENCES and GOALS sections depend on the standing memories alone.
+    private static List<List<MemoryDto.MemoryResponse>> partition(List<MemoryDto.MemoryResponse> standing,
+            List<MemoryDto.MemoryResponse> ranked) {
+        List<List<MemoryDto.MemoryResponse>> sections = new ArrayList<>(Section.values().length);
+        for (int i = 0; i < Section.values().length; i++) {
+            sections.add(new ArrayList<>());
         }
-        java.util.Map<String, MemoryDto.MemoryResponse> byContent = new java.util.LinkedHashMap<>();
-        for (MemoryDto.MemoryResponse memory : memories) {
-            if (memory == null || memory.content == null) {
+        // De-duplicate tasks by normalized content so we don't repeat the same wording
+        Set<String> seenTasks = new HashSet<>();
+        List<MemoryDto.MemoryResponse> all = new ArrayList<>(standing.size() + ranked.size());
+        all.addAll(standing);
+        all.addAll(ranked);
+        for (int i = 0; i < all.size(); i++) {
+            MemoryDto.MemoryResponse memory = all.get(i);
+            Section section = sectionOf(memory.type);
+            if (i >= standing.size() && (section == Section.PREFERENCES || section == Section.GOALS)) {
+                section = Section.RELATED;
+            }
+            if (section == Section.TASKS
+                    && (memory.content == null || !seenTasks.add(memory.content.trim().toLowerCase()))) {
                 continue;
             }
-            String key = memory.content.trim().toLowerCase();
-            if (!byContent.containsKey(key)) {
-                byContent.put(key, memory);
+            sections.get(section.ordinal()).add(memory);
+        }
+        return sections;
+    }
+
+    private static Section sectionOf(String type) {
+        if (type == null) {
+            return Section.FACTS;
+        }
+        return switch (type.toUpperCase(Locale.ROOT)) {
+            case "PREFERENCE" -> Section.PREFERENCES;
+            case "GOAL" -> Section.GOALS;
+            case "TASK" -> Section.TASKS;
+            case "DECISION", "CONSTRAINT" -> Section.DECISIONS;
+            default -> Section.FACTS;
+        };
+    }
+
+    // Render a section in a compact, LLM-friendly way
+    private void renderSection(StringBuilder promptBuilder, Section section, List<MemoryDto.MemoryResponse> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        promptBuilder.append(section.heading);
+        int index = 1;
+        for (MemoryDto.MemoryResponse memory : list) {
+            if (!memory.active) {
+                continue; // skip inactive / superseded memories
+            }
+            if (memory.wovenPrompt) {
+                continue; // skip memories that already contain full woven prompts
             }
+            promptBuilder.append(index++).append(". ");
+            promptBuilder.append(line(memory).text());
+            promptBuilder.append("\n\n");
         }
-        return java.util.List.copyOf(byContent.values());
+    }
+
+    private static LineKey lineKey(MemoryDto.MemoryResponse memory) {
+        return new LineKey(memory.id, memory.updatedAt, memory.content == null ? 0 : memory.content.length());
+    }
+
+    private RenderedLine line(MemoryDto.MemoryResponse memory) {
+        return renderedLines.get(lineKey(memory), key -> {
+            String text = renderLine(memory);
+            return new RenderedLine(text, TokenEstimator.estimate(text));
+        });
+    }
+
+    // Choose the memories to render within `budget` estimated tokens, greedily by
+    // relevance per token. Relevance comes from retrieval rank (best first, weight
+    // 1 / (rank + 1)). If room is left after that, the best remaining memory is
+    // trimmed to fit. Returns at most `maxCount` memories in their original order.
+    List<MemoryDto.MemoryResponse> selectWithinBudget(List<MemoryDto.MemoryResponse> ranked, int budget,
+            int maxCount) {
+        record Candidate(int rank, MemoryDto.MemoryResponse memory, int cost, double value) {
+        }
+        List<Candidate> candidates = new ArrayList<>(ranked.size());
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            MemoryDto.MemoryResponse memory = ranked.get(rank);
+            if (!memory.active || memory.wovenPrompt || memory.content == null) {
+                continue; // never rendered, so never charged
+            }
+            int cost = line(memory).tokens() + LINE_OVERHEAD_TOKENS;
+            candidates.add(new Candidate(rank, memory, cost, 1.0 / (rank + 1) / cost));
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::value).reversed()
+                .thenComparingInt(Candidate::rank));
+
+        int remaining = budget;
+        TreeMap<Integer, MemoryDto.MemoryResponse> chosen = new TreeMap<>();
+        Candidate overflow = null;
+        for (Candidate candidate : candidates) {
+            if (chosen.size() == maxCount) {
+                break;
+            }
+            if (candidate.cost() <= remaining) {
+                chosen.put(candidate.rank(), candidate.memory());
+                remaining -= candidate.cost();
+            } else if (overflow == null || candidate.rank() < overflow.rank()) {
+                overflow = candidate;
+            }
+        }
+        if (overflow != null && chosen.size() < maxCount && remaining - LINE_OVERHEAD_TOKENS >= MIN_TRIMMED_TOKENS) {
+            MemoryDto.MemoryResponse trimmed = trimToFit(overflow.memory(), remaining - LINE_OVERHEAD_TOKENS);
+            if (trimmed != null) {
+                chosen.put(overflow.rank(), trimmed);
+            }
+        }
+        return List.copyOf(chosen.values());
+    }
+
+    // Copy of `memory` with content cut at a word boundary so its rendered line
+    // fits in `tokens`, or null if even a short prefix doesn't fit
+    private MemoryDto.MemoryResponse trimToFit(MemoryDto.MemoryResponse memory, int tokens) {
+        String content = memory.content;
+        int full = Math.max(1, TokenEstimator.estimate(content));
+        int chars = (int) ((long) content.length() * tokens / full);
+        while (chars > 0) {
+            int cut = content.lastIndexOf(' ', chars);
+            String prefix = (cut > 0 ? content.substring(0, cut) : content.substring(0, chars)).stripTrailing();
+            MemoryDto.MemoryResponse copy = withContent(memory, prefix + TRIM_MARKER);
+            // Trials are rendered uncached; only the chosen copy is cached, when rendered
+            if (TokenEstimator.estimate(renderLine(copy)) <= tokens) {
+                return copy;
+            }
+            chars = Math.min(prefix.length(), chars) * 9 / 10;
+        }
+        return null;
+    }
+
+    private static MemoryDto.MemoryResponse withContent(MemoryDto.MemoryResponse memory, String content) {
+        MemoryDto.MemoryResponse copy = new MemoryDto.MemoryResponse();
+        copy.id = memory.id;
+        copy.userId = memory.userId;
+        copy.workspaceId = memory.workspaceId;
+        copy.source = memory.source;
+        copy.content = content;
+        copy.type = memory.type;
+        copy.topic = memory.topic;
+        copy.tags = memory.tags;
+        copy.importance = memory.importance;
+        copy.active = memory.active;
+        copy.wovenPrompt = memory.wovenPrompt;
+        copy.createdAt = memory.createdAt;
+        copy.updatedAt = memory.updatedAt;
+        return copy;
+    }
+
+    // Content plus the metadata that materially helps the model
+    private static String renderLine(MemoryDto.MemoryResponse memory) {
+        boolean important = memory.importance != null && memory.importance >= 4;
+        boolean tagged = memory.tags != null && !memory.tags.isBlank();
+        if (!important && !tagged) {
+            return memory.content;
+        }
+        StringBuilder line = new StringBuilder(memory.content.length() + 48).append(memory.content).append(" (");
+        if (important) {
+            line.append("importance: ").append(memory.importance);
+        }
+        if (tagged) {
+            if (important) {
+                line.append(", ");
+            }
+            line.append("tags: ").append(memory.tags);
+        }
+        return line.append(')').toString();
     }
 
     // Generate prompt with context
@@ -158,18 +431,242 @@ public class PromptService {
             String workspaceId,
             String task,
             Integer contextLimit,
+            Integer tokenBudget,
             Boolean includeSystemInstructions) {
 
-        int limit = (contextLimit == null || contextLimit <= 0) ? 5 : contextLimit;
         boolean includeInstructions = includeSystemInstructions != null && includeSystemInstructions;
-
-        // Get relevant context memories
-        List<MemoryDto.MemoryResponse> contextMemories = memoryService.queryContext(userId, workspaceId, task, limit);
-        String prompt = buildPrompt(contextMemories, task, includeInstructions);
+        Context context = retrieveContext(userId, workspaceId, task, includeInstructions,
+                Selection.of(contextLimit, tokenBudget));
+        String prompt = stage("render", () -> buildPrompt(context, task, includeInstructions));
 
         PromptDto.GeneratePromptResponse responseModel = new PromptDto.GeneratePromptResponse();
         responseModel.prompt = prompt;
-        responseModel.contextMemoriesUsed = contextMemories.size();
+        responseModel.contextMemoriesUsed = context.memoriesUsed();
+        responseModel.estimatedTokens = TokenEstimator.estimate(prompt);
+        recordPrompt(responseModel.estimatedTokens, responseModel.contextMemoriesUsed);
         return responseModel;
     }
-}
\ No newline at end of file
+
+    // Generate the same prompt as generatePrompt as a stream of chunks whose texts
+    // concatenate to it. The instructions and CONTEXT header go out before
+    // retrieval starts. Each later chunk goes out as soon as the lookup it needs
+    // completes: the workspace, then the standing preferences and goals, then
+    // the ranked sections and the task once the ranking is in. A final "done"
+    // chunk carries the counts.
+    public Flux<PromptDto.PromptChunk> streamPrompt(
+            String userId,
+            String workspaceId,
+            String task,
+            Integer contextLimit,
+            Integer tokenBudget,
+            Boolean includeSystemInstructions) {
+
+        boolean includeInstructions = includeSystemInstructions != null && includeSystemInstructions;
+        String header = header(includeInstructions);
+        Selection selection = Selection.of(contextLimit, tokenBudget);
+
+        return Flux.defer(() -> {
+            Lookups lookups = startLookups(userId, workspaceId, task, selection.pool());
+            int[] tokens = new int[1];
+            int[] used = new int[1];
+
+            // The workspace is emitted first anyway, so waiting for it to budget
+            // the standing memories delays nothing
+            CompletableFuture<Selection> reserved = lookups.workspace().thenApply(
+                    found -> selection.reserve(fixedTokens(includeInstructions, found, task)));
+            Mono<List<MemoryDto.MemoryResponse>> standing = Mono
+                    .fromFuture(lookups.pinned().thenCombine(reserved, (pinned, budget) ->
+                            stage("score", () -> selectStanding(pinned, budget))))
+                    .cache();
+            Flux<PromptDto.PromptChunk> workspace = Mono.fromFuture(lookups.workspace())
+                    .map(found -> PromptDto.PromptChunk.of("workspace", renderWorkspace(found)))
+                    .flux();
+            Flux<PromptDto.PromptChunk> standingSections = standing.flatMapIterable(
+                    list -> sectionChunks(partition(list, List.of()), Section.PREFERENCES, Section.GOALS));
+            Flux<PromptDto.PromptChunk> rankedSections = Mono.fromFuture(lookups.ranked())
+                    .zipWith(standing)
+                    .flatMapIterable(found -> {
+                        List<MemoryDto.MemoryResponse> ranked = stage("score",
+                                () -> selectRanked(found.getT1(), found.getT2(), reserved.join()));
+                        used[0] = found.getT2().size() + ranked.size();
+                        return stage("render", () -> rankedChunks(found.getT2(), ranked, task));
+                    });
+
+            return Flux.concat(Flux.just(PromptDto.PromptChunk.of("header", header)), workspace,
+                            standingSections, rankedSections)
+                    .doOnNext(chunk -> tokens[0] += TokenEstimator.estimate(chunk.text))
+                    .concatWith(Mono.fromSupplier(() -> {
+                        PromptDto.PromptChunk done = PromptDto.PromptChunk.of("done", "");
+                        done.contextMemoriesUsed = used[0];
+                        done.estimatedTokens = tokens[0];
+                        recordPrompt(tokens[0], used[0]);
+                        return done;
+                    }));
+        });
+    }
+
+    // One chunk per non-empty section among `wanted`
+    private List<PromptDto.PromptChunk> sectionChunks(List<List<MemoryDto.MemoryResponse>> sections,
+            Section... wanted) {
+        List<PromptDto.PromptChunk> chunks = new ArrayList<>();
+        for (Section section : wanted) {
+            StringBuilder text = new StringBuilder();
+            renderSection(text, section, sections.get(section.ordinal()));
+            if (text.length() > 0) {
+                chunks.add(PromptDto.PromptChunk.of(section.key, text.toString()));
+            }
+        }
+        return chunks;
+    }
+
+    // The sections after the standing preferences and goals, then the task
+    private List<PromptDto.PromptChunk> rankedChunks(List<MemoryDto.MemoryResponse> standing,
+            List<MemoryDto.MemoryResponse> ranked, String task) {
+        List<PromptDto.PromptChunk> chunks = new ArrayList<>();
+        if (standing.isEmpty() && ranked.isEmpty()) {
+            chunks.add(PromptDto.PromptChunk.of("context", NO_CONTEXT));
+        } else {
+            chunks.addAll(sectionChunks(partition(standing, ranked),
+                    Section.RELATED, Section.TASKS, Section.DECISIONS, Section.FACTS));
+        }
+        chunks.add(PromptDto.PromptChunk.of("task", CONTEXT_END + renderTask(task)));
+        return chunks;
+    }
+
+    // Context for a task. Three independent lookups run concurrently: the top
+    // `contextLimit` (default 5) memories ranked against the task, the user's
+    // standing preferences and goals, and the workspace. The standing memories
+    // come first; the ranked ones skip those already among them.
+    private Context retrieveContext(String userId, String workspaceId, String task, boolean includeInstructions,
+            Selection selection) {
+        Lookups lookups = startLookups(userId, workspaceId, task, selection.pool());
+        stage("retrieve", () -> await(CompletableFuture.allOf(lookups.ranked(), lookups.pinned(),
+                lookups.workspace())));
+        return stage("score", () -> {
+            WorkspaceDto.WorkspaceResponse workspace = lookups.workspace().join();
+            Selection reserved = selection.reserve(fixedTokens(includeInstructions, workspace, task));
+            List<MemoryDto.MemoryResponse> standing = selectStanding(lookups.pinned().join(), reserved);
+            List<MemoryDto.MemoryResponse> ranked = selectRanked(lookups.ranked().join(), standing, reserved);
+            return new Context(standing, ranked, workspace);
+        });
+    }
+
+    private static String header(boolean includeInstructions) {
+        return (includeInstructions ? INSTRUCTIONS : "") + CONTEXT_START;
+    }
+
+    // Tokens the prompt spends whatever memories it carries: the instructions,
+    // CONTEXT markers, workspace and task
+    private static int fixedTokens(boolean includeInstructions, WorkspaceDto.WorkspaceResponse workspace,
+            String task) {
+        return TokenEstimator.estimate(header(includeInstructions))
+                + TokenEstimator.estimate(renderWorkspace(workspace))
+                + TokenEstimator.estimate(CONTEXT_END)
+                + TokenEstimator.estimate(renderTask(task));
+    }
+
+    // Tokens for the headings of the sections `memories` would open that aren't
+    // in `open`. Standing preferences and goals have their own sections; ranked
+    // ones share RELATED.
+    private static int headingTokens(List<MemoryDto.MemoryResponse> memories, boolean standing,
+            Set<Section> open) {
+        Set<Section> opened = EnumSet.noneOf(Section.class);
+        for (MemoryDto.MemoryResponse memory : memories) {
+            Section section = sectionOf(memory.type);
+            if (!standing && (section == Section.PREFERENCES || section == Section.GOALS)) {
+                section = Section.RELATED;
+            }
+            if (!open.contains(section)) {
+                opened.add(section);
+            }
+        }
+        int tokens = 0;
+        for (Section section : opened) {
+            tokens += TokenEstimator.estimate(section.heading);
+        }
+        return tokens;
+    }
+
+    private Lookups startLookups(String userId, String workspaceId, String task, int pool) {
+        CompletableFuture<List<MemoryDto.MemoryResponse>> ranked = CompletableFuture.supplyAsync(
+                () -> memoryService.queryContext(userId, workspaceId, task, pool), retrievalExecutor);
+        CompletableFuture<List<MemoryDto.MemoryResponse>> pinned = CompletableFuture.supplyAsync(
+                () -> memoryService.pinnedContext(userId, workspaceId, PINNED_LIMIT), retrievalExecutor);
+        CompletableFuture<WorkspaceDto.WorkspaceResponse> workspace = (workspaceId == null || workspaceId.isBlank())
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> workspaceService.getWorkspaceById(workspaceId), retrievalExecutor);
+        return new Lookups(ranked, pinned, workspace);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // With a token budget (less the fixed parts, see reserve), the standing
+    // memories are chosen first and may use all of it, headings included; an
+    // explicit contextLimit caps the count across both selections
+    private List<MemoryDto.MemoryResponse> selectStanding(List<MemoryDto.MemoryResponse> pinned,
+            Selection selection) {
+        if (!selection.budgeted()) {
+            return List.copyOf(pinned);
+        }
+        Selection left = selection.reserve(headingTokens(pinned, true, Set.of()));
+        return selectWithinBudget(pinned, left.tokenBudget(), selection.maxCount());
+    }
+
+    private List<MemoryDto.MemoryResponse> selectRanked(List<MemoryDto.MemoryResponse> ranked,
+            List<MemoryDto.MemoryResponse> standing, Selection selection) {
+        Set<String> standingIds = new HashSet<>();
+        for (MemoryDto.MemoryResponse memory : standing) {
+            standingIds.add(memory.id);
+        }
+        List<MemoryDto.MemoryResponse> rest = new ArrayList<>(ranked.size());
+        for (MemoryDto.MemoryResponse memory : ranked) {
+            if (!standingIds.contains(memory.id)) {
+                rest.add(memory);
+            }
+        }
+        if (!selection.budgeted()) {
+            return rest;
+        }
+        Set<Section> open = EnumSet.noneOf(Section.class);
+        int spent = 0;
+        for (MemoryDto.MemoryResponse memory : standing) {
+            open.add(sectionOf(memory.type));
+            if (memory.active && !memory.wovenPrompt && memory.content != null) {
+                spent += line(memory).tokens() + LINE_OVERHEAD_TOKENS;
+            }
+        }
+        spent += open.stream().mapToInt(section -> TokenEstimator.estimate(section.heading)).sum()
+                + headingTokens(rest, false, open);
+        int maxCount = selection.maxCount() == Integer.MAX_VALUE
+                ? Integer.MAX_VALUE
+                : selection.maxCount() - standing.size();
+        if (maxCount <= 0 || spent >= selection.tokenBudget()) {
+            return List.of();
+        }
+        return selectWithinBudget(rest, selection.tokenBudget() - spent, maxCount);
+    }
+
+    // One step of prompt generation (retrieve, score or render), observed as
+    // continuum.prompt.stage tagged with the step: a timer, and a span when the
+    // request is traced
+    private <T> T stage(String stage, Supplier<T> step) {
+        return Observation.createNotStarted("continuum.prompt.stage", observations)
+                .contextualName("prompt " + stage)
+                .lowCardinalityKeyValue("stage", stage)
+                .observe(step);
+    }
+
+    private void recordPrompt(int tokens, int memories) {
+        promptTokens.record(tokens);
+        memoriesUsed.record(memories);
+    }
+}
@@ -0,0 +1,41 @@
+// Fast local approximation of LLM token counts
+
+package com.continuum.prompt;
+
+// Approximates a BPE tokenizer without its vocabulary. A run of letters or digits
+// costs one token per four characters (rounded up), CJK ideographs and kana one
+// each, and every other non-space character one. Good enough to budget prompt
+// size; not an exact count for any particular model.
+final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '\u2E80' && Character.isLetterOrDigit(c)) {
+                tokens += wordTokens(run) + 1;
+                run = 0;
+            } else if (Character.isLetterOrDigit(c)) {
+                run++;
+            } else {
+                tokens += wordTokens(run);
+                run = 0;
+                if (!Character.isWhitespace(c)) {
+                    tokens++;
+                }
+            }
+        }
+        return tokens + wordTokens(run);
+    }
+
+    private static int wordTokens(int length) {
+        return (length + 3) / 4;
+    }
+}
@@ -6,13 +6,14 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Column;
 import jakarta.persistence.Table;
+import java.util.UUID;
 
 @Entity
 @Table(name = "users")
 public class User {
     @Id
     @Column(nullable = false, updatable = false)
-    public String id;
+    public UUID id;
 
     @Column(nullable = false, unique = true)
     public String username;
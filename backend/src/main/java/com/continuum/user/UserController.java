@@ -1,5 +1,6 @@
 package com.continuum.user;
 
+import com.continuum.common.CursorPage;
 import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -35,14 +36,26 @@ public class UserController {
         }
     }
 
-    // Get all users
+    // Get users, one page at a time, or the single user with `username`. The
+    // cursor for the next page is returned in the X-Next-Cursor header.
     @GetMapping("api/users")
-    public List<UserDto.UserResponse> getUsers(@RequestParam(required = false) String username) {
-        if (username == null) {
-            return userService.listUsers();
+    public ResponseEntity<List<UserDto.UserResponse>> getUsers(@RequestParam(required = false) String username,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        if (username != null) {
+            UserDto.UserResponse user = userService.getUserByUsername(username);
+            return ResponseEntity.ok(user != null ? List.of(user) : List.of());
+        }
+        try {
+            CursorPage<UserDto.UserResponse> page = userService.listUsers(cursor, limit);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                ok.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return ok.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
-        UserDto.UserResponse user = userService.getUserByUsername(username);
-        return user != null ? List.of(user) : List.of();
     }
 
     // Get specific user
@@ -2,12 +2,25 @@
 
 package com.continuum.user;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface UserRepository extends JpaRepository<User, String> {
+public interface UserRepository extends JpaRepository<User, UUID> {
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
+
+    // Keyset pages in id order (users have no creation timestamp); served by the
+    // primary key index
+    @Query("select u from User u order by u.id asc")
+    List<User> findFirstPage(Pageable pageable);
+
+    @Query("select u from User u where u.id > :id order by u.id asc")
+    List<User> findPageAfter(@Param("id") UUID id, Pageable pageable);
 }
 
 
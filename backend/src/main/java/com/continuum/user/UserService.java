@@ -2,7 +2,16 @@
 
 package com.continuum.user;
 
+import com.continuum.common.ClusterCache;
+import com.continuum.common.CursorPage;
+import com.continuum.common.Ids;
+import com.continuum.common.InvalidationBus;
+import com.continuum.common.KeysetCursor;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import java.util.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.lang.NonNull;
 
@@ -10,15 +19,21 @@ import org.springframework.lang.NonNull;
 public class UserService {
 
     private final UserRepository repository;
+    // Responses rather than entities, which a request's persistence context may
+    // still be changing
+    private final ClusterCache<UserDto.UserResponse> byId;
 
-    public UserService(UserRepository repository) {
+    public UserService(UserRepository repository, InvalidationBus bus, MeterRegistry registry,
+            @Value("${continuum.cluster.cache.max-size:10000}") long maxSize,
+            @Value("${continuum.cluster.cache.idle:PT10M}") Duration idle) {
         this.repository = repository;
+        this.byId = new ClusterCache<>("users", bus, registry, maxSize, idle);
     }
 
     // Convert User entity into UserResponse DTO
     private UserDto.UserResponse toResponse(User user) {
         UserDto.UserResponse resp = new UserDto.UserResponse();
-        resp.id = user.id;
+        resp.id = user.id.toString();
         resp.username = user.username;
         resp.email = user.email;
         resp.displayName = user.displayName;
@@ -38,7 +53,7 @@ public class UserService {
         }
 
         User user = new User();
-        user.id = UUID.randomUUID().toString();
+        user.id = Ids.newId();
         user.username = request.username;
         user.email = request.email;
         user.displayName = request.displayName;
@@ -49,7 +64,7 @@ public class UserService {
 
     // Update a user
     public UserDto.UserResponse updateUser(@NonNull String id, UserDto.CreateUserRequest request) {
-        Optional<User> optional = repository.findById(id);
+        Optional<User> optional = find(id);
         if (optional.isEmpty()) {
             return null; // controller will turn this into 404
         }
@@ -75,23 +90,30 @@ public class UserService {
         existing.displayName = request.displayName;
 
         User updated = repository.save(existing);
+        byId.invalidate(updated.id.toString());
         return toResponse(updated);
     }
 
-    // List all users
-    public List<UserDto.UserResponse> listUsers() {
-        return repository.findAll().stream()
-                .map(this::toResponse)
-                .toList();
+    // List one page of users in id order. Throws IllegalArgumentException for a
+    // malformed cursor.
+    public CursorPage<UserDto.UserResponse> listUsers(String cursor, Integer limit) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        int pageSize = KeysetCursor.pageSize(limit);
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+
+        List<User> rows = after == null
+                ? repository.findFirstPage(page)
+                : repository.findPageAfter(after.id(), page);
+        return CursorPage.of(rows, pageSize, u -> new KeysetCursor(null, u.id), this::toResponse);
     }
 
     // Get user by id
     public UserDto.UserResponse getUserById(@NonNull String id) {
-        Optional<User> optional = repository.findById(id);
-        if (optional.isEmpty()) {
+        UUID key = Ids.parse(id);
+        if (key == null) {
             return null;
         }
-        return toResponse(optional.get());
+        return byId.get(key.toString(), k -> repository.findById(key).map(this::toResponse).orElse(null));
     }
 
     // Get user by username
@@ -105,12 +127,20 @@ public class UserService {
 
     // Delete user
     public boolean deleteUserById(@NonNull String id) {
-        if (!repository.existsById(id)) {
+        UUID key = Ids.parse(id);
+        if (key == null || !repository.existsById(key)) {
             return false;
         }
-        repository.deleteById(id);
+        repository.deleteById(key);
+        byId.invalidate(key.toString());
         return true;
     }
+
+    // Ids that aren't UUIDs can't match a row
+    private Optional<User> find(String id) {
+        UUID key = Ids.parse(id);
+        return key == null ? Optional.empty() : repository.findById(key);
+    }
 }
 
 
@@ -5,16 +5,22 @@ package com.continuum.workspace;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import java.time.LocalDateTime;
+import java.util.UUID;
 import jakarta.persistence.Column;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import jakarta.persistence.PrePersist;
 
 @Entity
-@Table(name = "workspaces")
+@Table(name = "workspaces", indexes = {
+        // Keyset pagination, overall and per owner
+        @Index(name = "idx_workspaces_created_id", columnList = "createdAt, id"),
+        @Index(name = "idx_workspaces_owner_created_id", columnList = "ownerId, createdAt, id")
+})
 public class Workspace {
     @Id
     @Column(nullable = false, updatable = false)
-    public String id;
+    public UUID id;
 
     @Column(nullable = false)
     public String name;
@@ -1,5 +1,6 @@
 package com.continuum.workspace;
 
+import com.continuum.common.CursorPage;
 import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -31,13 +32,23 @@ public class WorkspaceController {
         return new ResponseEntity<>(resp, HttpStatus.CREATED);
     }
 
-    // Get all workspaces
+    // Get workspaces, one page at a time. The cursor for the next page is returned
+    // in the X-Next-Cursor header and is absent on the last page.
     @GetMapping("api/workspaces")
-    public List<WorkspaceDto.WorkspaceResponse> getWorkspaces(@RequestParam(required = false) String ownerId) {
-        if (ownerId == null) {
-            return workspaceService.listWorkspaces();
+    public ResponseEntity<List<WorkspaceDto.WorkspaceResponse>> getWorkspaces(
+            @RequestParam(required = false) String ownerId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            CursorPage<WorkspaceDto.WorkspaceResponse> page = workspaceService.listWorkspaces(ownerId, cursor, limit);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                ok.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return ok.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
-        return workspaceService.listWorkspacesByOwner(ownerId);
     }
 
     // Get specific workspace
@@ -2,11 +2,27 @@
 
 package com.continuum.workspace;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.UUID;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface WorkspaceRepository extends JpaRepository<Workspace, String> {
-    List<Workspace> findByOwnerId(String ownerId);
-} 
+public interface WorkspaceRepository extends JpaRepository<Workspace, UUID> {
+    // Keyset pages in (createdAt, id) order, optionally for one owner
+    @Query("select w from Workspace w where (:ownerId is null or w.ownerId = :ownerId) "
+            + "order by w.createdAt asc, w.id asc")
+    List<Workspace> findFirstPage(@Param("ownerId") String ownerId, Pageable pageable);
+
+    @Query("select w from Workspace w where (:ownerId is null or w.ownerId = :ownerId) "
+            + "and (w.createdAt > :createdAt or (w.createdAt = :createdAt and w.id > :id)) "
+            + "order by w.createdAt asc, w.id asc")
+    List<Workspace> findPageAfter(@Param("ownerId") String ownerId,
+            @Param("createdAt") LocalDateTime createdAt,
+            @Param("id") UUID id,
+            Pageable pageable);
+}
 
 
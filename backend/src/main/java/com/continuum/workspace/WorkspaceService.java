@@ -2,7 +2,16 @@
 
 package com.continuum.workspace;
 
+import com.continuum.common.ClusterCache;
+import com.continuum.common.CursorPage;
+import com.continuum.common.Ids;
+import com.continuum.common.InvalidationBus;
+import com.continuum.common.KeysetCursor;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import java.util.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.lang.NonNull;
 
@@ -10,15 +19,21 @@ import org.springframework.lang.NonNull;
 public class WorkspaceService {
 
     private final WorkspaceRepository repository;
+    // Read on every prompt scoped to a workspace. Holds responses rather than
+    // entities, which a request's persistence context may still be changing.
+    private final ClusterCache<WorkspaceDto.WorkspaceResponse> byId;
 
-    public WorkspaceService(WorkspaceRepository repository) {
+    public WorkspaceService(WorkspaceRepository repository, InvalidationBus bus, MeterRegistry registry,
+            @Value("${continuum.cluster.cache.max-size:10000}") long maxSize,
+            @Value("${continuum.cluster.cache.idle:PT10M}") Duration idle) {
         this.repository = repository;
+        this.byId = new ClusterCache<>("workspaces", bus, registry, maxSize, idle);
     }
 
     // Convert Workspace entity into WorkspaceResponse DTO
     private WorkspaceDto.WorkspaceResponse toResponse(Workspace workspace) {
         WorkspaceDto.WorkspaceResponse resp = new WorkspaceDto.WorkspaceResponse();
-        resp.id = workspace.id;
+        resp.id = workspace.id.toString();
         resp.name = workspace.name;
         resp.ownerId = workspace.ownerId;
         resp.createdAt = workspace.createdAt;
@@ -29,7 +44,7 @@ public class WorkspaceService {
     // Create a workspace
     public WorkspaceDto.WorkspaceResponse createWorkspace(WorkspaceDto.CreateWorkspaceRequest request) {
         Workspace workspace = new Workspace();
-        workspace.id = UUID.randomUUID().toString();
+        workspace.id = Ids.newId();
         workspace.name = request.name;
         workspace.ownerId = request.ownerId;
         workspace.description = request.description;
@@ -40,7 +55,7 @@ public class WorkspaceService {
 
     // Update a workspace
     public WorkspaceDto.WorkspaceResponse updateWorkspace(@NonNull String id, WorkspaceDto.CreateWorkspaceRequest request) {
-        Optional<Workspace> optional = repository.findById(id);
+        Optional<Workspace> optional = find(id);
         if (optional.isEmpty()) {
             return null; // controller will turn this into 404
         }
@@ -52,40 +67,48 @@ public class WorkspaceService {
         // createdAt is not updated (updatable = false)
 
         Workspace updated = repository.save(existing);
+        byId.invalidate(updated.id.toString());
         return toResponse(updated);
     }
 
-    // List all workspaces
-    public List<WorkspaceDto.WorkspaceResponse> listWorkspaces() {
-        return repository.findAll().stream()
-                .map(this::toResponse)
-                .toList();
-    }
-
-    // List workspaces by owner
-    public List<WorkspaceDto.WorkspaceResponse> listWorkspacesByOwner(@NonNull String ownerId) {
-        return repository.findByOwnerId(ownerId).stream()
-                .map(this::toResponse)
-                .toList();
+    // List one page of workspaces, optionally for a single owner, oldest first.
+    // Throws IllegalArgumentException for a malformed cursor.
+    public CursorPage<WorkspaceDto.WorkspaceResponse> listWorkspaces(String ownerId, String cursor, Integer limit) {
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        int pageSize = KeysetCursor.pageSize(limit);
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+
+        List<Workspace> rows = after == null
+                ? repository.findFirstPage(ownerId, page)
+                : repository.findPageAfter(ownerId, after.createdAt(), after.id(), page);
+        return CursorPage.of(rows, pageSize, w -> new KeysetCursor(w.createdAt, w.id), this::toResponse);
     }
 
     // Get workspace by id
     public WorkspaceDto.WorkspaceResponse getWorkspaceById(@NonNull String id) {
-        Optional<Workspace> optional = repository.findById(id);
-        if (optional.isEmpty()) {
+        UUID key = Ids.parse(id);
+        if (key == null) {
             return null;
         }
-        return toResponse(optional.get());
+        return byId.get(key.toString(), k -> repository.findById(key).map(this::toResponse).orElse(null));
     }
 
     // Delete workspace
     public boolean deleteWorkspaceById(@NonNull String id) {
-        if (!repository.existsById(id)) {
+        UUID key = Ids.parse(id);
+        if (key == null || !repository.existsById(key)) {
             return false;
         }
-        repository.deleteById(id);
+        repository.deleteById(key);
+        byId.invalidate(key.toString());
         return true;
     }
+
+    // Ids that aren't UUIDs can't match a row
+    private Optional<Workspace> find(String id) {
+        UUID key = Ids.parse(id);
+        return key == null ? Optional.empty() : repository.findById(key);
+    }
 }
 
 
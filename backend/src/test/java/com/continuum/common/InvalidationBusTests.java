@@ -0,0 +1,182 @@
+package com.continuum.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class InvalidationBusTests {
+
+	private static final Duration IDLE = Duration.ofMinutes(10);
+
+	@Test
+	void parsesKeysContainingSeparator() {
+		InvalidationBus.Message message = InvalidationBus.Message.parse("node-a|42|memories|team|alice");
+
+		assertThat(message.origin()).isEqualTo("node-a");
+		assertThat(message.version()).isEqualTo(42);
+		assertThat(message.cache()).isEqualTo("memories");
+		assertThat(message.key()).isEqualTo("team|alice");
+		assertThatThrownBy(() -> InvalidationBus.Message.parse("node-a|42")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void lateMessageDoesNotEvictEntryLoadedAfterTheWrite() {
+		FakeBus bus = new FakeBus();
+		AtomicInteger loads = new AtomicInteger();
+		ClusterCache<String> cache = new ClusterCache<>("users", bus, new SimpleMeterRegistry(), 100, IDLE);
+
+		bus.horizon.set(10);
+		assertThat(cache.get("u1", k -> "v" + loads.incrementAndGet())).isEqualTo("v1");
+
+		bus.listener.invalidate("u1", 7);
+		assertThat(cache.get("u1", k -> "v" + loads.incrementAndGet())).isEqualTo("v1");
+
+		bus.listener.invalidate("u1", 10);
+		assertThat(cache.get("u1", k -> "v" + loads.incrementAndGet())).isEqualTo("v2");
+	}
+
+	@Test
+	void flushesEverythingWhenMessagesMayHaveBeenMissed() {
+		FakeBus bus = new FakeBus();
+		ClusterCache<String> cache = new ClusterCache<>("users", bus, new SimpleMeterRegistry(), 100, IDLE);
+		cache.get("u1", k -> "old");
+		cache.get("u2", k -> "old");
+
+		bus.listener.invalidateAll();
+
+		assertThat(cache.get("u1", k -> "new")).isEqualTo("new");
+		assertThat(cache.get("u2", k -> "new")).isEqualTo("new");
+	}
+
+	// Two replicas on one machine, each with its own connections, sharing a
+	// Postgres. Run with CONTINUUM_TEST_DB_URL (and _USER, _PASSWORD) set.
+	@Test
+	@EnabledIfEnvironmentVariable(named = "CONTINUUM_TEST_DB_URL", matches = ".+")
+	void writeOnOneReplicaEvictsTheOther() throws Exception {
+		Map<String, String> rows = new ConcurrentHashMap<>(Map.of("w1", "Roadmap"));
+		Replica a = new Replica();
+		Replica b = new Replica();
+		try {
+			a.awaitConnectedTo(b);
+			assertThat(b.cache.get("w1", rows::get)).isEqualTo("Roadmap");
+			assertThat(a.cache.get("w1", rows::get)).isEqualTo("Roadmap");
+
+			rows.put("w1", "Roadmap 2027");
+			a.cache.invalidate("w1");
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!"Roadmap 2027".equals(b.cache.get("w1", rows::get)) && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+			assertThat(b.cache.get("w1", rows::get)).isEqualTo("Roadmap 2027");
+			assertThat(a.cache.get("w1", rows::get)).isEqualTo("Roadmap 2027");
+		} finally {
+			a.bus.stop();
+			b.bus.stop();
+		}
+	}
+
+	@Test
+	@EnabledIfEnvironmentVariable(named = "CONTINUUM_TEST_DB_URL", matches = ".+")
+	void replicaIgnoresItsOwnMessages() throws Exception {
+		Replica a = new Replica();
+		Replica b = new Replica();
+		AtomicInteger seenByA = new AtomicInteger();
+		a.bus.subscribe("own", new CountingListener(seenByA, null));
+		CountDownLatch seenByB = new CountDownLatch(1);
+		b.bus.subscribe("own", new CountingListener(new AtomicInteger(), seenByB));
+		try {
+			a.awaitConnectedTo(b);
+			a.bus.publish("own", "k");
+
+			assertThat(seenByB.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(seenByA.get()).isZero();
+		} finally {
+			a.bus.stop();
+			b.bus.stop();
+		}
+	}
+
+	private static final class Replica {
+
+		final InvalidationBus bus;
+		final ClusterCache<String> cache;
+
+		Replica() {
+			DataSource dataSource = new DriverManagerDataSource(System.getenv("CONTINUUM_TEST_DB_URL"),
+					System.getenv("CONTINUUM_TEST_DB_USER"), System.getenv("CONTINUUM_TEST_DB_PASSWORD"));
+			SimpleMeterRegistry registry = new SimpleMeterRegistry();
+			bus = new InvalidationBus(dataSource, new DataSourceTransactionManager(dataSource), registry, true, true, Duration.ofMillis(200));
+			cache = new ClusterCache<>("workspaces", bus, registry, 100, IDLE);
+			bus.start();
+		}
+
+		// Listening starts in the background; publish probes until `other` hears one
+		void awaitConnectedTo(Replica other) throws InterruptedException {
+			CountDownLatch heard = new CountDownLatch(1);
+			other.bus.subscribe("probe", new CountingListener(new AtomicInteger(), heard));
+			CountDownLatch back = new CountDownLatch(1);
+			bus.subscribe("probe", new CountingListener(new AtomicInteger(), back));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while ((heard.getCount() > 0 || back.getCount() > 0) && System.nanoTime() < deadline) {
+				bus.publish("probe", "ping");
+				other.bus.publish("probe", "ping");
+				heard.await(100, TimeUnit.MILLISECONDS);
+				back.await(100, TimeUnit.MILLISECONDS);
+			}
+			assertThat(heard.getCount() + back.getCount()).isZero();
+		}
+	}
+
+	private record CountingListener(AtomicInteger count, CountDownLatch latch) implements InvalidationBus.Listener {
+
+		@Override
+		public void invalidate(String key, long version) {
+			count.incrementAndGet();
+			if (latch != null) {
+				latch.countDown();
+			}
+		}
+
+		@Override
+		public void invalidateAll() {
+		}
+	}
+
+	// Bus without a database: horizon is set by the test and messages are
+	// delivered by calling the subscribed listener
+	private static final class FakeBus extends InvalidationBus {
+
+		final AtomicLong horizon = new AtomicLong();
+		InvalidationBus.Listener listener;
+
+		FakeBus() {
+			super(mock(DataSource.class), mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), false, false, Duration.ofSeconds(1));
+		}
+
+		@Override
+		public void subscribe(String cache, InvalidationBus.Listener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public long horizon() {
+			return horizon.get();
+		}
+	}
+}
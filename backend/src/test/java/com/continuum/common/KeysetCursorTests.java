@@ -0,0 +1,69 @@
+package com.continuum.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class KeysetCursorTests {
+
+	@Test
+	void roundTripsPosition() {
+		KeysetCursor cursor = new KeysetCursor(LocalDateTime.of(2025, 3, 1, 12, 30, 15, 123456000), Ids.newId());
+		assertThat(KeysetCursor.decode(cursor.encode())).isEqualTo(cursor);
+
+		KeysetCursor idOnly = new KeysetCursor(null, Ids.newId());
+		assertThat(KeysetCursor.decode(idOnly.encode())).isEqualTo(idOnly);
+	}
+
+	@Test
+	void missingCursorIsFirstPageAndGarbageIsRejected() {
+		assertThat(KeysetCursor.decode(null)).isNull();
+		assertThat(KeysetCursor.decode(" ")).isNull();
+		assertThatThrownBy(() -> KeysetCursor.decode("not a cursor!")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> KeysetCursor.decode("bm9waXBl")).isInstanceOf(IllegalArgumentException.class);
+		// "|user-1": well-formed but the id isn't a UUID
+		assertThatThrownBy(() -> KeysetCursor.decode("fHVzZXItMQ")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void pageUsesExtraRowOnlyAsNextPageSignal() {
+		CursorPage<String> page = CursorPage.of(List.of("a", "b", "c"), 2,
+				s -> new KeysetCursor(null, uuid(s)), String::toUpperCase);
+		assertThat(page.items()).containsExactly("A", "B");
+		assertThat(KeysetCursor.decode(page.nextCursor()).id()).isEqualTo(uuid("b"));
+
+		CursorPage<String> last = CursorPage.of(List.of("c"), 2, s -> new KeysetCursor(null, uuid(s)),
+				String::toUpperCase);
+		assertThat(last.items()).containsExactly("C");
+		assertThat(last.nextCursor()).isNull();
+	}
+
+	@Test
+	void clampsPageSize() {
+		assertThat(KeysetCursor.pageSize(null)).isEqualTo(KeysetCursor.DEFAULT_LIMIT);
+		assertThat(KeysetCursor.pageSize(0)).isEqualTo(KeysetCursor.DEFAULT_LIMIT);
+		assertThat(KeysetCursor.pageSize(5000)).isEqualTo(KeysetCursor.MAX_LIMIT);
+		assertThat(KeysetCursor.pageSize(20)).isEqualTo(20);
+	}
+
+	@Test
+	void newIdsAreVersion7AndTimeOrdered() throws InterruptedException {
+		UUID first = Ids.newId();
+		Thread.sleep(2);
+		UUID second = Ids.newId();
+
+		assertThat(first.version()).isEqualTo(7);
+		assertThat(first.variant()).isEqualTo(2);
+		assertThat(Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits())).isNegative();
+		assertThat(Ids.parse(first.toString())).isEqualTo(first);
+		assertThat(Ids.parse("user-1")).isNull();
+	}
+
+	private static UUID uuid(String name) {
+		return UUID.nameUUIDFromBytes(name.getBytes());
+	}
+}
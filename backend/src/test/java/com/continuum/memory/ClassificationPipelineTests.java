@@ -0,0 +1,160 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.continuum.nlu.IntentClassifier;
+import com.continuum.nlu.TextEmbedder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ClassificationPipelineTests {
+
+	// Local stand-in for the NLU service: "I prefer ..." is a PREFERENCE, anything
+	// else a TASK. Records the size of every batch call.
+	static class StubClassifier implements IntentClassifier {
+		final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+		@Override
+		public String classifyIntent(String text) {
+			return text.startsWith("I prefer") ? "PREFERENCE" : "TASK";
+		}
+
+		@Override
+		public List<String> classifyIntents(List<String> texts) {
+			batchSizes.add(texts.size());
+			return texts.stream().map(this::classifyIntent).toList();
+		}
+	}
+
+	// Embeds every text as its length; records the size of every batch call
+	static class StubEmbedder implements TextEmbedder {
+		final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+		@Override
+		public float[] embed(String text) {
+			return new float[] { text.length() };
+		}
+
+		@Override
+		public List<float[]> embedAll(List<String> texts) {
+			batchSizes.add(texts.size());
+			return TextEmbedder.super.embedAll(texts);
+		}
+	}
+
+	private final StubEmbedder embedder = new StubEmbedder();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private ClassificationPipeline pipeline;
+
+	@AfterEach
+	void tearDown() {
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+	}
+
+	@Test
+	void classifiesQueuedMemoriesInBoundedBatches() throws InterruptedException {
+		StubClassifier classifier = new StubClassifier();
+		pipeline = new ClassificationPipeline(classifier, embedder, registry, 100, 4, 200);
+
+		int jobs = 10;
+		Map<UUID, ClassificationPipeline.Result> results = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(jobs);
+		for (int i = 0; i < jobs; i++) {
+			assertThat(pipeline.submit(id(i), i % 2 == 0 ? "I prefer tabs" : "Fix the login bug", true, true))
+					.isTrue();
+		}
+		pipeline.start(result -> {
+			results.put(result.memoryId(), result);
+			done.countDown();
+		});
+
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(results).hasSize(jobs);
+		assertThat(results.get(id(0)).type()).isEqualTo("PREFERENCE");
+		assertThat(results.get(id(1)).type()).isEqualTo("TASK");
+		assertThat(results.get(id(0)).embedding()).containsExactly(13f);
+		assertThat(classifier.batchSizes).allSatisfy(size -> assertThat(size).isLessThanOrEqualTo(4));
+		assertThat(classifier.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(jobs);
+		assertThat(embedder.batchSizes).isEqualTo(classifier.batchSizes);
+		assertThat(registry.get("continuum.nlu.pipeline.batch.size").summary().count())
+				.isEqualTo(classifier.batchSizes.size());
+		assertThat(registry.get("continuum.nlu.pipeline.lag").timer().count()).isEqualTo(jobs);
+	}
+
+	@Test
+	void sendsOnlyTheRequestedWorkToEachService() throws InterruptedException {
+		StubClassifier classifier = new StubClassifier();
+		pipeline = new ClassificationPipeline(classifier, embedder, registry, 100, 4, 200);
+
+		Map<UUID, ClassificationPipeline.Result> results = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(2);
+		pipeline.submit(id(1), "I prefer tabs", false, true);
+		pipeline.submit(id(2), "Fix the login bug", true, false);
+		pipeline.start(result -> {
+			results.put(result.memoryId(), result);
+			done.countDown();
+		});
+
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(results.get(id(1)).classified()).isFalse();
+		assertThat(results.get(id(1)).type()).isNull();
+		assertThat(results.get(id(1)).embedding()).containsExactly(13f);
+		assertThat(results.get(id(2)).type()).isEqualTo("TASK");
+		assertThat(results.get(id(2)).embedding()).isNull();
+		assertThat(classifier.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(1);
+		assertThat(embedder.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(1);
+	}
+
+	@Test
+	void reportsNullTypeForEveryJobWhenBatchCallFails() throws InterruptedException {
+		IntentClassifier failing = new StubClassifier() {
+			@Override
+			public List<String> classifyIntents(List<String> texts) {
+				throw new IllegalStateException("NLU down");
+			}
+		};
+		pipeline = new ClassificationPipeline(failing, embedder, registry, 100, 4, 10);
+
+		int jobs = 3;
+		Map<UUID, ClassificationPipeline.Result> results = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(jobs);
+		for (int i = 0; i < jobs; i++) {
+			pipeline.submit(id(i), "Fix the login bug", true, true);
+		}
+		pipeline.start(result -> {
+			results.put(result.memoryId(), result);
+			done.countDown();
+		});
+
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(results).hasSize(jobs);
+		assertThat(results.values()).allSatisfy(result -> {
+			assertThat(result.type()).isNull();
+			// The embedding call is independent of the failed classification
+			assertThat(result.embedding()).isNotNull();
+		});
+	}
+
+	@Test
+	void rejectsSubmissionsWhenQueueIsFull() {
+		pipeline = new ClassificationPipeline(new StubClassifier(), embedder, registry, 2, 4, 10);
+
+		assertThat(pipeline.submit(id(1), "a", true, true)).isTrue();
+		assertThat(pipeline.submit(id(2), "b", true, true)).isTrue();
+		assertThat(pipeline.submit(id(3), "c", true, true)).isFalse();
+		assertThat(registry.get("continuum.nlu.pipeline.queue.depth").gauge().value()).isEqualTo(2.0);
+		assertThat(registry.get("continuum.nlu.pipeline.rejected").counter().count()).isEqualTo(1.0);
+	}
+
+	private static UUID id(int n) {
+		return new UUID(0, n);
+	}
+}
@@ -0,0 +1,33 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ContentCodecTests {
+
+	@Test
+	void shortTextIsStoredRaw() {
+		byte[] stored = ContentCodec.encode("Use tabs");
+
+		assertThat(stored[0]).isEqualTo(ContentCodec.RAW);
+		assertThat(stored.length).isEqualTo(9);
+		assertThat(ContentCodec.decode(stored)).isEqualTo("Use tabs");
+	}
+
+	@Test
+	void repetitiveTextIsDeflatedAndRoundTrips() {
+		String text = "The backend runs on Spring Boot with Postgres. ".repeat(40) + "Ünïcödé ✓";
+
+		byte[] stored = ContentCodec.encode(text);
+
+		assertThat(stored[0]).isEqualTo(ContentCodec.DEFLATE);
+		assertThat(stored.length).isLessThan(text.length() / 4);
+		assertThat(ContentCodec.decode(stored)).isEqualTo(text);
+	}
+
+	@Test
+	void emptyTextRoundTrips() {
+		assertThat(ContentCodec.decode(ContentCodec.encode(""))).isEqualTo("");
+	}
+}
@@ -0,0 +1,80 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class ContextFilterTests {
+
+	@Test
+	void filtersComposeBeforeScoring() {
+		UserMemoryIndex index = new UserMemoryIndex();
+		index.upsert(memory(1, "Never use Lombok in java services", MemoryType.CONSTRAINT, 5, "Java", "backend"));
+		index.upsert(memory(2, "Target java 17 for the backend", MemoryType.CONSTRAINT, 3, "java"));
+		index.upsert(memory(3, "Prefer java records for DTOs", MemoryType.PREFERENCE, 4, "java"));
+		index.upsert(memory(4, "No default exports in typescript", MemoryType.CONSTRAINT, 4, "typescript"));
+
+		assertThat(contents(index, ContextFilter.of(List.of("constraint"), List.of("java"), null, null, null)))
+				.containsExactlyInAnyOrder("Never use Lombok in java services", "Target java 17 for the backend");
+		assertThat(contents(index, ContextFilter.of(null, null, List.of("java", "BACKEND"), null, null)))
+				.containsExactly("Never use Lombok in java services");
+		assertThat(contents(index, ContextFilter.of(null, List.of("java", "typescript"), null, 4, null)))
+				.containsExactlyInAnyOrder("Never use Lombok in java services", "Prefer java records for DTOs",
+						"No default exports in typescript");
+		assertThat(contents(index, ContextFilter.of(null, null, null, null, LocalDateTime.of(2025, 1, 1, 0, 2))))
+				.containsExactlyInAnyOrder("Prefer java records for DTOs", "No default exports in typescript");
+
+		// A retagged memory moves between bitmaps
+		index.upsert(memory(2, "Target java 17 for the backend", MemoryType.CONSTRAINT, 3, "kotlin"));
+		assertThat(contents(index, ContextFilter.of(List.of("CONSTRAINT"), List.of("java"), null, null, null)))
+				.containsExactly("Never use Lombok in java services");
+		index.remove(new UUID(0, 1));
+		assertThat(contents(index, ContextFilter.of(List.of("CONSTRAINT"), List.of("java"), null, null, null)))
+				.isEmpty();
+	}
+
+	@Test
+	void rejectsUnknownTypesAndImportance() {
+		assertThatThrownBy(() -> ContextFilter.of(List.of("CONSTRAINTS"), null, null, null, null))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> ContextFilter.of(null, null, null, 6, null))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThat(ContextFilter.of(List.of(" "), List.of(), null, null, null)).isSameAs(ContextFilter.NONE);
+	}
+
+	@Test
+	void passesItsCriteriaToTheDatabaseQueryAsLists() {
+		ContextFilter filter = ContextFilter.of(List.of("goal", "CONSTRAINT"), List.of(" Java ", "backend"),
+				List.of("API"), 2, null);
+
+		assertThat(filter.typeCodes().split(",")).containsExactlyInAnyOrder(
+				Short.toString(MemoryType.GOAL.code), Short.toString(MemoryType.CONSTRAINT.code));
+		assertThat(filter.anyTagList().split(",")).containsExactlyInAnyOrder("java", "backend");
+		assertThat(filter.allTagList()).isEqualTo("api");
+		assertThat(ContextFilter.NONE.typeCodes()).isNull();
+		assertThat(ContextFilter.NONE.anyTagList()).isNull();
+	}
+
+	// Everything the filter lets through, whatever the query matches
+	private static List<String> contents(UserMemoryIndex index, ContextFilter filter) {
+		return index.searchSnapshots("java", null, null, filter, 10, 0, count -> { }).stream()
+				.map(memory -> memory.content)
+				.toList();
+	}
+
+	private static Memory memory(int n, String content, MemoryType type, int importance, String... tags) {
+		Memory memory = new Memory();
+		memory.id = new UUID(0, n);
+		memory.userId = "u1";
+		memory.content = content;
+		memory.type = type;
+		memory.importance = importance;
+		memory.tags = tags;
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(n);
+		return memory;
+	}
+}
@@ -0,0 +1,165 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.continuum.nlu.TextEmbedder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class MemoryCompactorTests {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 1, 12, 0);
+
+	private final MemoryRepository repository = mock(MemoryRepository.class);
+	private final CompactionCheckpointRepository checkpoints = mock(CompactionCheckpointRepository.class);
+	private final TextEmbedder embedder = mock(TextEmbedder.class);
+	private final MemoryIndex index = mock(MemoryIndex.class);
+	private final MemoryOutbox outbox = mock(MemoryOutbox.class);
+
+	@Test
+	void chainsCollapseToTheirLastSuccessor() {
+		UUID a = id(1), b = id(2), c = id(3), d = id(4), x = id(5), y = id(6);
+		// a -> b -> c -> d, and x -> y where y is no longer stored
+		Map<UUID, UUID> successors = Map.of(a, b, b, c, c, d, x, y);
+
+		Map<UUID, UUID> ends = MemoryCompactor.chainEnds(successors);
+
+		assertThat(ends).containsOnly(Map.entry(a, d), Map.entry(b, d), Map.entry(c, d), Map.entry(x, y));
+	}
+
+	@Test
+	void cycleDoesNotHangCollapsing() {
+		UUID a = id(1), b = id(2);
+
+		assertThat(MemoryCompactor.chainEnds(Map.of(a, b, b, a))).containsOnlyKeys(a, b);
+	}
+
+	@Test
+	void clustersOnOneTopicFoldIntoTheirMostImportantMember() {
+		Memory main = memory(1, MemoryType.FACT, "Stack", 4, 10, "The backend runs on Spring Boot");
+		Memory older = memory(2, MemoryType.FACT, "stack", 2, 30, "Postgres stores the memories");
+		Memory newer = memory(3, MemoryType.FACT, "stack ", null, 20, "Caffeine caches user indexes");
+		Memory repeat = memory(4, MemoryType.FACT, "stack", 1, 5, "the backend runs on spring boot.");
+		// Different type, too few on its topic, or a preference: left alone
+		Memory task = memory(5, MemoryType.TASK, "stack", 3, 1, "Upgrade Spring Boot");
+		Memory tone1 = memory(6, MemoryType.FACT, "tone", 3, 1, "Replies are short");
+		Memory tone2 = memory(7, MemoryType.FACT, "tone", 3, 2, "Replies skip greetings");
+		Memory pref1 = memory(8, MemoryType.PREFERENCE, "lang", 3, 1, "I prefer Java");
+		Memory pref2 = memory(9, MemoryType.PREFERENCE, "lang", 3, 2, "I prefer Kotlin");
+		Memory pref3 = memory(10, MemoryType.PREFERENCE, "lang", 3, 3, "I prefer Go");
+
+		List<MemoryCompactor.Consolidation> plans = MemoryCompactor.planConsolidations(
+				new ArrayList<>(List.of(older, task, main, tone1, newer, pref1, repeat, tone2, pref2, pref3)), 3);
+
+		assertThat(plans).hasSize(1);
+		MemoryCompactor.Consolidation plan = plans.get(0);
+		assertThat(plan.representative()).isSameAs(main);
+		// Newest first; the repeat folds in without repeating its text
+		assertThat(plan.members()).containsExactly(repeat, newer, older);
+		assertThat(plan.content()).isEqualTo("The backend runs on Spring Boot\n"
+				+ "Caffeine caches user indexes\n"
+				+ "Postgres stores the memories");
+	}
+
+	@Test
+	void membersThatDoNotFitStayOutOfTheRepresentative() {
+		Memory main = memory(1, MemoryType.GOAL, "launch", 5, 1, "x".repeat(3000));
+		Memory small = memory(2, MemoryType.GOAL, "launch", 3, 2, "Ship the extension");
+		Memory large = memory(3, MemoryType.GOAL, "launch", 3, 3, "y".repeat(1500));
+
+		List<MemoryCompactor.Consolidation> plans = MemoryCompactor.planConsolidations(
+				new ArrayList<>(List.of(main, small, large)), 3);
+
+		assertThat(plans).hasSize(1);
+		assertThat(plans.get(0).members()).containsExactly(small);
+		assertThat(plans.get(0).content()).hasSizeLessThanOrEqualTo(4000).endsWith("\nShip the extension");
+	}
+
+	@Test
+	void runEmbedsMemoriesStoredWithoutAnEmbedding() {
+		Memory a = memory(1, MemoryType.FACT, null, null, 1, "Postgres stores the memories");
+		Memory b = memory(2, MemoryType.FACT, null, null, 1, "Caffeine caches user indexes");
+		Memory c = memory(3, MemoryType.FACT, null, null, 1, "Replies are short");
+		onlyUser("u1");
+		when(repository.findUnembeddedAfter(eq("u1"), eq(new UUID(0, 0)), any())).thenReturn(List.of(a, b));
+		when(repository.findUnembeddedAfter(eq("u1"), eq(b.id), any())).thenReturn(List.of(c));
+		when(embedder.embedAll(List.of(a.content, b.content))).thenReturn(Arrays.asList(new float[] { 1f }, null));
+		when(embedder.embedAll(List.of(c.content))).thenReturn(List.of(new float[] { 2f }));
+		when(repository.fillEmbedding(eq(a.id), eq(a.content), any())).thenReturn(1);
+		// Edited since it was read
+		when(repository.fillEmbedding(eq(c.id), eq(c.content), any())).thenReturn(0);
+
+		MemoryCompactor.Report report = compactor(2).compact();
+
+		assertThat(report.embedded()).isEqualTo(1);
+		assertThat(Embeddings.decode(a.embedding)).containsExactly(1f);
+		verify(repository, never()).fillEmbedding(eq(b.id), any(), any());
+		verify(index).onSaved(a);
+		verify(index, never()).onSaved(c);
+		verify(outbox).record(MemoryChange.Kind.UPDATED, "u1", List.of(a.id), null);
+	}
+
+	@Test
+	void embeddingStopsForTheRunWhenTheServiceReturnsNothing() {
+		onlyUser("u1");
+		when(repository.findUnembeddedAfter(eq("u1"), any(), any())).thenReturn(List.of(
+				memory(1, MemoryType.FACT, null, null, 1, "Postgres stores the memories"),
+				memory(2, MemoryType.FACT, null, null, 1, "Caffeine caches user indexes")));
+		when(embedder.embedAll(any())).thenReturn(Arrays.asList(null, null));
+
+		assertThat(compactor(2).compact().embedded()).isZero();
+		verify(repository, times(1)).findUnembeddedAfter(eq("u1"), any(), any());
+		verify(repository, never()).fillEmbedding(any(), any(), any());
+	}
+
+	// A run that holds the lease and visits only `userId`, which has nothing to
+	// collapse, consolidate or archive
+	private void onlyUser(String userId) {
+		CompactionCheckpoint checkpoint = new CompactionCheckpoint();
+		checkpoint.name = "memories";
+		when(checkpoints.existsById("memories")).thenReturn(true);
+		when(checkpoints.claimLease(eq("memories"), anyString(), any(), any())).thenReturn(1);
+		when(checkpoints.findById("memories")).thenReturn(Optional.of(checkpoint));
+		when(repository.findUserIdsAfter(isNull(), any())).thenReturn(List.of(userId));
+	}
+
+	private MemoryCompactor compactor(int batchSize) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		return new MemoryCompactor(repository, mock(ArchivedMemoryRepository.class), checkpoints, embedder, index,
+				outbox, transactionTemplate, new SimpleMeterRegistry(), Duration.ofDays(7), Duration.ofDays(90),
+				Duration.ofDays(180), 3, 10, batchSize, Duration.ZERO, Duration.ofMinutes(5));
+	}
+
+	private static UUID id(int n) {
+		return new UUID(0, n);
+	}
+
+	private static Memory memory(int n, MemoryType type, String topic, Integer importance, int daysOld,
+			String content) {
+		Memory memory = new Memory();
+		memory.id = id(n);
+		memory.userId = "u1";
+		memory.type = type;
+		memory.topic = topic;
+		memory.importance = importance;
+		memory.content = content;
+		memory.active = true;
+		memory.createdAt = NOW.minusDays(daysOld);
+		memory.updatedAt = memory.createdAt;
+		return memory;
+	}
+}
@@ -0,0 +1,118 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validation;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+class MemoryControllerTests {
+
+	private final MemoryService service = mock(MemoryService.class);
+	private final MemoryController controller = new MemoryController(service,
+			Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), 4);
+
+	@Test
+	void batchReportsInvalidItemsByIndexAndStoresTheRest() {
+		MemoryDto.MemoryResponse stored = new MemoryDto.MemoryResponse();
+		stored.id = "m1";
+		when(service.ingestBatch(any())).thenReturn(List.of(stored));
+
+		MemoryDto.BatchIngestRequest request = new MemoryDto.BatchIngestRequest();
+		request.messages = Arrays.asList(message("Use tabs"), message(" "), message("x".repeat(4001)), null);
+
+		ResponseEntity<MemoryDto.BatchIngestResponse> response = controller.ingestMessages(request);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		MemoryDto.BatchIngestResponse body = response.getBody();
+		assertThat(body.accepted).isEqualTo(1);
+		assertThat(body.rejected).isEqualTo(3);
+		assertThat(body.results).extracting(r -> r.index).containsExactly(0, 1, 2, 3);
+		assertThat(body.results.get(0).id).isEqualTo("m1");
+		assertThat(body.results.get(1).error).isEqualTo("text: must not be blank");
+		assertThat(body.results.get(2).error).isEqualTo("text: size must be between 0 and 4000");
+		assertThat(body.results.get(3).error).isEqualTo("message: must not be null");
+		// Only the valid item reaches the service
+		verify(service).ingestBatch(argThat(valid -> valid.size() == 1 && valid.get(0).content.equals("Use tabs")));
+	}
+
+	@Test
+	void batchReportsRejectedDuplicatesAtTheirIndex() {
+		MemoryDto.MemoryResponse stored = new MemoryDto.MemoryResponse();
+		stored.id = "m1";
+		MemoryDto.MemoryResponse rejected = new MemoryDto.MemoryResponse();
+		rejected.duplicateOfId = "m1";
+		when(service.ingestBatch(any())).thenReturn(List.of(stored, rejected));
+
+		MemoryDto.BatchIngestRequest request = new MemoryDto.BatchIngestRequest();
+		request.messages = List.of(message("Use tabs"), message("Use tabs"));
+
+		MemoryDto.BatchIngestResponse body = controller.ingestMessages(request).getBody();
+
+		assertThat(body.accepted).isEqualTo(1);
+		assertThat(body.rejected).isEqualTo(1);
+		assertThat(body.results.get(1).id).isNull();
+		assertThat(body.results.get(1).error).isEqualTo("duplicate of m1");
+	}
+
+	@Test
+	void batchOverTheLimitIsRejectedWhole() {
+		MemoryDto.BatchIngestRequest request = new MemoryDto.BatchIngestRequest();
+		request.messages = List.of(message("a"), message("b"), message("c"), message("d"), message("e"));
+
+		assertThat(controller.ingestMessages(request).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+		verify(service, never()).ingestBatch(any());
+	}
+
+	@Test
+	void duplicatePoliciesAnswerWithTheirOwnStatus() {
+		MemoryDto.MemoryResponse merged = new MemoryDto.MemoryResponse();
+		merged.id = "m1";
+		merged.merged = true;
+		MemoryDto.MemoryResponse rejected = new MemoryDto.MemoryResponse();
+		rejected.duplicateOfId = "m1";
+		MemoryDto.MemoryResponse linked = new MemoryDto.MemoryResponse();
+		linked.id = "m2";
+		linked.duplicateOfId = "m1";
+		when(service.ingestMessage(any())).thenReturn(merged, rejected, linked);
+
+		// Merged into an existing row: nothing was created
+		assertThat(controller.ingestMessage(message("Use tabs")).getStatusCode()).isEqualTo(HttpStatus.OK);
+		ResponseEntity<MemoryDto.MemoryResponse> conflict = controller.ingestMessage(message("Use tabs"));
+		assertThat(conflict.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(conflict.getBody().duplicateOfId).isEqualTo("m1");
+		assertThat(controller.ingestMessage(message("Use tabs")).getStatusCode()).isEqualTo(HttpStatus.CREATED);
+	}
+
+	@Test
+	void createAnswersConflictForARejectedDuplicate() {
+		MemoryDto.MemoryResponse rejected = new MemoryDto.MemoryResponse();
+		rejected.duplicateOfId = "m1";
+		when(service.createMemory(any())).thenReturn(rejected);
+
+		MemoryDto.CreateMemoryRequest request = new MemoryDto.CreateMemoryRequest();
+		request.userId = "u1";
+		request.source = "test";
+		request.content = "Use tabs";
+
+		assertThat(controller.createMemory(request).getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+	}
+
+	private static MemoryDto.IngestMessageRequest message(String text) {
+		MemoryDto.IngestMessageRequest message = new MemoryDto.IngestMessageRequest();
+		message.userId = "u1";
+		message.source = "test";
+		message.text = text;
+		return message;
+	}
+}
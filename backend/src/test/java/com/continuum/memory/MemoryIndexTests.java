@@ -0,0 +1,85 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.continuum.common.InvalidationBus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class MemoryIndexTests {
+
+	private final MemoryRepository repository = mock(MemoryRepository.class);
+	private final InvalidationBus bus = new InvalidationBus(mock(DataSource.class), mock(PlatformTransactionManager.class),
+			new SimpleMeterRegistry(), false, false, Duration.ofSeconds(1));
+	private final MemoryIndex index = new MemoryIndex(repository, bus, RankingModel.RELEVANCE_ONLY,
+			new SimpleMeterRegistry(), 0.5, true, 2, 100, Duration.ofMinutes(30));
+
+	@Test
+	void appliesChangesFromOtherReplicasToLoadedUsers() {
+		Memory kept = memory(1, "u1");
+		Memory gone = memory(2, "u1");
+		when(repository.findByUserIdAndActiveTrueOrderByCreatedAtAsc("u1")).thenReturn(List.of(kept, gone));
+		assertThat(ids(index.newestOfTypes("u1", null, EnumSet.of(MemoryType.FACT), 10))).containsExactly(2L, 1L);
+
+		Memory added = memory(3, "u1");
+		when(repository.findAllById(any())).thenReturn(List.of(added));
+		index.onChanges(List.of(change(MemoryChange.Kind.CREATED, added), change(MemoryChange.Kind.DELETED, gone)));
+
+		assertThat(ids(index.newestOfTypes("u1", null, EnumSet.of(MemoryType.FACT), 10))).containsExactly(3L, 1L);
+	}
+
+	@Test
+	void ignoresChangesForUsersNotLoaded() {
+		index.onChanges(List.of(change(MemoryChange.Kind.CREATED, memory(1, "u2"))));
+
+		verify(repository, never()).findAllById(any());
+	}
+
+	@Test
+	void warmUpLoadsOnlyTheMostRecentlyActiveUsers() {
+		when(repository.findRecentlyActiveUserIds(PageRequest.of(0, 2))).thenReturn(List.of("u2", "u1"));
+
+		index.warmUp();
+
+		verify(repository).findByUserIdAndActiveTrueOrderByCreatedAtAsc("u2");
+		verify(repository).findByUserIdAndActiveTrueOrderByCreatedAtAsc("u1");
+		verify(repository).findRecentlyActiveUserIds(PageRequest.of(0, 2));
+	}
+
+	private static List<Long> ids(List<Memory> memories) {
+		return memories.stream().map(m -> m.id.getLeastSignificantBits()).toList();
+	}
+
+	private static MemoryChange change(MemoryChange.Kind kind, Memory memory) {
+		MemoryChange change = new MemoryChange();
+		change.kind = kind;
+		change.memoryId = memory.id;
+		change.userId = memory.userId;
+		return change;
+	}
+
+	private static Memory memory(int n, String userId) {
+		Memory memory = new Memory();
+		memory.id = new UUID(0, n);
+		memory.userId = userId;
+		memory.content = "note " + n;
+		memory.type = MemoryType.FACT;
+		memory.active = true;
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(n);
+		memory.updatedAt = memory.createdAt;
+		return memory;
+	}
+}
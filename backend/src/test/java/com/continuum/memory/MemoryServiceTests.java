@@ -0,0 +1,303 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.continuum.common.InvalidationBus;
+import com.continuum.nlu.IntentClassifier;
+import com.continuum.nlu.TextEmbedder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.persistence.EntityManager;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class MemoryServiceTests {
+
+	private static final String PROMPT = "You are an AI assistant that uses a persistent memory layer. "
+			+ "===== CONTEXT START ===== The user prefers concise answers. The user works with Java 17 and "
+			+ "Spring Boot. ===== CONTEXT END ===== Task: refactor the auth module to the new session API and "
+			+ "write tests";
+	private static final String EDITED_PROMPT = PROMPT.replace("write tests", "add tests");
+
+	private final MemoryRepository repository = mock(MemoryRepository.class);
+	private final ClassificationPipeline pipeline = mock(ClassificationPipeline.class);
+	private final MemoryIndex index = mock(MemoryIndex.class);
+	private final EntityManager entityManager = mock(EntityManager.class);
+
+	@BeforeEach
+	void setUp() {
+		when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(pipeline.submit(any(), anyString(), anyBoolean(), anyBoolean())).thenReturn(true);
+	}
+
+	@Test
+	void batchMergesNearDuplicatesWithinTheBatch() {
+		List<MemoryDto.MemoryResponse> responses = service("merge").ingestBatch(List.of(
+				message("u1", "Use tabs for indentation", 2),
+				message("u1", "use TABS for indentation!", 4),
+				message("u2", "Use tabs for indentation", null)));
+
+		verify(repository, times(2)).save(any());
+		assertThat(responses.get(1).id).isEqualTo(responses.get(0).id);
+		assertThat(responses.get(1).importance).isEqualTo(4);
+		// Another user's copy is not a duplicate
+		assertThat(responses.get(2).id).isNotEqualTo(responses.get(0).id);
+	}
+
+	@Test
+	void batchRejectsOrLinksNearDuplicatesWithinTheBatch() {
+		List<MemoryDto.MemoryResponse> rejected = service("reject").ingestBatch(List.of(
+				message("u1", "Use tabs for indentation", null),
+				message("u1", "Use tabs for indentation", null)));
+
+		assertThat(rejected.get(1).id).isNull();
+		assertThat(rejected.get(1).duplicateOfId).isEqualTo(rejected.get(0).id);
+
+		List<MemoryDto.MemoryResponse> linked = service("link").ingestBatch(List.of(
+				message("u1", "Use tabs for indentation", null),
+				message("u1", "Use tabs for indentation", null)));
+
+		assertThat(linked.get(1).id).isNotNull().isNotEqualTo(linked.get(0).id);
+		assertThat(linked.get(1).duplicateOfId).isEqualTo(linked.get(0).id);
+	}
+
+	@Test
+	void batchMergesIntoAStoredOriginal() {
+		Memory stored = stored("u1", "Use tabs for indentation", 3);
+		when(repository.findFirstByUserIdAndWorkspaceIdAndFingerprintAndActiveTrue("u1", null, stored.fingerprint))
+				.thenReturn(Optional.of(stored));
+		when(repository.findById(stored.id)).thenReturn(Optional.of(stored));
+
+		List<MemoryDto.MemoryResponse> responses = service("merge").ingestBatch(List.of(
+				message("u1", "Use tabs for indentation", 5)));
+
+		assertThat(responses.get(0).id).isEqualTo(stored.id.toString());
+		assertThat(responses.get(0).merged).isTrue();
+		assertThat(stored.importance).isEqualTo(5);
+		verify(repository, times(1)).save(stored);
+	}
+
+	@Test
+	void lastPreferenceInASlotSupersedesEarlierOnesAndStoredOnes() {
+		UUID older = new UUID(0, 99);
+		when(repository.findActiveIdsForSupersession(eq("u1"), eq(MemoryType.PREFERENCE), eq("tone"), isNull(),
+				any())).thenReturn(List.of(older));
+
+		List<MemoryDto.MemoryResponse> responses = service("off").ingestBatch(List.of(
+				preference("u1", "tone", "Be formal"),
+				preference("u1", "language", "Answer in English"),
+				preference("u1", "tone", "Be casual"),
+				preference("u1", "tone", "Be terse")));
+
+		UUID first = UUID.fromString(responses.get(0).id);
+		UUID third = UUID.fromString(responses.get(2).id);
+		UUID winner = UUID.fromString(responses.get(3).id);
+		verify(repository).supersede(argThat(ids -> ids.size() == 3 && ids.containsAll(List.of(older, first, third))),
+				eq(winner), any(LocalDateTime.class));
+		// The only preference in its slot supersedes nothing
+		verify(repository, times(1)).supersede(any(), any(), any());
+		verify(index).onDeleted("u1", older);
+		assertThat(responses.get(0).active).isFalse();
+		assertThat(responses.get(2).active).isFalse();
+	}
+
+	@Test
+	void largeBatchIsFlushedAndClearedEveryFiveHundredRows() {
+		List<MemoryDto.CreateMemoryRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 1001; i++) {
+			requests.add(message("u1", "note " + i, null));
+		}
+
+		service("off").ingestBatch(requests);
+
+		verify(repository, times(1001)).save(any());
+		// At 500 and 1000, then once for the remainder
+		verify(repository, times(3)).flush();
+		verify(entityManager, times(2)).clear();
+	}
+
+	@Test
+	void queuesEveryStoredMessageForEmbeddingAndUntypedOnesForClassification() {
+		MemoryDto.CreateMemoryRequest typed = message("u1", "Ship v2 by March", null);
+		typed.type = "GOAL";
+
+		List<MemoryDto.MemoryResponse> responses = service("off").ingestBatch(List.of(
+				message("u1", "Use tabs for indentation", null), typed));
+
+		verify(pipeline).submit(UUID.fromString(responses.get(0).id), "Use tabs for indentation", true, true);
+		verify(pipeline).submit(UUID.fromString(responses.get(1).id), "Ship v2 by March", false, true);
+		assertThat(responses.get(1).type).isEqualTo("GOAL");
+		verify(repository, never()).supersede(any(), any(), any());
+	}
+
+	@Test
+	void filteredContextQueryRanksOnlyMatchingMemories() {
+		Memory rule = stored(1, "u1", "Never use Lombok in java services", MemoryType.CONSTRAINT, 5, "java");
+		Memory style = stored(2, "u1", "Prefer java records for DTOs", MemoryType.PREFERENCE, 4, "java");
+		Memory other = stored(3, "u1", "No default exports in typescript", MemoryType.CONSTRAINT, 4, "typescript");
+		when(repository.findByUserIdAndActiveTrueOrderByCreatedAtAsc("u1")).thenReturn(List.of(rule, style, other));
+		MemoryService service = indexedService("off");
+
+		assertThat(service.queryContext("u1", null, "java services", 10)).hasSize(3);
+		List<MemoryDto.MemoryResponse> filtered = service.queryContext("u1", null,
+				ContextFilter.of(List.of("constraint"), List.of("java"), null, null, null), "java services", 10);
+
+		assertThat(filtered).extracting(r -> r.id).containsExactly(rule.id.toString());
+	}
+
+	@Test
+	void filteredContextQueryWithoutTheIndexFiltersInTheDatabase() {
+		Memory rule = stored(1, "u1", "Never use Lombok in java services", MemoryType.CONSTRAINT, 5, "java");
+		ContextFilter filter = ContextFilter.of(List.of("CONSTRAINT"), List.of("java"), null, 3, null);
+		String typeCodes = Short.toString(MemoryType.CONSTRAINT.code);
+		when(repository.searchActiveByKeywords("u1", null, "java | services", typeCodes, "java", null, 3, null, 2))
+				.thenReturn(List.of(rule));
+
+		List<MemoryDto.MemoryResponse> results = service("off").queryContext("u1", " ", filter, "java services", 2);
+
+		assertThat(results).extracting(r -> r.id).containsExactly(rule.id.toString());
+		// The top-up with recent memories is filtered the same way
+		verify(repository).findRecentActive("u1", null, typeCodes, "java", null, 3, null, 2);
+	}
+
+	@Test
+	void nearDuplicateIsMergedIntoTheStoredOriginal() {
+		Memory original = storedPrompt();
+		when(repository.findById(original.id)).thenReturn(Optional.of(original));
+
+		MemoryDto.MemoryResponse response = indexedService("merge").createMemory(message("u1", EDITED_PROMPT, 5));
+
+		assertThat(response.merged).isTrue();
+		assertThat(response.id).isEqualTo(original.id.toString());
+		assertThat(response.importance).isEqualTo(5);
+		// The original is refreshed; nothing new is stored or classified
+		verify(repository, times(1)).save(original);
+		verify(pipeline, never()).submit(any(), anyString(), anyBoolean(), anyBoolean());
+	}
+
+	@Test
+	void nearDuplicateIsRejectedWithoutBeingStored() {
+		Memory original = storedPrompt();
+
+		MemoryDto.MemoryResponse response = indexedService("reject").ingestMessage(message("u1", EDITED_PROMPT, null));
+
+		assertThat(response.id).isNull();
+		assertThat(response.duplicateOfId).isEqualTo(original.id.toString());
+		verify(repository, never()).save(any());
+	}
+
+	@Test
+	void nearDuplicateIsStoredAndLinkedToItsOriginal() {
+		Memory original = storedPrompt();
+
+		MemoryDto.MemoryResponse response = indexedService("link").ingestMessage(message("u1", EDITED_PROMPT, null));
+
+		assertThat(response.id).isNotNull().isNotEqualTo(original.id.toString());
+		assertThat(response.merged).isFalse();
+		assertThat(response.duplicateOfId).isEqualTo(original.id.toString());
+		verify(repository).save(argThat(memory -> original.id.equals(memory.duplicateOfId)));
+	}
+
+	@Test
+	void differentTextOrAnotherWorkspaceIsNotADuplicate() {
+		storedPrompt();
+		MemoryService service = indexedService("reject");
+
+		MemoryDto.CreateMemoryRequest elsewhere = message("u1", EDITED_PROMPT, null);
+		elsewhere.workspaceId = "w2";
+		assertThat(service.ingestMessage(elsewhere).id).isNotNull();
+		assertThat(service.ingestMessage(message("u1", "My goal is to launch the SaaS beta by March", null)).id)
+				.isNotNull();
+		verify(repository, times(2)).save(any());
+	}
+
+	private MemoryService service(String duplicatePolicy) {
+		return service(duplicatePolicy, index, false);
+	}
+
+	// Backed by a real MemoryIndex over the mocked repository
+	private MemoryService indexedService(String duplicatePolicy) {
+		InvalidationBus bus = new InvalidationBus(mock(DataSource.class), mock(PlatformTransactionManager.class),
+				new SimpleMeterRegistry(), false, false, Duration.ofSeconds(1));
+		MemoryIndex memoryIndex = new MemoryIndex(repository, bus, RankingModel.RELEVANCE_ONLY,
+				new SimpleMeterRegistry(), 0.5, false, 100, 100, Duration.ofMinutes(30));
+		return service(duplicatePolicy, memoryIndex, true);
+	}
+
+	private MemoryService service(String duplicatePolicy, MemoryIndex memoryIndex, boolean useIndex) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		return new MemoryService(repository, mock(ArchivedMemoryRepository.class), mock(IntentClassifier.class),
+				pipeline, mock(TextEmbedder.class), memoryIndex, mock(MemoryOutbox.class), transactionTemplate,
+				entityManager, new SimpleMeterRegistry(), ObservationRegistry.NOOP, useIndex, false, duplicatePolicy,
+				3, 100, 100, Duration.ofMinutes(1));
+	}
+
+	// A long stored memory, and an edit of it close enough to be its near-duplicate
+	private Memory storedPrompt() {
+		Memory original = stored("u1", PROMPT, 2);
+		when(repository.findByUserIdAndActiveTrueOrderByCreatedAtAsc("u1")).thenReturn(List.of(original));
+		return original;
+	}
+
+	private static MemoryDto.CreateMemoryRequest message(String userId, String content, Integer importance) {
+		MemoryDto.CreateMemoryRequest request = new MemoryDto.CreateMemoryRequest();
+		request.userId = userId;
+		request.source = "test";
+		request.content = content;
+		request.importance = importance;
+		return request;
+	}
+
+	private static MemoryDto.CreateMemoryRequest preference(String userId, String topic, String content) {
+		MemoryDto.CreateMemoryRequest request = message(userId, content, null);
+		request.type = "PREFERENCE";
+		request.topic = topic;
+		return request;
+	}
+
+	private static Memory stored(String userId, String content, Integer importance) {
+		Memory memory = new Memory();
+		memory.id = new UUID(0, 1);
+		memory.userId = userId;
+		memory.source = "test";
+		memory.content = content;
+		memory.fingerprint = SimHash.of(content);
+		memory.type = MemoryType.FACT;
+		memory.importance = importance;
+		memory.active = true;
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0);
+		memory.updatedAt = memory.createdAt;
+		return memory;
+	}
+
+	private static Memory stored(int n, String userId, String content, MemoryType type, int importance,
+			String... tags) {
+		Memory memory = stored(userId, content, importance);
+		memory.id = new UUID(0, n);
+		memory.type = type;
+		memory.tags = tags;
+		memory.createdAt = memory.createdAt.plusMinutes(n);
+		memory.updatedAt = memory.createdAt;
+		return memory;
+	}
+}
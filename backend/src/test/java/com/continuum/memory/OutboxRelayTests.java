@@ -0,0 +1,186 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class OutboxRelayTests {
+
+	private final MemoryChangeRepository changes = mock(MemoryChangeRepository.class);
+	private final OutboxOffsetRepository offsets = mock(OutboxOffsetRepository.class);
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final List<MemoryChange> received = new ArrayList<>();
+
+	@Test
+	void deliversChangesInTransactionOrderAndAdvancesOffset() {
+		OutboxRelay relay = relay(received::addAll);
+		when(offsets.lock("test")).thenReturn(List.of(offset(0, 0)));
+		when(changes.visibleHorizon()).thenReturn(100L);
+		MemoryChange first = change(7, 3);
+		MemoryChange second = change(9, 1);
+		when(changes.findAfter(eq(0L), eq(0L), eq(100L), any())).thenReturn(List.of(first, second));
+
+		relay.poll();
+
+		assertThat(received).containsExactly(first, second);
+		verify(offsets).advance(eq("test"), eq(9L), eq(1L), any());
+		assertThat(registry.get("continuum.outbox.delivered").counter().count()).isEqualTo(2.0);
+	}
+
+	@Test
+	void keepsOffsetWhenSubscriberFails() {
+		OutboxRelay relay = relay(batch -> {
+			throw new IllegalStateException("down");
+		});
+		when(offsets.lock("test")).thenReturn(List.of(offset(7, 3)));
+		when(changes.visibleHorizon()).thenReturn(100L);
+		when(changes.findAfter(eq(7L), eq(3L), eq(100L), any())).thenReturn(List.of(change(9, 1)));
+
+		relay.poll();
+
+		verify(offsets, never()).advance(any(), anyLong(), anyLong(), any());
+		assertThat(registry.get("continuum.outbox.failures").counter().count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void skipsSubscriberWhileAnotherInstanceHoldsItsOffset() {
+		OutboxRelay relay = relay(received::addAll);
+		when(offsets.lock("test")).thenReturn(List.of());
+
+		relay.poll();
+
+		verify(changes, never()).findAfter(anyLong(), anyLong(), anyLong(), any());
+		assertThat(received).isEmpty();
+	}
+
+	@Test
+	void startsPerReplicaOffsetAtVisibleEndAndRemovesItOnShutdown() {
+		OutboxRelay relay = relay(new MemoryChangeSubscriber() {
+			@Override
+			public String name() {
+				return "index";
+			}
+
+			@Override
+			public boolean everyInstance() {
+				return true;
+			}
+
+			@Override
+			public void onChanges(List<MemoryChange> batch) {
+				received.addAll(batch);
+			}
+		});
+		when(changes.visibleHorizon()).thenReturn(100L);
+
+		relay.createInstanceOffsets();
+
+		ArgumentCaptor<String> key = ArgumentCaptor.forClass(String.class);
+		verify(offsets).createIfMissing(key.capture(), eq(99L), eq(Long.MAX_VALUE), any());
+		assertThat(key.getValue()).startsWith("index@");
+		relay.removeInstanceOffsets();
+		verify(offsets).deleteById(key.getValue());
+	}
+
+	@Test
+	void cleanupRefreshesOwnOffsetsAndDropsThoseOfStoppedReplicas() {
+		OutboxRelay relay = relay(new MemoryChangeSubscriber() {
+			@Override
+			public String name() {
+				return "index";
+			}
+
+			@Override
+			public boolean everyInstance() {
+				return true;
+			}
+
+			@Override
+			public void onChanges(List<MemoryChange> batch) {
+			}
+		});
+		when(offsets.deleteAbandoned(any())).thenReturn(2);
+		LocalDateTime before = LocalDateTime.now();
+
+		relay.deleteDelivered();
+
+		ArgumentCaptor<LocalDateTime> now = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(offsets).touch(argThat(keys -> keys.size() == 1 && keys.iterator().next().startsWith("index@")),
+				now.capture());
+		// Offsets untouched for the retention window belong to replicas that are gone
+		verify(offsets).deleteAbandoned(now.getValue().minus(Duration.ofDays(7)));
+		assertThat(now.getValue()).isAfterOrEqualTo(before);
+	}
+
+	@Test
+	void cleanupWithoutPerReplicaSubscribersOnlyDropsAbandonedOffsets() {
+		OutboxRelay relay = relay(received::addAll);
+
+		relay.deleteDelivered();
+
+		verify(offsets, never()).touch(any(), any());
+		verify(offsets).deleteAbandoned(any());
+	}
+
+	private OutboxRelay relay(Consumer<List<MemoryChange>> handler) {
+		return relay(new MemoryChangeSubscriber() {
+			@Override
+			public String name() {
+				return "test";
+			}
+
+			@Override
+			public void onChanges(List<MemoryChange> batch) {
+				handler.accept(batch);
+			}
+		});
+	}
+
+	private OutboxRelay relay(MemoryChangeSubscriber subscriber) {
+		@SuppressWarnings("unchecked")
+		ObjectProvider<MemoryChangeSubscriber> subscribers = mock(ObjectProvider.class);
+		when(subscribers.orderedStream()).thenReturn(Stream.of(subscriber));
+		TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		return new OutboxRelay(changes, offsets, subscribers, transactionTemplate, registry, 500, Duration.ofDays(7));
+	}
+
+	private static OutboxOffset offset(long txId, long changeId) {
+		OutboxOffset offset = new OutboxOffset();
+		offset.subscriber = "test";
+		offset.txId = txId;
+		offset.changeId = changeId;
+		offset.updatedAt = LocalDateTime.now();
+		return offset;
+	}
+
+	private static MemoryChange change(long txId, long id) {
+		MemoryChange change = new MemoryChange();
+		change.id = id;
+		change.txId = txId;
+		change.kind = MemoryChange.Kind.CREATED;
+		change.memoryId = UUID.randomUUID();
+		change.userId = "u1";
+		change.occurredAt = LocalDateTime.now();
+		return change;
+	}
+}
@@ -0,0 +1,90 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class RankingModelTests {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 1, 0, 0);
+
+	@Test
+	void weighsImportanceRecencyAndType() {
+		UserMemoryIndex index = new UserMemoryIndex(model("CONSTRAINT=0.15"));
+		// Equal text relevance for "java"; only the other signals differ
+		index.upsert(memory(1, "java build notes", MemoryType.OTHER, 1, NOW.minusDays(300)));
+		index.upsert(memory(2, "java style rules", MemoryType.CONSTRAINT, 4, NOW.minusDays(300)));
+		index.upsert(memory(3, "java deploy notes", MemoryType.OTHER, 5, NOW.minusDays(300)));
+		index.upsert(memory(4, "java test notes", MemoryType.OTHER, 1, NOW));
+
+		assertThat(index.search("java", null, null, 4, 0)).containsExactly(id(2), id(3), id(4), id(1));
+		// Relevance alone keeps the old order: ties go to the newest
+		UserMemoryIndex plain = new UserMemoryIndex();
+		for (int n = 1; n <= 4; n++) {
+			plain.upsert(memory(n, "java notes", MemoryType.OTHER, 3, NOW));
+		}
+		assertThat(plain.search("java", null, null, 4, 0)).containsExactly(id(4), id(3), id(2), id(1));
+	}
+
+	@Test
+	void scoresScaleRelevanceToTheBestCandidateAndHalveRecencyPerHalfLife() {
+		RankingModel ranking = model("");
+		double[] scores = { 4, 2 };
+		double[] importance = { RankingModel.importanceSignal(5), RankingModel.importanceSignal(null) };
+		double[] ages = { 0, Duration.ofDays(30).toSeconds() };
+
+		ranking.score(scores, importance, ages, new double[] { 0, 0.15 }, 2);
+
+		assertThat(scores[0]).isCloseTo(1.0 + 0.3 * 1.0 + 0.2 * 1.0, within(1e-9));
+		assertThat(scores[1]).isCloseTo(0.5 + 0.3 * 0.5 + 0.2 * 0.5 + 0.15, within(1e-9));
+	}
+
+	@Test
+	void missingOrOutOfRangeImportanceIsClampedToTheScale() {
+		assertThat(RankingModel.importanceSignal(null)).isEqualTo(0.5);
+		assertThat(RankingModel.importanceSignal(0)).isEqualTo(0.0);
+		assertThat(RankingModel.importanceSignal(9)).isEqualTo(1.0);
+	}
+
+	@Test
+	void parsesTypePriorsAndRejectsBadConfiguration() {
+		RankingModel ranking = model(" constraint = 0.15 , GOAL=0.05,");
+		assertThat(ranking.prior(MemoryType.CONSTRAINT)).isEqualTo(0.15);
+		assertThat(ranking.prior(MemoryType.GOAL)).isEqualTo(0.05);
+		assertThat(ranking.prior(MemoryType.FACT)).isEqualTo(0.0);
+		assertThat(ranking.prior(null)).isEqualTo(0.0);
+
+		assertThatThrownBy(() -> model("CONSTRAINT")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> model("RULE=0.1")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new RankingModel(1, 0.3, 0.2, Duration.ZERO, "", Clock.systemUTC()))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static RankingModel model(String typePriors) {
+		return new RankingModel(1.0, 0.3, 0.2, Duration.ofDays(30), typePriors,
+				Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+	}
+
+	private static Memory memory(int n, String content, MemoryType type, int importance, LocalDateTime updatedAt) {
+		Memory memory = new Memory();
+		memory.id = id(n);
+		memory.userId = "u1";
+		memory.content = content;
+		memory.type = type;
+		memory.importance = importance;
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(n);
+		memory.updatedAt = updatedAt;
+		return memory;
+	}
+
+	private static UUID id(int n) {
+		return new UUID(0, n);
+	}
+}
@@ -0,0 +1,89 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class SimHashTests {
+
+	private static final String PROMPT = "You are an AI assistant that uses a persistent memory layer. "
+			+ "===== CONTEXT START ===== The user prefers concise answers. The user works with Java 17 and "
+			+ "Spring Boot. ===== CONTEXT END ===== Task: refactor the auth module to the new session API and "
+			+ "write tests";
+
+	@Test
+	void nearDuplicatesAreFoundThroughFingerprintBands() {
+		UserMemoryIndex index = new UserMemoryIndex();
+		Memory original = memory(1, PROMPT);
+		original.workspaceId = "w1";
+		index.upsert(original);
+		index.upsert(memory(2, "My goal is to launch the SaaS beta by March"));
+
+		String edited = PROMPT.replace("write tests", "add tests");
+		int allowed = SimHash.allowedDistance(edited, SimHash.MAX_DISTANCE);
+		assertThat(allowed).isEqualTo(SimHash.MAX_DISTANCE);
+		assertThat(index.nearDuplicate(SimHash.of(edited), "w1", allowed).id).isEqualTo(new UUID(0, 1));
+		assertThat(index.nearDuplicate(SimHash.of(edited), "w2", allowed)).isNull();
+		assertThat(index.nearDuplicate(SimHash.of("Plan the launch of the SaaS beta"), null, allowed)).isNull();
+
+		// One changed word in a short memory is a different fact, not a duplicate
+		assertThat(SimHash.allowedDistance("Always use Java 21 and Spring Boot", SimHash.MAX_DISTANCE)).isEqualTo(0);
+		assertThat(index.nearDuplicate(SimHash.of("my goal is to launch the SaaS beta by March!"), null, 0).id)
+				.isEqualTo(new UUID(0, 2));
+
+		index.remove(new UUID(0, 1));
+		assertThat(index.nearDuplicate(SimHash.of(edited), "w1", allowed)).isNull();
+	}
+
+	@Test
+	void fingerprintsWithinMaxDistanceShareABand() {
+		Random random = new Random(5);
+		for (int trial = 0; trial < 1000; trial++) {
+			long fingerprint = random.nextLong();
+			long near = fingerprint;
+			while (SimHash.distance(fingerprint, near) < SimHash.MAX_DISTANCE) {
+				near ^= 1L << random.nextInt(64);
+			}
+			int[] keys = SimHash.bandKeys(fingerprint);
+			int[] nearKeys = SimHash.bandKeys(near);
+			boolean shared = false;
+			for (int band = 0; band < SimHash.BANDS; band++) {
+				shared |= keys[band] == nearKeys[band];
+			}
+			assertThat(shared).isTrue();
+		}
+	}
+
+	@Test
+	void tableFindsTheClosestAcceptedItem() {
+		long fingerprint = SimHash.of(PROMPT);
+		SimHash.Table<Long> table = new SimHash.Table<>(Long::longValue);
+		table.add(fingerprint ^ 0b111);
+		table.add(fingerprint ^ 0b1);
+		table.add(~fingerprint);
+
+		assertThat(table.find(fingerprint, SimHash.MAX_DISTANCE, item -> true)).isEqualTo(fingerprint ^ 0b1);
+		assertThat(table.find(fingerprint, SimHash.MAX_DISTANCE, item -> item != (fingerprint ^ 0b1)))
+				.isEqualTo(fingerprint ^ 0b111);
+		assertThat(table.find(fingerprint, 0, item -> true)).isNull();
+	}
+
+	@Test
+	void fingerprintIgnoresCaseAndPunctuationButNotWordOrder() {
+		assertThat(SimHash.of("Use tabs, not spaces!")).isEqualTo(SimHash.of("use TABS not spaces"));
+		assertThat(SimHash.of("use tabs not spaces")).isNotEqualTo(SimHash.of("use spaces not tabs"));
+	}
+
+	private static Memory memory(int n, String content) {
+		Memory memory = new Memory();
+		memory.id = new UUID(0, n);
+		memory.userId = "u1";
+		memory.content = content;
+		memory.fingerprint = SimHash.of(content);
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(n);
+		return memory;
+	}
+}
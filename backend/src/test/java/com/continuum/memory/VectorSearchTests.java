@@ -0,0 +1,187 @@
+package com.continuum.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class VectorSearchTests {
+
+	private static final int DIMENSIONS = 32;
+
+	// Deterministic stand-in for the sentence embedding model: each term hashes to
+	// a dimension, and a few synonyms share one so they count as "semantically"
+	// close without sharing a keyword.
+	private static final Map<String, String> SYNONYMS = Map.of(
+			"automobile", "car",
+			"vehicle", "car",
+			"terse", "concise",
+			"brief", "concise");
+
+	static float[] fakeEmbedding(String text) {
+		float[] vector = new float[DIMENSIONS];
+		for (String term : UserMemoryIndex.tokenize(text)) {
+			String canonical = SYNONYMS.getOrDefault(term, term);
+			vector[Math.floorMod(canonical.hashCode(), DIMENSIONS)] += 1f;
+		}
+		return vector;
+	}
+
+	private static float[] randomVector(Random random, int dimensions) {
+		float[] vector = new float[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			vector[i] = (float) random.nextGaussian();
+		}
+		return vector;
+	}
+
+	@Test
+	void hnswRecallMatchesBruteForce() {
+		Random random = new Random(7);
+		HnswIndex index = new HnswIndex(16, 100, 42);
+		List<float[]> unitVectors = new ArrayList<>();
+		for (int id = 0; id < 2000; id++) {
+			float[] vector = randomVector(random, 24);
+			unitVectors.add(Embeddings.normalize(vector));
+			index.insert(id, vector);
+		}
+
+		int k = 10;
+		int found = 0;
+		int queries = 50;
+		for (int q = 0; q < queries; q++) {
+			float[] query = randomVector(random, 24);
+			float[] unitQuery = Embeddings.normalize(query);
+			List<Integer> exact = new ArrayList<>();
+			for (int id = 0; id < unitVectors.size(); id++) {
+				exact.add(id);
+			}
+			exact.sort(Comparator.comparingDouble(id -> -Embeddings.dot(unitQuery, unitVectors.get(id))));
+			Set<Integer> truth = new HashSet<>(exact.subList(0, k));
+			for (HnswIndex.Hit hit : index.search(query, k, 64, null)) {
+				if (truth.contains(hit.id)) {
+					found++;
+				}
+			}
+		}
+		assertThat((double) found / (queries * k)).isGreaterThan(0.9);
+	}
+
+	@Test
+	void hnswRemoveDropsVectorAndKeepsGraphSearchable() {
+		Random random = new Random(11);
+		HnswIndex index = new HnswIndex(8, 50, 42);
+		for (int id = 0; id < 300; id++) {
+			index.insert(id, randomVector(random, 16));
+		}
+		float[] target = randomVector(random, 16);
+		index.insert(1000, target);
+		assertThat(index.search(target, 1, 32, null).get(0).id).isEqualTo(1000);
+
+		index.remove(1000);
+		for (int id = 0; id < 150; id++) {
+			index.remove(id);
+		}
+		assertThat(index.size()).isEqualTo(150);
+		List<HnswIndex.Hit> hits = index.search(target, 10, 32, null);
+		assertThat(hits).hasSize(10);
+		assertThat(hits).allSatisfy(hit -> assertThat(hit.id).isBetween(150, 299));
+	}
+
+	@Test
+	void hybridSearchFindsSemanticMatchWithoutSharedKeywords() {
+		UserMemoryIndex index = new UserMemoryIndex();
+		index.upsert(memory("m1", "I drive a car to work every day"));
+		index.upsert(memory("m2", "Prefer Python for data scripts"));
+		index.upsert(memory("m3", "Keep answers concise please"));
+
+		String query = "automobile";
+		assertThat(index.search(query, null, null, 1, 0.5)).containsExactly(id("m3"));
+		assertThat(index.search(query, fakeEmbedding(query), null, 1, 0.5)).containsExactly(id("m1"));
+		assertThat(index.search("brief", fakeEmbedding("brief"), null, 1, 0.5)).containsExactly(id("m3"));
+	}
+
+	@Test
+	void snapshotsServeResultsAndFollowUpserts() {
+		UserMemoryIndex index = new UserMemoryIndex();
+		Memory original = memory("m1", "Prefer tabs over spaces");
+		original.type = MemoryType.PREFERENCE;
+		index.upsert(original);
+
+		List<Memory> hits = index.searchSnapshots("tabs", null, null, ContextFilter.NONE, 1, 0, count -> { });
+		assertThat(hits).hasSize(1);
+		assertThat(hits.get(0)).isNotSameAs(original);
+		assertThat(hits.get(0).content).isEqualTo("Prefer tabs over spaces");
+		assertThat(hits.get(0).embedding).isNull();
+
+		Memory edited = memory("m1", "Prefer spaces over tabs");
+		edited.type = MemoryType.PREFERENCE;
+		index.upsert(edited);
+		assertThat(index.searchSnapshots("tabs", null, null, ContextFilter.NONE, 1, 0, count -> { }).get(0).content)
+				.isEqualTo("Prefer spaces over tabs");
+	}
+
+	@Test
+	void removalsCompactTheOrdinalSpaceAndKeepOrder() {
+		UserMemoryIndex index = new UserMemoryIndex();
+		for (int n = 0; n < 1000; n++) {
+			index.upsert(memory("m" + n, "note " + n, MemoryType.FACT, 3));
+		}
+		for (int n = 0; n < 1000; n++) {
+			if (n % 10 != 0) {
+				index.remove(id("m" + n));
+			}
+		}
+
+		assertThat(index.size()).isEqualTo(100);
+		assertThat(index.ordinalCapacity()).isLessThan(500);
+		assertThat(index.search("990", fakeEmbedding("990"), null, 1, 0.5)).containsExactly(id("m990"));
+		assertThat(index.newestOfTypes(null, EnumSet.of(MemoryType.FACT), 2))
+				.extracting(memory -> memory.id)
+				.containsExactly(id("m990"), id("m980"));
+
+		index.upsert(memory("m1000", "note 1000", MemoryType.FACT, 3));
+		assertThat(index.newestOfTypes(null, EnumSet.of(MemoryType.FACT), 1))
+				.extracting(memory -> memory.id)
+				.containsExactly(id("m1000"));
+		assertThat(contents(index, ContextFilter.of(null, null, null, null,
+				LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(985)))).containsExactly("note 1000", "note 990");
+	}
+
+	@Test
+	void embeddingsRoundTripThroughColumnEncoding() {
+		float[] vector = { 0.25f, -1.5f, 3f };
+		assertThat(Embeddings.decode(Embeddings.encode(vector))).containsExactly(vector);
+	}
+
+	// Everything the filter lets through, whatever the query matches
+	private static List<String> contents(UserMemoryIndex index, ContextFilter filter) {
+		return index.searchSnapshots("java", null, null, filter, 10, 0, count -> { }).stream()
+				.map(memory -> memory.content)
+				.toList();
+	}
+
+	private static Memory memory(String id, String content, MemoryType type, int importance, String... tags) {
+		Memory memory = memory(id, content);
+		memory.type = type;
+		memory.importance = importance;
+		memory.tags = tags;
+		return memory;
+	}
+
+	private static Memory memory(String id, String content) {
+		Memory memory = new Memory();
+		memory.id = id(id);
+		memory.userId = "u1";
+		memory.content = content;
+		memory.embedding = Embeddings.encode(fakeEmbedding(content));
+		memory.createdAt = LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(Integer.parseInt(id.substring(1)));
+		return memory;
+	}
+
+	// "m3" -> a fixed UUID whose low bits are 3
+	private static UUID id(String name) {
+		return new UUID(0, Integer.parseInt(name.substring(1)));
+	}
+}
@@ -0,0 +1,147 @@
+package com.continuum.nlu;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class CachingIntentClassifierTests {
+
+	private static final Duration TTL = Duration.ofDays(7);
+
+	private final NluClient delegate = mock(NluClient.class);
+	private final ClassificationCacheRepository repository = mock(ClassificationCacheRepository.class);
+	private final AtomicLong now = new AtomicLong();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void missCallsTheServiceAndHitDoesNot() {
+		CachingIntentClassifier classifier = classifier(false);
+		when(delegate.classifyIntent("Use tabs")).thenReturn("PREFERENCE");
+
+		assertThat(classifier.classifyIntent("Use tabs")).isEqualTo("PREFERENCE");
+		assertThat(classifier.classifyIntent("  use   TABS ")).isEqualTo("PREFERENCE");
+
+		verify(delegate, times(1)).classifyIntent(anyString());
+	}
+
+	@Test
+	void batchSendsEachDistinctMissOnce() {
+		CachingIntentClassifier classifier = classifier(false);
+		when(delegate.classifyIntent("Use tabs")).thenReturn("PREFERENCE");
+		classifier.classifyIntent("Use tabs");
+		when(delegate.classifyIntents(List.of("Ship v2"))).thenReturn(List.of("GOAL"));
+
+		assertThat(classifier.classifyIntents(List.of("Ship v2", "use tabs", "ship v2")))
+				.containsExactly("GOAL", "PREFERENCE", "GOAL");
+	}
+
+	@Test
+	void entriesExpireAfterTheTtl() {
+		CachingIntentClassifier classifier = classifier(false);
+		when(delegate.classifyIntent("Use tabs")).thenReturn("PREFERENCE");
+		classifier.classifyIntent("Use tabs");
+
+		now.addAndGet(TTL.plusSeconds(1).toNanos());
+		classifier.classifyIntent("Use tabs");
+
+		verify(delegate, times(2)).classifyIntent("Use tabs");
+	}
+
+	@Test
+	void freshTableRowIsServedAndCachedInProcess() {
+		CachingIntentClassifier classifier = classifier(true);
+		String key = CachingIntentClassifier.contentKey("Use tabs");
+		when(repository.findAllById(List.of(key))).thenReturn(List.of(entry(key, "PREFERENCE", LocalDateTime.now())));
+
+		assertThat(classifier.classifyIntent("Use tabs")).isEqualTo("PREFERENCE");
+		assertThat(classifier.classifyIntent("Use tabs")).isEqualTo("PREFERENCE");
+
+		verify(repository, times(1)).findAllById(any());
+		verify(delegate, never()).classifyIntent(anyString());
+		assertThat(registry.get("continuum.nlu.cache.persistent-hits").counter().count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void expiredTableRowIsReclassifiedAndOverwritten() {
+		CachingIntentClassifier classifier = classifier(true);
+		String key = CachingIntentClassifier.contentKey("Use tabs");
+		when(repository.findAllById(List.of(key)))
+				.thenReturn(List.of(entry(key, "FACT", LocalDateTime.now().minus(TTL).minusHours(1))));
+		when(delegate.classifyIntent("Use tabs")).thenReturn("PREFERENCE");
+
+		assertThat(classifier.classifyIntent("Use tabs")).isEqualTo("PREFERENCE");
+
+		verify(repository).upsertAll(eq(key), eq("PREFERENCE"), any());
+		verify(repository, never()).save(any());
+	}
+
+	@Test
+	void batchReadsAndWritesTheTableOnceForAllMisses() {
+		CachingIntentClassifier classifier = classifier(true);
+		String stored = CachingIntentClassifier.contentKey("Ship v2");
+		when(repository.findAllById(any())).thenReturn(List.of(entry(stored, "GOAL", LocalDateTime.now())));
+		when(delegate.classifyIntents(List.of("Use tabs", "Fix the bug")))
+				.thenReturn(Arrays.asList("PREFERENCE", null));
+
+		assertThat(classifier.classifyIntents(List.of("Use tabs", "Ship v2", "Fix the bug", "use tabs")))
+				.containsExactly("PREFERENCE", "GOAL", null, "PREFERENCE");
+
+		verify(repository, times(1)).findAllById(argThat(keys -> ((Collection<?>) keys).size() == 3));
+		// The failed classification is left out
+		verify(repository, times(1)).upsertAll(eq(CachingIntentClassifier.contentKey("Use tabs")),
+				eq("PREFERENCE"), any());
+		verify(delegate, never()).classifyIntent(anyString());
+	}
+
+	@Test
+	void failedClassificationIsNotStored() {
+		CachingIntentClassifier classifier = classifier(true);
+		assertThat(classifier.classifyIntent("Use tabs")).isNull();
+
+		verify(repository, never()).upsertAll(anyString(), anyString(), any());
+	}
+
+	@Test
+	void cleanupDeletesRowsPastTheTtl() {
+		CachingIntentClassifier classifier = classifier(true);
+		when(repository.deleteClassifiedBefore(any())).thenReturn(3);
+		LocalDateTime before = LocalDateTime.now().minus(TTL);
+
+		classifier.deleteExpired();
+
+		verify(repository).deleteClassifiedBefore(argThat(
+				cutoff -> !cutoff.isBefore(before) && cutoff.isBefore(before.plusMinutes(1))));
+	}
+
+	private CachingIntentClassifier classifier(boolean persistent) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		return new CachingIntentClassifier(delegate, repository, transactionTemplate, registry, 100, TTL, persistent,
+				now::get);
+	}
+
+	private static ClassificationCacheEntry entry(String key, String type, LocalDateTime classifiedAt) {
+		ClassificationCacheEntry entry = new ClassificationCacheEntry();
+		entry.contentHash = key;
+		entry.type = type;
+		entry.classifiedAt = classifiedAt;
+		return entry;
+	}
+}
@@ -0,0 +1,251 @@
+package com.continuum.prompt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.continuum.memory.MemoryDto;
+import com.continuum.memory.MemoryService;
+import com.continuum.workspace.WorkspaceDto;
+import com.continuum.workspace.WorkspaceService;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class PromptServiceTests {
+
+	private final PromptService service = new PromptService(mock(MemoryService.class), mock(WorkspaceService.class),
+			Runnable::run, new SimpleMeterRegistry(), ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+	@Test
+	void rendersSectionsInOrderAndSkipsInactiveWovenAndDuplicateTasks() {
+		MemoryDto.MemoryResponse woven = memory("m5", "FACT", "===== CONTEXT START ===== old prompt");
+		woven.wovenPrompt = true;
+		MemoryDto.MemoryResponse superseded = memory("m6", "PREFERENCE", "Use spaces");
+		superseded.active = false;
+		MemoryDto.MemoryResponse tagged = memory("m1", "PREFERENCE", "Use tabs");
+		tagged.importance = 5;
+		tagged.tags = "style";
+
+		String prompt = service.buildPrompt(List.of(
+				memory("m3", "TASK", "Fix the login bug"),
+				tagged,
+				memory("m4", "task", "fix the login bug "),
+				woven,
+				superseded,
+				memory("m2", "GOAL", "Ship v2")), "Write tests", true);
+
+		assertThat(prompt).isEqualTo("You are an AI assistant. Use the CONTEXT section as the user's long-term memory "
+				+ "(goals, preferences, history).\n"
+				+ "Read CONTEXT first, then answer TASK. Prefer recent or explicitly corrective items when there is conflict.\n\n"
+				+ "===== CONTEXT START =====\n\n"
+				+ "## User Preferences\n\n1. Use tabs (importance: 5, tags: style)\n\n"
+				+ "## Current Goals\n\n1. Ship v2\n\n"
+				+ "## Recent Prompts\n\n1. Fix the login bug\n\n"
+				+ "## Other Relevant Facts\n\n"
+				+ "===== CONTEXT END =====\n\n"
+				+ "## TASK\n\nWrite tests\n"
+				+ "\nWhen answering, ground your response in the CONTEXT where relevant and keep it consistent with the user's long-term preferences.");
+	}
+
+	@Test
+	void reusesContextAcrossTasksAndRerendersEditedMemories() {
+		MemoryDto.MemoryResponse goal = memory("m1", "GOAL", "Ship v2");
+		String first = service.buildPrompt(List.of(goal), "Task one", false);
+		String second = service.buildPrompt(List.of(goal), "Task two", false);
+		assertThat(second.replace("Task two", "Task one")).isEqualTo(first);
+
+		MemoryDto.MemoryResponse edited = memory("m1", "GOAL", "Ship v3");
+		edited.updatedAt = goal.updatedAt.plusSeconds(1);
+		assertThat(service.buildPrompt(List.of(edited), "Task one", false)).contains("1. Ship v3").doesNotContain("v2");
+	}
+
+	@Test
+	void saysSoWhenThereIsNoContext() {
+		assertThat(service.buildPrompt(List.of(), "Task", false))
+				.startsWith("===== CONTEXT START =====\n\nNo prior context was found for this user.");
+	}
+
+	@Test
+	void estimatesTokensLikeSubwordTokenizer() {
+		assertThat(TokenEstimator.estimate("")).isEqualTo(0);
+		assertThat(TokenEstimator.estimate("Use tabs.")).isEqualTo(3);
+		assertThat(TokenEstimator.estimate("internationalization")).isEqualTo(5);
+	}
+
+	@Test
+	void budgetPrefersRelevancePerTokenAndTrimsTheOverflow() {
+		MemoryDto.MemoryResponse essay = memory("m1", "FACT", "word ".repeat(400).trim());
+		MemoryDto.MemoryResponse goal = memory("m2", "GOAL", "Ship v2");
+		MemoryDto.MemoryResponse preference = memory("m3", "PREFERENCE", "Use tabs");
+
+		List<MemoryDto.MemoryResponse> chosen = service.selectWithinBudget(List.of(essay, goal, preference), 60,
+				Integer.MAX_VALUE);
+
+		assertThat(chosen).extracting(m -> m.id).containsExactly("m1", "m2", "m3");
+		assertThat(chosen.get(0).content).endsWith(" \u2026");
+		assertThat(chosen.get(0).content.length()).isLessThan(essay.content.length());
+		int tokens = chosen.stream().mapToInt(m -> TokenEstimator.estimate(m.content) + 3).sum();
+		assertThat(tokens).isLessThanOrEqualTo(60);
+		assertThat(essay.content).doesNotEndWith(" \u2026");
+	}
+
+	@Test
+	void trimmingCachesOnlyTheChosenRendering() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		PromptService budgeted = new PromptService(mock(MemoryService.class), mock(WorkspaceService.class),
+				Runnable::run, registry, ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+		budgeted.selectWithinBudget(List.of(memory("m1", "FACT", "word ".repeat(400).trim())), 60, Integer.MAX_VALUE);
+
+		assertThat(registry.get("cache.size").tag("cache", "prompt.lines").gauge().value()).isEqualTo(1);
+	}
+
+	@Test
+	void generatedPromptStaysWithinTheTokenBudget() {
+		MemoryService memories = mock(MemoryService.class);
+		String task = "Write integration tests for the login flow and the password reset emails";
+		when(memories.queryContext("u1", null, task, 20)).thenReturn(List.of(
+				memory("m1", "FACT", "word ".repeat(400).trim()),
+				memory("m3", "TASK", "Fix the login bug")));
+		when(memories.pinnedContext("u1", null, 5)).thenReturn(List.of(memory("m2", "PREFERENCE", "Use tabs")));
+		PromptService budgeted = new PromptService(memories, mock(WorkspaceService.class), Runnable::run,
+				new SimpleMeterRegistry(), ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+		PromptDto.GeneratePromptResponse response = budgeted.generatePrompt("u1", null, task, null, 300, true);
+
+		assertThat(response.estimatedTokens).isLessThanOrEqualTo(300);
+		assertThat(response.contextMemoriesUsed).isEqualTo(3);
+		assertThat(response.prompt).contains("\u2026");
+	}
+
+	@Test
+	void budgetRespectsCountCapAndSkipsUnrenderedMemories() {
+		MemoryDto.MemoryResponse superseded = memory("m1", "PREFERENCE", "Use spaces");
+		superseded.active = false;
+
+		List<MemoryDto.MemoryResponse> chosen = service.selectWithinBudget(List.of(superseded,
+				memory("m2", "GOAL", "Ship v2"), memory("m3", "GOAL", "Write docs")), 1000, 1);
+
+		assertThat(chosen).extracting(m -> m.id).containsExactly("m2");
+	}
+
+	@Test
+	void streamedChunksConcatenateToTheGeneratedPrompt() {
+		MemoryService memories = mock(MemoryService.class);
+		when(memories.queryContext("u1", null, "Write tests", 5)).thenReturn(List.of(
+				memory("m3", "TASK", "Fix the login bug"),
+				memory("m1", "GOAL", "Ship v2")));
+		when(memories.pinnedContext("u1", null, 5)).thenReturn(List.of(
+				memory("m1", "GOAL", "Ship v2"),
+				memory("m2", "PREFERENCE", "Use tabs")));
+		PromptService streaming = new PromptService(memories, mock(WorkspaceService.class), Runnable::run,
+				new SimpleMeterRegistry(), ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+		List<PromptDto.PromptChunk> chunks = streaming.streamPrompt("u1", null, "Write tests", null, null, true)
+				.collectList()
+				.block();
+
+		assertThat(chunks).extracting(chunk -> chunk.section)
+				.containsExactly("header", "preferences", "goals", "tasks", "task", "done");
+		assertThat(chunks.stream().map(chunk -> chunk.text).collect(Collectors.joining()))
+				.isEqualTo(streaming.generatePrompt("u1", null, "Write tests", null, null, true).prompt);
+		assertThat(chunks.get(5).contextMemoriesUsed).isEqualTo(3);
+	}
+
+	@Test
+	void streamsStandingSectionsBeforeTheRankingCompletes() throws Exception {
+		MemoryService memories = mock(MemoryService.class);
+		CountDownLatch ranking = new CountDownLatch(1);
+		when(memories.queryContext("u1", null, "Write tests", 5)).thenAnswer(invocation -> {
+			ranking.await();
+			return List.of(memory("m3", "TASK", "Fix the login bug"));
+		});
+		when(memories.pinnedContext("u1", null, 5)).thenReturn(List.of(memory("m2", "PREFERENCE", "Use tabs")));
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			PromptService streaming = new PromptService(memories, mock(WorkspaceService.class), executor,
+					new SimpleMeterRegistry(), ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+			List<PromptDto.PromptChunk> early = streaming.streamPrompt("u1", null, "Write tests", null, null, false)
+					.take(2)
+					.collectList()
+					.block(Duration.ofSeconds(5));
+
+			assertThat(early).extracting(chunk -> chunk.section).containsExactly("header", "preferences");
+		} finally {
+			ranking.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void fansOutRetrievalAndAddsPinnedMemoriesAndWorkspace() {
+		MemoryService memories = mock(MemoryService.class);
+		WorkspaceService workspaces = mock(WorkspaceService.class);
+		when(memories.queryContext("u1", "w1", "Write tests", 5)).thenReturn(List.of(
+				memory("m1", "TASK", "Fix the login bug"),
+				memory("m2", "PREFERENCE", "Use tabs")));
+		when(memories.pinnedContext("u1", "w1", 5)).thenReturn(List.of(
+				memory("m2", "PREFERENCE", "Use tabs"),
+				memory("m3", "GOAL", "Ship v2")));
+		WorkspaceDto.WorkspaceResponse workspace = new WorkspaceDto.WorkspaceResponse();
+		workspace.name = "Continuum";
+		workspace.description = "Memory layer for LLM chats";
+		when(workspaces.getWorkspaceById("w1")).thenReturn(workspace);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			PromptService fanOut = new PromptService(memories, workspaces, executor, new SimpleMeterRegistry(),
+					ObservationRegistry.NOOP, 100, 100, Duration.ofMinutes(1));
+
+			PromptDto.GeneratePromptResponse response = fanOut.generatePrompt("u1", "w1", "Write tests", null, null,
+					false);
+
+			assertThat(response.contextMemoriesUsed).isEqualTo(3);
+			assertThat(response.prompt).startsWith("===== CONTEXT START =====\n\n"
+					+ "## Workspace\n\nContinuum: Memory layer for LLM chats\n\n"
+					+ "## User Preferences\n\n1. Use tabs\n\n"
+					+ "## Current Goals\n\n1. Ship v2\n\n"
+					+ "## Recent Prompts\n\n1. Fix the login bug\n\n");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void recordsStageTimersAndPromptSize() {
+		MemoryService memories = mock(MemoryService.class);
+		when(memories.queryContext("u1", null, "Write tests", 5)).thenReturn(List.of(memory("m1", "GOAL", "Ship v2")));
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ObservationRegistry observations = ObservationRegistry.create();
+		observations.observationConfig().observationHandler(new DefaultMeterObservationHandler(registry));
+		PromptService observed = new PromptService(memories, mock(WorkspaceService.class), Runnable::run, registry,
+				observations, 100, 100, Duration.ofMinutes(1));
+
+		observed.generatePrompt("u1", null, "Write tests", null, null, false);
+
+		for (String stage : List.of("retrieve", "score", "render")) {
+			assertThat(registry.get("continuum.prompt.stage").tag("stage", stage).timer().count()).isEqualTo(1);
+		}
+		assertThat(registry.get("continuum.prompt.memories").summary().totalAmount()).isEqualTo(1);
+		assertThat(registry.get("continuum.prompt.tokens").summary().count()).isEqualTo(1);
+	}
+
+	private static MemoryDto.MemoryResponse memory(String id, String type, String content) {
+		MemoryDto.MemoryResponse memory = new MemoryDto.MemoryResponse();
+		memory.id = id;
+		memory.type = type;
+		memory.content = content;
+		memory.active = true;
+		memory.updatedAt = LocalDateTime.of(2025, 1, 1, 0, 0);
+		return memory;
+	}
+}
@@ -0,0 +1,218 @@
+package com.continuum.bench;
+
+import com.continuum.App;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+// Scripted closed-loop load test. Starts the backend in-process on a random port,
+// backed by in-memory H2 and a stub NLU service, then runs three phases in turn:
+// ingest (POST /api/ingestion/messages), query (POST /api/context/query) and
+// generate (POST /api/prompts/generate). Each simulated client sends a request,
+// waits for the answer and sends the next. Prints throughput and latency
+// percentiles per phase. Run with:
+//   java -cp benchmarks/target/benchmarks.jar com.continuum.bench.LoadTest
+// System properties: bench.clients (default 32), bench.seconds per phase
+// (default 20), bench.users (default 50), bench.maxP99Ms (unset; when set, exits
+// with status 1 if any phase's p99 exceeds it, for use as a CI gate) and
+// bench.target (unset; when set to a base URL such as http://localhost:8080, the
+// phases run against that backend, e.g. one on Postgres, instead of an embedded
+// one).
+public class LoadTest {
+
+	private static final String[] MESSAGES = {
+			"I prefer concise answers with code first",
+			"Always use Java 17 and Spring Boot for backend examples",
+			"My goal is to launch the SaaS beta by March",
+			"We decided to keep Postgres as the only datastore",
+			"I need to write integration tests for the ingestion endpoint",
+			"The auth module still uses the legacy session API",
+			"Avoid long explanations unless I ask for them",
+			"Our API is REST, not GraphQL" };
+
+	private static final String[] TASKS = {
+			"Refactor the auth module to use the new session API",
+			"Explain the tradeoffs of our Postgres indexing strategy",
+			"Draft release notes for the launch",
+			"Write integration tests for the ingestion endpoint",
+			"Suggest a caching strategy for context queries" };
+
+	record Result(String phase, int clients, long requests, long errors, double seconds, long[] sortedNanos) {
+
+		double throughput() {
+			return sortedNanos.length / seconds;
+		}
+
+		double percentileMs(double p) {
+			if (sortedNanos.length == 0) {
+				return Double.NaN;
+			}
+			int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(p * sortedNanos.length) - 1);
+			return sortedNanos[Math.max(0, index)] / 1_000_000.0;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = Integer.getInteger("bench.clients", 32);
+		int seconds = Integer.getInteger("bench.seconds", 20);
+		int users = Integer.getInteger("bench.users", 50);
+		String maxP99 = System.getProperty("bench.maxP99Ms");
+		String target = System.getProperty("bench.target");
+
+		List<Result> results;
+		if (target != null) {
+			results = runPhases(target, clients, seconds, users);
+		} else {
+			try (StubNluServer nlu = new StubNluServer();
+					ConfigurableApplicationContext app = start(nlu.baseUrl())) {
+				int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+				results = runPhases("http://127.0.0.1:" + port, clients, seconds, users);
+			}
+		}
+
+		boolean regressed = false;
+		System.out.printf("%-9s %7s %9s %7s %10s %9s %9s %9s %9s%n",
+				"phase", "clients", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+		for (Result r : results) {
+			System.out.printf("%-9s %7d %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+					r.phase(), r.clients(), r.requests(), r.errors(), r.throughput(),
+					r.percentileMs(0.50), r.percentileMs(0.95), r.percentileMs(0.99), r.percentileMs(1.0));
+			if (maxP99 != null && (r.errors() > 0 || r.percentileMs(0.99) > Double.parseDouble(maxP99))) {
+				regressed = true;
+			}
+		}
+		System.exit(regressed ? 1 : 0);
+	}
+
+	// Ingest, then query and generate over what was ingested
+	private static List<Result> runPhases(String baseUrl, int clients, int seconds, int users)
+			throws InterruptedException {
+		List<Result> results = new ArrayList<>();
+		results.add(run("ingest", clients, seconds, baseUrl + "/api/ingestion/messages", random -> json(
+				"userId", user(random, users),
+				"source", "load-test",
+				"text", MESSAGES[random.nextInt(MESSAGES.length)] + " " + noise(random, 8))));
+		results.add(run("query", clients, seconds, baseUrl + "/api/context/query", random -> json(
+				"userId", user(random, users),
+				"query", TASKS[random.nextInt(TASKS.length)],
+				"limit", 10)));
+		results.add(run("generate", clients, seconds, baseUrl + "/api/prompts/generate", random -> json(
+				"userId", user(random, users),
+				"task", TASKS[random.nextInt(TASKS.length)],
+				"contextLimit", 10,
+				"tokenBudget", 1500,
+				"includeSystemInstructions", true)));
+		return results;
+	}
+
+	private static ConfigurableApplicationContext start(String nluBaseUrl) {
+		return new SpringApplicationBuilder(App.class)
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+						"spring.datasource.username=sa",
+						"spring.datasource.password=",
+						"spring.jpa.hibernate.ddl-auto=create-drop",
+						"spring.jpa.show-sql=false",
+						"gemini.api.key=unused",
+						"continuum.storage.postgres=false",
+						"nlu.base-url=" + nluBaseUrl,
+						"logging.level.root=WARN")
+				.run();
+	}
+
+	// Closed loop: `clients` threads each send requests back to back until the
+	// deadline. The first tenth of the phase is warm-up and isn't recorded.
+	private static Result run(String phase, int clients, int seconds, String url,
+			Function<Random, String> body) throws InterruptedException {
+		HttpClient client = HttpClient.newBuilder()
+				.connectTimeout(Duration.ofSeconds(5))
+				.executor(Executors.newFixedThreadPool(clients))
+				.build();
+		URI uri = URI.create(url);
+		long now = System.nanoTime();
+		long deadline = now + TimeUnit.SECONDS.toNanos(seconds);
+		long measureFrom = now + TimeUnit.SECONDS.toNanos(seconds) / 10;
+		Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+		AtomicLong errors = new AtomicLong();
+
+		ExecutorService threads = Executors.newFixedThreadPool(clients);
+		for (int c = 0; c < clients; c++) {
+			int seed = c;
+			threads.submit(() -> {
+				Random random = new Random(seed);
+				while (System.nanoTime() < deadline) {
+					HttpRequest request = HttpRequest.newBuilder(uri)
+							.timeout(Duration.ofSeconds(30))
+							.header("Content-Type", "application/json")
+							.POST(HttpRequest.BodyPublishers.ofString(body.apply(random)))
+							.build();
+					long start = System.nanoTime();
+					try {
+						HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+						// Ingest answers 201 for a new memory and 200 for a merge
+						if (response.statusCode() / 100 != 2) {
+							errors.incrementAndGet();
+							continue;
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+						continue;
+					}
+					if (start >= measureFrom) {
+						latencies.add(System.nanoTime() - start);
+					}
+				}
+				return null;
+			});
+		}
+		threads.shutdown();
+		threads.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+
+		long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+		return new Result(phase, clients, sorted.length, errors.get(), seconds * 0.9, sorted);
+	}
+
+	private static String user(Random random, int users) {
+		return "load-user-" + random.nextInt(users);
+	}
+
+	// `words` random lowercase words. Appended to an ingested message, they move
+	// its SimHash fingerprint far enough that the duplicate check stores it as a
+	// new memory instead of merging it; a single differing token often wouldn't.
+	private static String noise(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int w = 0; w < words; w++) {
+			if (w > 0) {
+				sb.append(' ');
+			}
+			for (int c = 0; c < 6; c++) {
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		return sb.toString();
+	}
+
+	// Flat JSON object from alternating keys and values; strings are quoted
+	private static String json(Object... pairs) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < pairs.length; i += 2) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('"').append(pairs[i]).append("\":");
+			Object value = pairs[i + 1];
+			sb.append(value instanceof String ? "\"" + value + "\"" : value);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,107 @@
+package com.continuum.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// In-process stand-in for nlu-service with the same endpoints. Intents come from
+// keywords and embeddings from hashed words, so results are deterministic and
+// the load test measures the backend rather than the model.
+class StubNluServer implements AutoCloseable {
+
+	static final int DIMENSIONS = 384;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final HttpServer server;
+
+	StubNluServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newFixedThreadPool(8));
+		handle("/classify-intent", body -> Map.of("type", intent(body.path("text").asText())));
+		handle("/classify-intent/batch", body -> Map.of("types", each(body, StubNluServer::intent)));
+		handle("/embed", body -> Map.of("embedding", embed(body.path("text").asText())));
+		handle("/embed/batch", body -> Map.of("embeddings", each(body, StubNluServer::embed)));
+		server.start();
+	}
+
+	String baseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private void handle(String path, Function<JsonNode, Object> handler) {
+		server.createContext(path, exchange -> {
+			try {
+				JsonNode body = mapper.readTree(exchange.getRequestBody());
+				respond(exchange, mapper.writeValueAsBytes(handler.apply(body)));
+			} finally {
+				exchange.close();
+			}
+		});
+	}
+
+	private static void respond(HttpExchange exchange, byte[] json) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, json.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(json);
+		}
+	}
+
+	private static <T> List<T> each(JsonNode body, Function<String, T> f) {
+		List<T> results = new ArrayList<>();
+		for (JsonNode text : body.path("texts")) {
+			results.add(f.apply(text.asText()));
+		}
+		return results;
+	}
+
+	static String intent(String text) {
+		String lower = text.toLowerCase();
+		if (lower.contains("prefer") || lower.contains("always") || lower.contains("avoid")) {
+			return "PREFERENCE";
+		}
+		if (lower.contains("goal") || lower.contains("want to")) {
+			return "GOAL";
+		}
+		if (lower.contains("decided") || lower.contains("we will")) {
+			return "DECISION";
+		}
+		if (lower.contains("todo") || lower.contains("need to")) {
+			return "TASK";
+		}
+		return "FACT";
+	}
+
+	// Bag of hashed words, L2-normalized like the real model's output
+	static float[] embed(String text) {
+		float[] vector = new float[DIMENSIONS];
+		for (String word : text.toLowerCase().split("\\W+")) {
+			if (!word.isEmpty()) {
+				vector[Math.floorMod(word.hashCode(), DIMENSIONS)] += 1f;
+			}
+		}
+		double norm = 0;
+		for (float v : vector) {
+			norm += v * v;
+		}
+		if (norm > 0) {
+			float scale = (float) (1 / Math.sqrt(norm));
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] *= scale;
+			}
+		}
+		return vector;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,105 @@
+package com.continuum.memory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Compares the original sort-and-rescore ranking in queryContext with the
+// indexed top-K path. Run with (see benchmarks/README.md):
+//   java -jar benchmarks/target/benchmarks.jar QueryContextBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryContextBenchmark {
+
+	private static final String[] VOCABULARY = {
+			"java", "spring", "python", "postgres", "prompt", "concise", "tone", "refactor", "auth", "module",
+			"deadline", "saas", "launch", "api", "rest", "graphql", "tests", "deploy", "docker", "cache",
+			"index", "latency", "memory", "user", "workspace", "goal", "task", "prefer", "avoid", "explain" };
+
+	@Param({ "1000", "10000", "100000" })
+	public int memories;
+
+	@Param({ "5" })
+	public int limit;
+
+	private List<Memory> fixture;
+	private UserMemoryIndex index;
+	private String query;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+		fixture = new ArrayList<>(memories);
+		index = new UserMemoryIndex();
+		for (int i = 0; i < memories; i++) {
+			Memory memory = new Memory();
+			memory.id = new UUID(0, i);
+			memory.userId = "bench-user";
+			memory.content = sentence(random, 8 + random.nextInt(24));
+			memory.createdAt = base.plusMinutes(i);
+			fixture.add(memory);
+			index.upsert(memory);
+		}
+		query = "refactor the auth module and keep answers concise";
+	}
+
+	@Benchmark
+	public void legacySortAndRescore(Blackhole bh) {
+		String[] terms = query.toLowerCase().split("\\s+");
+		List<Memory> top = fixture.stream()
+				.sorted((a, b) -> {
+					int scoreA = legacyScore(a.content, terms);
+					int scoreB = legacyScore(b.content, terms);
+					if (scoreA != scoreB) {
+						return Integer.compare(scoreB, scoreA);
+					}
+					return b.createdAt.compareTo(a.createdAt);
+				})
+				.limit(limit)
+				.toList();
+		bh.consume(top);
+	}
+
+	@Benchmark
+	public void indexedTopK(Blackhole bh) {
+		bh.consume(index.search(query, null, null, limit, 0));
+	}
+
+	private static int legacyScore(String content, String[] terms) {
+		String lower = content.toLowerCase();
+		int score = 0;
+		for (String term : terms) {
+			if (!term.isEmpty() && lower.contains(term)) {
+				score++;
+			}
+		}
+		return score;
+	}
+
+	private static String sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(QueryContextBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+}
@@ -0,0 +1,195 @@
+package com.continuum.memory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+// Offline ranking evaluation. Loads a fixture of one user's memories with graded
+// relevance judgments per query, ranks every query under a series of ranking
+// models (each adding one signal to the last) and prints quality and scoring
+// cost side by side:
+//   nDCG@5   graded ranking quality of the top five, 1.0 = ideal order
+//   MRR      1 / rank of the first result judged relevant, averaged
+//   P@1      share of queries whose first result is the best-graded memory
+//   us/query mean time to rank one query in the in-memory index
+// Ranking is keyword-only so the numbers don't depend on an embedding model. Run
+// with (see benchmarks/README.md):
+//   java -cp benchmarks/target/benchmarks.jar com.continuum.memory.RankingEvaluation [fixture.tsv]
+// The default fixture is src/main/resources/ranking-fixture.tsv. Add a row for
+// other weights with -Dranking.custom="relevance;importance;recency;half-life;priors",
+// e.g. "1.0;0.5;0.1;P14D;CONSTRAINT=0.2,GOAL=0.1".
+public class RankingEvaluation {
+
+	private static final int K = 5;
+	private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 1, 12, 0);
+	private static final Clock CLOCK = Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+	private static final int TIMING_ROUNDS = 20_000;
+
+	// Keeps the timed searches from being optimized away
+	private static volatile long sink;
+
+	record Judged(String query, Map<UUID, Integer> grades) {
+	}
+
+	record Fixture(List<Memory> memories, List<Judged> queries, Map<UUID, String> keys) {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Fixture fixture = args.length > 0 ? load(Files.newInputStream(Path.of(args[0]))) : load(
+				RankingEvaluation.class.getResourceAsStream("/ranking-fixture.tsv"));
+
+		Map<String, RankingModel> models = new LinkedHashMap<>();
+		models.put("relevance only", model(1.0, 0, 0, Duration.ofDays(30), ""));
+		models.put("+ importance", model(1.0, 0.3, 0, Duration.ofDays(30), ""));
+		models.put("+ recency", model(1.0, 0.3, 0.2, Duration.ofDays(30), ""));
+		models.put("+ type priors", model(1.0, 0.3, 0.2, Duration.ofDays(30),
+				"CONSTRAINT=0.15,PREFERENCE=0.05,GOAL=0.05"));
+		String custom = System.getProperty("ranking.custom");
+		if (custom != null) {
+			String[] parts = custom.split(";", -1);
+			models.put("custom", model(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+					Double.parseDouble(parts[2]), Duration.parse(parts[3]), parts[4]));
+		}
+
+		// One untimed pass so the first model doesn't pay for JIT compilation
+		UserMemoryIndex warmup = new UserMemoryIndex(models.get("relevance only"));
+		fixture.memories().forEach(warmup::upsert);
+		microsPerQuery(warmup, fixture.queries());
+
+		System.out.printf("%d memories, %d queries%n%n", fixture.memories().size(), fixture.queries().size());
+		System.out.printf("%-16s %8s %8s %8s %10s%n", "model", "nDCG@5", "MRR", "P@1", "us/query");
+		for (Map.Entry<String, RankingModel> entry : models.entrySet()) {
+			UserMemoryIndex index = new UserMemoryIndex(entry.getValue());
+			fixture.memories().forEach(index::upsert);
+
+			double ndcg = 0;
+			double mrr = 0;
+			double precision = 0;
+			for (Judged judged : fixture.queries()) {
+				List<UUID> ranked = index.search(judged.query(), null, null, K, 0);
+				ndcg += ndcg(ranked, judged.grades());
+				mrr += reciprocalRank(ranked, judged.grades());
+				int best = Collections.max(judged.grades().values());
+				precision += !ranked.isEmpty() && judged.grades().getOrDefault(ranked.get(0), 0) == best ? 1 : 0;
+			}
+			int n = fixture.queries().size();
+			System.out.printf("%-16s %8.3f %8.3f %8.3f %10.2f%n", entry.getKey(), ndcg / n, mrr / n, precision / n,
+					microsPerQuery(index, fixture.queries()));
+		}
+
+		if (Boolean.getBoolean("ranking.verbose")) {
+			UserMemoryIndex index = new UserMemoryIndex(models.get("+ type priors"));
+			fixture.memories().forEach(index::upsert);
+			for (Judged judged : fixture.queries()) {
+				List<String> keys = index.search(judged.query(), null, null, K, 0).stream()
+						.map(fixture.keys()::get)
+						.toList();
+				System.out.printf("%n%s%n  %s%n", judged.query(), keys);
+			}
+		}
+	}
+
+	private static RankingModel model(double relevance, double importance, double recency, Duration halfLife,
+			String priors) {
+		return new RankingModel(relevance, importance, recency, halfLife, priors, CLOCK);
+	}
+
+	private static double ndcg(List<UUID> ranked, Map<UUID, Integer> grades) {
+		double dcg = 0;
+		for (int i = 0; i < Math.min(K, ranked.size()); i++) {
+			dcg += gain(grades.getOrDefault(ranked.get(i), 0), i);
+		}
+		List<Integer> ideal = new ArrayList<>(grades.values());
+		ideal.sort(Comparator.reverseOrder());
+		double idcg = 0;
+		for (int i = 0; i < Math.min(K, ideal.size()); i++) {
+			idcg += gain(ideal.get(i), i);
+		}
+		return idcg == 0 ? 0 : dcg / idcg;
+	}
+
+	private static double gain(int grade, int position) {
+		return (Math.pow(2, grade) - 1) / (Math.log(position + 2) / Math.log(2));
+	}
+
+	private static double reciprocalRank(List<UUID> ranked, Map<UUID, Integer> grades) {
+		for (int i = 0; i < ranked.size(); i++) {
+			if (grades.getOrDefault(ranked.get(i), 0) > 0) {
+				return 1.0 / (i + 1);
+			}
+		}
+		return 0;
+	}
+
+	// Warm up, then time every query repeatedly
+	private static double microsPerQuery(UserMemoryIndex index, List<Judged> queries) {
+		long results = 0;
+		for (int round = 0; round < TIMING_ROUNDS / 4; round++) {
+			for (Judged judged : queries) {
+				results += index.search(judged.query(), null, null, K, 0).size();
+			}
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < TIMING_ROUNDS; round++) {
+			for (Judged judged : queries) {
+				results += index.search(judged.query(), null, null, K, 0).size();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		sink = results;
+		return elapsed / 1000.0 / ((double) TIMING_ROUNDS * queries.size());
+	}
+
+	private static Fixture load(InputStream in) throws IOException {
+		List<Memory> memories = new ArrayList<>();
+		List<Judged> queries = new ArrayList<>();
+		Map<String, UUID> ids = new HashMap<>();
+		Map<UUID, String> keys = new HashMap<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\t");
+				if (fields[0].equals("M")) {
+					Memory memory = new Memory();
+					memory.id = UUID.nameUUIDFromBytes(fields[1].getBytes(StandardCharsets.UTF_8));
+					memory.userId = "eval-user";
+					memory.type = MemoryType.of(fields[2]);
+					memory.importance = Integer.parseInt(fields[3]);
+					memory.createdAt = NOW.minusDays(Long.parseLong(fields[4]));
+					memory.updatedAt = memory.createdAt;
+					memory.content = fields[5];
+					memory.active = true;
+					ids.put(fields[1], memory.id);
+					keys.put(memory.id, fields[1]);
+					memories.add(memory);
+				} else if (fields[0].equals("Q")) {
+					Map<UUID, Integer> grades = new HashMap<>();
+					for (String judgment : fields[2].split(",")) {
+						String[] pair = judgment.split("=");
+						UUID id = ids.get(pair[0].trim());
+						if (id == null) {
+							throw new IllegalArgumentException("Unknown memory in judgment: " + pair[0]);
+						}
+						grades.put(id, Integer.parseInt(pair[1].trim()));
+					}
+					queries.add(new Judged(fields[1], grades));
+				}
+			}
+		}
+		// The index assigns ordinals in insert order, which must follow createdAt
+		memories.sort(Comparator.comparing(memory -> memory.createdAt));
+		return new Fixture(memories, queries, keys);
+	}
+}
@@ -0,0 +1,62 @@
+package com.continuum.memory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Entity to DTO mapping as done for every listed, queried or exported memory.
+// Run with:
+//   java -jar benchmarks/target/benchmarks.jar ToResponseBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToResponseBenchmark {
+
+	@Param({ "100", "1000" })
+	public int memories;
+
+	private MemoryService service;
+	private List<Memory> page;
+
+	@Setup
+	public void setUp() {
+		// toResponse touches no collaborators
+		service = new MemoryService(null, null, null, null, null, null, null, null, null, new SimpleMeterRegistry(),
+				ObservationRegistry.NOOP, true, false, "merge", 3, 2000, 10000, Duration.ofHours(1));
+		LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+		page = new ArrayList<>(memories);
+		for (int i = 0; i < memories; i++) {
+			Memory memory = new Memory();
+			memory.id = new UUID(0, i);
+			memory.userId = "bench-user";
+			memory.workspaceId = i % 2 == 0 ? "w1" : null;
+			memory.source = "chatgpt";
+			memory.type = MemoryType.FACT;
+			memory.content = "Memory " + i + " about the launch deadline and the auth module";
+			memory.tags = new String[] { "coding", "java" };
+			memory.importance = 3;
+			memory.active = true;
+			memory.wovenPrompt = false;
+			memory.createdAt = base.plusMinutes(i);
+			memory.updatedAt = memory.createdAt;
+			page.add(memory);
+		}
+	}
+
+	@Benchmark
+	public void mapPage(Blackhole bh) {
+		List<MemoryDto.MemoryResponse> responses = new ArrayList<>(page.size());
+		for (Memory memory : page) {
+			responses.add(service.toResponse(memory));
+		}
+		bh.consume(responses);
+	}
+}
@@ -0,0 +1,71 @@
+package com.continuum.prompt;
+
+import com.continuum.memory.MemoryDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Prompt rendering in PromptService.buildPrompt. `cold` gives every memory a new
+// updatedAt each call so no rendered line or block is reused; `warm` repeats the
+// same context so only the TASK is rendered. Run with:
+//   java -jar benchmarks/target/benchmarks.jar BuildPromptBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildPromptBenchmark {
+
+	private static final String[] TYPES = { "PREFERENCE", "GOAL", "TASK", "DECISION", "FACT", "CONSTRAINT" };
+
+	@Param({ "5", "20", "50" })
+	public int memories;
+
+	private PromptService service;
+	private List<MemoryDto.MemoryResponse> context;
+	private LocalDateTime base;
+	private long version;
+
+	@Setup
+	public void setUp() {
+		service = new PromptService(null, null, Runnable::run, new SimpleMeterRegistry(), ObservationRegistry.NOOP,
+				100_000, 10_000, Duration.ofMinutes(10));
+		Random random = new Random(42);
+		base = LocalDateTime.of(2025, 1, 1, 0, 0);
+		context = new ArrayList<>(memories);
+		for (int i = 0; i < memories; i++) {
+			MemoryDto.MemoryResponse memory = new MemoryDto.MemoryResponse();
+			memory.id = "m" + i;
+			memory.userId = "bench-user";
+			memory.source = "chatgpt";
+			memory.type = TYPES[i % TYPES.length];
+			memory.content = "Memory " + i + " keeps answers concise and prefers Java with Spring for the backend";
+			memory.importance = 1 + random.nextInt(5);
+			memory.tags = i % 3 == 0 ? "coding,java" : null;
+			memory.active = true;
+			memory.createdAt = base.plusMinutes(i);
+			memory.updatedAt = memory.createdAt;
+			context.add(memory);
+		}
+	}
+
+	@Benchmark
+	public void cold(Blackhole bh) {
+		LocalDateTime updatedAt = base.plusNanos(++version);
+		for (MemoryDto.MemoryResponse memory : context) {
+			memory.updatedAt = updatedAt;
+		}
+		bh.consume(service.buildPrompt(context, "Refactor the auth module", true));
+	}
+
+	@Benchmark
+	public void warm(Blackhole bh) {
+		bh.consume(service.buildPrompt(context, "Refactor the auth module", true));
+	}
+}
@@ -88,6 +88,7 @@ async function getEnhancedPrompt(text) {
       workspaceId,
       task: text,
       contextLimit: 10,
+      tokenBudget: 1500,
       includeSystemInstructions: true,
     }),
   });
@@ -19,4 +19,42 @@ class IntentResponse(BaseModel):
 def classify_intent(req: IntentRequest):
     emb = embed_model.encode([req.text])  # shape (1, d)
     pred = clf.predict(emb)[0]
-    return IntentResponse(type=pred)
\ No newline at end of file
+    return IntentResponse(type=pred)
+
+class BatchIntentRequest(BaseModel):
+    texts: list[str]
+
+class BatchIntentResponse(BaseModel):
+    types: list[str]
+
+@app.post("/classify-intent/batch", response_model=BatchIntentResponse)
+def classify_intent_batch(req: BatchIntentRequest):
+    if not req.texts:
+        return BatchIntentResponse(types=[])
+    emb = embed_model.encode(req.texts)  # shape (n, d), one forward pass for the batch
+    preds = clf.predict(emb)
+    return BatchIntentResponse(types=[str(p) for p in preds])
+
+class EmbedRequest(BaseModel):
+    text: str
+
+class EmbedResponse(BaseModel):
+    embedding: list[float]
+
+@app.post("/embed", response_model=EmbedResponse)
+def embed(req: EmbedRequest):
+    emb = embed_model.encode([req.text], normalize_embeddings=True)[0]
+    return EmbedResponse(embedding=emb.tolist())
+
+class BatchEmbedRequest(BaseModel):
+    texts: list[str]
+
+class BatchEmbedResponse(BaseModel):
+    embeddings: list[list[float]]
+
+@app.post("/embed/batch", response_model=BatchEmbedResponse)
+def embed_batch(req: BatchEmbedRequest):
+    if not req.texts:
+        return BatchEmbedResponse(embeddings=[])
+    embs = embed_model.encode(req.texts, normalize_embeddings=True)
+    return BatchEmbedResponse(embeddings=[e.tolist() for e in embs])